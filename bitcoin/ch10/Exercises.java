@@ -12,7 +12,7 @@ public final class Exercises {
 		// Exercise 5
 		System.out.println("***** Exercise 2 *****");
 		String hex = "f9beb4d976657261636b000000000000000000005df6e0e2";
-		NetworkEnvelope env = NetworkEnvelope.parse(InputSource.wrap(hex.getBytes()));
+		NetworkEnvelope env = NetworkEnvelope.parse(InputSource.wrapHex(hex));
 		System.out.println(env.getMsgType());
 		System.out.println(env.getPayload().length);
 		
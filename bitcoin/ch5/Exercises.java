@@ -39,7 +39,7 @@ public final class Exercises {
 				"a87988ac005a6202000000001976a9143c82d7df364eb6c75be8c80df2b3eda8db57397088ac46" + 
 				"430600";
 		InputStream txStream = new ByteArrayInputStream(tx.getBytes());
-		Transaction txn = Transaction.parse(InputSource.wrap(txStream));
+		Transaction txn = Transaction.parse(InputSource.wrapHex(txStream));
 		
 		List<Input> inputs = txn.getInputs();
 		System.out.println("Total number of inputs = "+inputs.size());
@@ -36,11 +36,11 @@ public final class Exercises {
 				"afeffffff02a135ef01000000001976a914bc3b654dca7e56b04dca18f2566cdaf02e8d9ada88a" + 
 				"c99c39800000000001976a9141c4bc762dd5423e332166702cb75f40df79fea1288ac19430600";
 		
-		Transaction tx = Transaction.parse(InputSource.wrap(hex.getBytes()));
+		Transaction tx = Transaction.parse(InputSource.wrapHex(hex));
 		BigInteger fee = tx.getFee();
 		
 		System.out.println(isThisEqualOrGreaterThanThat(fee, BigInteger.ZERO));
-		
+	
 	    hex = "0100000002137c53f0fb48f83666fcfd2fe9f12d13e94ee109c5aeabbf"
 				+ "a32bb9e02538f4cb000000006a47304402207e6009ad86367fc4b166bc80bf1"
 				+ "0cf1e78832a01e9bb491c6d126ee8aa436cb502200e29e6dd7708ed419cd5ba"
@@ -54,7 +54,7 @@ public final class Exercises {
 				+ "4a802fc56c704ce87c42d7c92eb75e7896bdc41ae88aca5515e000000000019"
 				+ "76a914e82bd75c9c662c3f5700b33fec8a676b6e9391d588ac00000000";
 		
-		tx = Transaction.parse(InputSource.wrap(hex.getBytes()));
+		tx = Transaction.parse(InputSource.wrapHex(hex));
 		OutputSink sink = new OutputSink();
 		tx.writeTo(sink);
 		
@@ -102,7 +102,7 @@ public final class Exercises {
 		String txHex = bytesToHex(sink.toByteArray());		
 		System.out.println(txHex);	
 		
-		Transaction rTx = Transaction.parse(InputSource.wrap(txHex.getBytes()));
+		Transaction rTx = Transaction.parse(InputSource.wrapHex(txHex));
 		System.out.println(tx.equals(rTx));
 		
 		txHex = "0100000001813f79011acb80925dfe69b3def355fe914bd1d96a3f5f71bf8303c6a989c7d10000" + 
@@ -112,14 +112,14 @@ public final class Exercises {
 				"01000000001976a914bc3b654dca7e56b04dca18f2566cdaf02e8d9ada88ac99c3980000000000" + 
 				"1976a9141c4bc762dd5423e332166702cb75f40df79fea1288ac19430600";
 		
-		rTx = Transaction.parse(InputSource.wrap(txHex.getBytes()));
+		rTx = Transaction.parse(InputSource.wrapHex(txHex));
 		
 		System.out.println(tx.equals(rTx));
 		
 		
 		// Exercise 5
 		txHex = "02000000000101045cbaae127d7ff23644da7a06a94a8b5909b1a1b7a670cf242077e8704747bc0100000000feffffff0213493f3d0000000017a914e1eb09d3b1c9d9e6363e42e5dfe19c4251c882fa872b001f00000000001976a914ff81c2a10a348e3102901dbe7d6736d142d4804488ac024730440220107fdc5450985f5a93f8b95fffbf1feb503c5babc981cdc9e2b68572c18bc7fd02203fbf9f94c63340abb7bc3903ebbb595114abb4689d3078877cc1e5b2d2182f870121038ab29383ccafa8d575a290cb7b434bccd9a2424ddd0baa89a99d41e91e1cd9f4cda61a00";
-		rTx = Transaction.parse(InputSource.wrap(txHex.getBytes()));
+		rTx = Transaction.parse(InputSource.wrapHex(txHex));
 		System.out.println(rTx);
 		//if (true) {
 		//	return;
@@ -19,7 +19,7 @@ public final class Exercises {
 				"4a7c53b8c0a0a220cfd0000000000000000005b0750fce0a889502d40508d39576821155e9c9e3" + 
 				"f5c3157f961db38fd8b25be1e77a759e93c0118a4ffd71d";
 		
-		Block b = Block.parse(InputSource.wrap(hex.getBytes()));
+		Block b = Block.parse(InputSource.wrapHex(hex));
 		System.out.println(b.getId());
 		System.out.println(b.isBip9Ready());
 		System.out.println(b.isBip91Ready());
@@ -41,8 +41,8 @@ public final class Exercises {
 				"d5168fb3586f7613dcc5cd89675b0100000000000000002e37b144c0baced07eb7e7b64da916cd" +
 				"3121f2427005551aeb0ec6a6402ac7d7f0e4235954d801187f5da9f5";
 		
-		Block first = Block.parse(InputSource.wrap(hex1.getBytes()));
-		Block last = Block.parse(InputSource.wrap(hex2.getBytes()));
+		Block first = Block.parse(InputSource.wrapHex(hex1));
+		Block last = Block.parse(InputSource.wrapHex(hex2));
 		target = PowHelper.calculateNewTarget(first, last);
 		System.out.println(target.toString(16));
 		
@@ -56,8 +56,8 @@ public final class Exercises {
 				"10c8aba8479bbaa5e0848152fd3c2289ca50e1c3e58c9a4faaafbdf5803c5448ddb84559" + 
 				"7e8b0118e43a81d3";
 		
-		first = Block.parse(InputSource.wrap(hex1.getBytes()));
-		last = Block.parse(InputSource.wrap(hex2.getBytes()));
+		first = Block.parse(InputSource.wrapHex(hex1));
+		last = Block.parse(InputSource.wrapHex(hex2));
 		bits = PowHelper.calculateNewBits(first, last);
 		System.out.println(bits.toString(16));	
 		System.out.println();
@@ -3,28 +3,29 @@ package bitcoin.core;
 import static bitcoin.core.PowHelper.bitsToTarget;
 import static bitcoin.core.PowHelper.difficultyFromTarget;
 import static bitcoin.util.BigInt.fromLittleEndian;
+import static bitcoin.util.BigInt.fromUnsigned;
 import static bitcoin.util.BigInt.isThisLessThanThat;
 import static bitcoin.util.BigInt.toLittleEndian;
-import static bitcoin.util.Bytes.bytesToHex;
-import static bitcoin.util.Bytes.ensureSize;
-import static bitcoin.util.Bytes.hexToBytes;
-import static bitcoin.util.Bytes.reverse;
+import static bitcoin.util.Bytes.areEqual;
+import static bitcoin.util.Crypto.HASH_LENGTH;
 import static bitcoin.util.Crypto.hash256;
-import static bitcoin.util.Functions.areEqual;
 import static bitcoin.util.Functions.checkNull;
 import static bitcoin.util.Functions.isNull;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.List;
 
 import bitcoin.util.BytesEncodeable;
+import bitcoin.util.Hash256;
 import bitcoin.util.InputSource;
 import bitcoin.util.MerkleTree;
 import bitcoin.util.OutputSink;
 
 public final class Block extends BytesEncodeable {	
+	// Version (4), previous block hash (32), merkle root (32), timestamp (4), bits (4) and nonce (4) ...
+	private static final int HEADER_SIZE = 80;
+	
 	private BigInteger version;	
 	private BigInteger pvBlkHash;
 	private BigInteger mrklRootHash;
@@ -32,7 +33,7 @@ public final class Block extends BytesEncodeable {
 	private BigInteger bits;
 	private BigInteger nonce;
 	
-	private transient volatile byte[] hash;
+	private transient volatile Hash256 blockId;
 	private transient volatile String id;
 	private transient volatile Boolean bip9;
 	private transient volatile Boolean bip91;
@@ -60,10 +61,30 @@ public final class Block extends BytesEncodeable {
 		this.nonce = nonce;
 	}
 	
+	public BigInteger getVersion() {
+		return version;
+	}
+	
+	public BigInteger getPrevBlockHash() {
+		return pvBlkHash;
+	}
+	
+	public BigInteger getMerkleRootHash() {
+		return mrklRootHash;
+	}
+	
 	public BigInteger getTimestamp() {
 		return timestamp;
 	}
 	
+	public BigInteger getBits() {
+		return bits;
+	}
+	
+	public BigInteger getNonce() {
+		return nonce;
+	}
+	
 	public boolean isBip9Ready() {
 		if (isNull(bip9)) {
 			int v = version.intValue();
@@ -93,26 +114,27 @@ public final class Block extends BytesEncodeable {
 	
 	public String getId() {
 		if (id == null) {
-			id = bytesToHex(getHash());
+			id = getBlockId().toString();
 		}
 		
 		return id;
 	}
 	
+	// Returns the hash in display order ...
 	public byte[] getHash() {
-		if (hash == null) {
-			OutputSink sink = new OutputSink();
+		return getBlockId().toDisplayBytes();
+	}
+	
+	public Hash256 getBlockId() {
+		if (blockId == null) {
+			OutputSink sink = new OutputSink(HEADER_SIZE);
 			this.writeTo(sink);
-			byte[] h = hash256(sink.toByteArray());
-			
-			// The hash is the little endian of the original hash,
-			// hence we need to reverse the byte array ...
-			reverse(h);
-			hash = h;
 			
+			// The hash as computed is in internal byte order ...
+			blockId = Hash256.fromInternal(hash256(sink.toByteArray()));
 		}
 		
-		return hash;
+		return blockId;
 	}
 	
 	public BigInteger getTarget() {
@@ -133,7 +155,7 @@ public final class Block extends BytesEncodeable {
 	
 	public boolean isValidPoW() {
 		if (isNull(pow)) {
-			BigInteger idNum = new BigInteger(getId(), 16);
+			BigInteger idNum = getBlockId().toBigInteger();
 			pow = isThisLessThanThat(idNum, getTarget());
 		}
 		
@@ -144,11 +166,10 @@ public final class Block extends BytesEncodeable {
 		checkNull(sink);
 		
 		// First write the version ...
-		byte[] bytes = toLittleEndian(version, 4);
-		sink.write(bytes);
+		sink.writeIntLE(version.intValue());
 		
 		// Next write the previous block hash ...
-		bytes = toLittleEndian(pvBlkHash, 32);
+		byte[] bytes = toLittleEndian(pvBlkHash, 32);
 		sink.write(bytes);
 		
 		// Next write the merle root hash ...
@@ -156,76 +177,67 @@ public final class Block extends BytesEncodeable {
 		sink.write(bytes);		
 		
 		// Next write the timestamp ...
-		bytes = toLittleEndian(timestamp, 4);
-		sink.write(bytes);
-		
-		// Next write the bits
-		bytes = ensureSize(bits.toByteArray(), 4);		
-		sink.write(bytes);
+		sink.writeIntLE(timestamp.intValue());
 		
-		// Next write the nonce
-		bytes = ensureSize(nonce.toByteArray(), 4);	
-		sink.write(bytes);		
+		// Next write the bits and the nonce, both are kept as the big endian value
+		// of their bytes, hence the bytes are swapped back ...
+		sink.writeIntLE(Integer.reverseBytes(bits.intValue()));
+		sink.writeIntLE(Integer.reverseBytes(nonce.intValue()));		
+	}
+	
+	public int serializedSize() {
+		return HEADER_SIZE;
 	}
 	
 	public static Block parse(InputSource source) {
 		checkNull(source);
 		
-		// Read the version bytes (4 bytes or 8 characters) first ...
-		char[] chars = source.readNextChars(8);
-		byte[] bytes = hexToBytes(chars);
+		// Read the version bytes (4 bytes) first ...
+		BigInteger version = fromUnsigned(source.readNextIntLE());
 		
-		BigInteger version = fromLittleEndian(bytes);
-		
-		// Next read the previous block hash (32 bytes or 64 characters) ...
-		chars = source.readNextChars(64);
-		bytes = hexToBytes(chars);
+		// Next read the previous block hash (32 bytes) ...
+		byte[] bytes = source.readNextBytes(32);
 		
 		BigInteger pvBlkHash = fromLittleEndian(bytes);
 		
-		// Next read the Merkle root hash (32 bytes or 64 characters) ...
-		chars = source.readNextChars(64);
-		bytes = hexToBytes(chars);
+		// Next read the Merkle root hash (32 bytes) ...
+		bytes = source.readNextBytes(32);
 		
 		BigInteger mrklRootHash = fromLittleEndian(bytes);
 		
-		// Next read the timestamp (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-		
-		BigInteger timestamp = fromLittleEndian(bytes);
-		
-		// Next read the bits (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-				
-		BigInteger bits = new BigInteger(1, bytes);
+		// Next read the timestamp (4 bytes) ...
+		BigInteger timestamp = fromUnsigned(source.readNextIntLE());
 		
-		// Next read the nonce (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-				
-		BigInteger nonce = new BigInteger(1, bytes);
+		// Next read the bits and the nonce (4 bytes each), taken big endian ...
+		BigInteger bits = fromUnsigned(Integer.reverseBytes(source.readNextIntLE()));
+		BigInteger nonce = fromUnsigned(Integer.reverseBytes(source.readNextIntLE()));
 		
 		return new Block(version, pvBlkHash, mrklRootHash, timestamp, bits, nonce);
 	}
 	
 	private boolean isValidMerkleRoot(BigInteger merkleRoot, List<byte[]> txHashes) {		
-		List<BigInteger> hashes = new ArrayList<BigInteger>(txHashes.size());
-		
-		// Reverse the bytes and convert to big integer ...
-		for (byte[] b: txHashes) {
-			reverse(b);
-			hashes.add(new BigInteger(1, b));
+		int count = txHashes.size();
+		byte[] nodes = new byte[count * HASH_LENGTH];
+		
+		// The given hashes are in display order, hence copy them reversed into their
+		// internal order without touching the caller's arrays ...
+		for (int i = 0; i < count; ++i) {
+			byte[] b = txHashes.get(i);
+			if (b.length != HASH_LENGTH) {
+				throw new IllegalArgumentException("Transaction hash not valid.");
+			}
+			
+			int offset = i * HASH_LENGTH;
+			for (int j = 0; j < HASH_LENGTH; ++j) {
+				nodes[offset + j] = b[HASH_LENGTH - 1 - j];
+			}
 		}
 		
-		BigInteger rootHash = MerkleTree.rootOf(hashes);
-		byte[] hash = rootHash.toByteArray();
-		
-		// reverse the bytes again ...
-		reverse(hash);
+		MerkleTree.reduceToRoot(nodes, count);
 		
-		BigInteger root = new BigInteger(1, hash);
-		return areEqual(merkleRoot, root);
+		// The root in the header is also kept in display order, so compare it against
+		// the little endian bytes of the same ...
+		byte[] root = toLittleEndian(merkleRoot, HASH_LENGTH);
+		return areEqual(root, 0, HASH_LENGTH, nodes, 0, HASH_LENGTH);
 	}
 }
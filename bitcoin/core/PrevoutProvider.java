@@ -0,0 +1,43 @@
+package bitcoin.core;
+
+import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import bitcoin.util.Hash256;
+
+// Source of the outputs that transaction inputs spend, for verification and fees. An
+// outpoint always names the same output, so whatever answers is free to keep what it
+// has looked up. See UtxoView for one held in memory and TxFetcher.prevouts for one
+// that downloads the previous transactions ...
+public interface PrevoutProvider {
+	// Returns the output at the given position of the given transaction, or null if
+	// it is not known ...
+	Transaction.Output getPrevout(Hash256 txId, int index);
+	
+	// Returns the outputs spent by the given inputs, in the same order. Providers that
+	// are slow per lookup override this to look up every previous transaction once ...
+	default List<Transaction.Output> getPrevouts(List<Transaction.Input> inputs) {
+		checkNull(inputs);
+		
+		List<Transaction.Output> prevouts = new ArrayList<Transaction.Output>(inputs.size());
+		for (Transaction.Input input: inputs) {
+			Transaction.Output prevout = getPrevout(input.getPrevTxnId(), input.getPrevTxnIndexAsInt());
+			prevouts.add(checkFound(prevout, input));
+		}
+		
+		return Collections.unmodifiableList(prevouts);
+	}
+	
+	private static Transaction.Output checkFound(Transaction.Output prevout, Transaction.Input input) {
+		if (isNull(prevout)) {
+			throw new IllegalArgumentException("Output " + input.getPrevTxnId() + ":" +
+					Integer.toUnsignedString(input.getPrevTxnIndexAsInt()) + " not found.");
+		}
+		
+		return prevout;
+	}
+}
@@ -0,0 +1,50 @@
+package bitcoin.core;
+
+import static bitcoin.util.BigInt.writeIntLE;
+import static bitcoin.util.Functions.checkNull;
+
+import bitcoin.util.Hash256;
+import bitcoin.util.SaltedHashSet;
+
+// Inputs whose scripts already evaluated to true, so that a transaction checked again,
+// when it enters the mempool, shows up in a block or is broadcast once more, does not
+// run the interpreter again. An entry is the salted hash of the witness txid, the input
+// index and the verification flags. The witness txid commits to the scriptsig and the
+// witnesses, and the outpoint to the output being spent, so nothing else is needed ...
+public final class ScriptCache {
+	public static final int DEFAULT_CAPACITY = 100000;
+	
+	public static final ScriptCache INSTANCE = new ScriptCache(DEFAULT_CAPACITY);
+	
+	private final SaltedHashSet entries;
+	
+	public ScriptCache(int capacity) {
+		this.entries = new SaltedHashSet(capacity);
+	}
+	
+	public boolean contains(Hash256 wtxId, int index, int flags) {
+		checkNull(wtxId);
+		
+		return entries.contains(keyOf(wtxId, index, flags));
+	}
+	
+	// Records an input whose scripts evaluated to true under the given flags ...
+	public void add(Hash256 wtxId, int index, int flags) {
+		checkNull(wtxId);
+		
+		entries.add(keyOf(wtxId, index, flags));
+	}
+	
+	public SaltedHashSet getEntries() {
+		return entries;
+	}
+	
+	private Hash256 keyOf(Hash256 wtxId, int index, int flags) {
+		byte[] bytes = new byte[40];
+		wtxId.copyTo(bytes, 0);
+		writeIntLE(index, bytes, 32);
+		writeIntLE(flags, bytes, 36);
+		
+		return Hash256.fromInternal(entries.newDigest().digest(bytes));
+	}
+}
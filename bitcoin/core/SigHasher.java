@@ -0,0 +1,448 @@
+package bitcoin.core;
+
+import static bitcoin.crypto.ecc.Signature.SIGHASH_ANYONECANPAY;
+import static bitcoin.crypto.ecc.Signature.SIGHASH_NONE;
+import static bitcoin.crypto.ecc.Signature.SIGHASH_SINGLE;
+import static bitcoin.util.BigInt.writeIntLE;
+import static bitcoin.util.BigInt.writeLongLE;
+import static bitcoin.util.BigInt.writeVarInt;
+import static bitcoin.util.Crypto.HASH_LENGTH;
+import static bitcoin.util.Crypto.copyOf;
+import static bitcoin.util.Crypto.finishHash256;
+import static bitcoin.util.Crypto.hash256;
+import static bitcoin.util.Crypto.sha256;
+import static bitcoin.util.Crypto.sha256Digest;
+import static bitcoin.util.Crypto.taggedDigest;
+import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
+
+import java.security.MessageDigest;
+import java.util.List;
+
+import bitcoin.lang.Script;
+import bitcoin.util.OutputSink;
+
+// Works out the signature hashes of a transaction, for every hash type. The parts of
+// the serialization that the inputs share are written out once, and the modified copy
+// that each input signs is streamed from them into the digest, so nothing is copied
+// per input. The BIP143 intermediate hashes are worked out once and shared by all the
+// inputs. The scriptsigs and witnesses are never looked at, so signing one input does
+// not change the hashes of the others. The BIP341 (taproot) hashes work the same way,
+// with their single SHA-256 shared parts also worked out once ...
+final class SigHasher {
+	// Outpoint (36) and sequence (4) of an input ...
+	private static final int INPUT_SIZE = 40;
+	private static final int OUTPOINT_SIZE = 36;
+	
+	private static final byte[] EMPTY_SCRIPT = {0};
+	private static final byte[] ZERO_SEQUENCE = new byte[4];
+	private static final byte[] ZERO_HASH = new byte[HASH_LENGTH];
+	
+	// Output blanked by SIGHASH_SINGLE, an amount of -1 and an empty script ...
+	private static final byte[] BLANK_OUTPUT = {-1, -1, -1, -1, -1, -1, -1, -1, 0};
+	
+	// Hash of SIGHASH_SINGLE without a matching output, the number one in the byte
+	// order of the digest ...
+	private static final byte[] SINGLE_WITHOUT_OUTPUT = new byte[HASH_LENGTH];
+	
+	static {
+		SINGLE_WITHOUT_OUTPUT[0] = 1;
+	}
+	
+	// Midstate of the "TapSighash" tagged hash, only ever copied ...
+	private static final MessageDigest TAP_SIGHASH = taggedDigest("TapSighash");
+	
+	// Positions of the BIP341 shared hashes ...
+	private static final int SHA_PREVOUTS = 0;
+	private static final int SHA_AMOUNTS = 1;
+	private static final int SHA_SCRIPTPUBKEYS = 2;
+	private static final int SHA_SEQUENCES = 3;
+	private static final int SHA_OUTPUTS = 4;
+	
+	private final int version;
+	private final int lockTime;
+	
+	// Outpoint and sequence of every input ...
+	private final byte[] inputs;
+	private final int inputCount;
+	
+	// Serialized outputs, with the offset of each and one more marking the end ...
+	private final byte[] outputs;
+	private final int[] outputOffsets;
+	
+	private transient volatile byte[] prevOutsHash;
+	private transient volatile byte[] sequencesHash;
+	private transient volatile byte[] outputsHash;
+	private transient volatile byte[][] singleOutputHashes;
+	private transient volatile byte[][] taprootHashes;
+	
+	SigHasher(int version, List<Transaction.Input> inputs, List<Transaction.Output> outputs, int lockTime) {
+		checkNull(inputs, outputs);
+		
+		this.version = version;
+		this.lockTime = lockTime;
+		
+		OutputSink sink = new OutputSink(inputs.size() * INPUT_SIZE);
+		for (Transaction.Input input: inputs) {
+			input.getPrevTxnId().writeTo(sink);
+			sink.writeIntLE(input.getPrevTxnIndexAsInt());
+			sink.writeIntLE(input.getSeqAsInt());
+		}
+		
+		this.inputs = sink.toByteArray();
+		this.inputCount = inputs.size();
+		
+		int size = 0;
+		for (Transaction.Output output: outputs) {
+			size += output.serializedSize();
+		}
+		
+		outputOffsets = new int[outputs.size() + 1];
+		sink = new OutputSink(size);
+		for (int i = 0; i < outputs.size(); ++i) {
+			outputOffsets[i] = sink.size();
+			outputs.get(i).writeTo(sink);
+		}
+		
+		outputOffsets[outputs.size()] = sink.size();
+		this.outputs = sink.toByteArray();
+	}
+	
+	// Legacy (pre-segwit) signature hash of an input, with the given script in place
+	// of its scriptsig. The hash is returned in the order it comes out of the digest ...
+	byte[] legacyHash(int index, Script scriptCode, int hashType) {
+		checkNull(scriptCode);
+		checkIndex(index);
+		
+		int baseType = hashType & 0x1f;
+		boolean anyoneCanPay = (hashType & SIGHASH_ANYONECANPAY) != 0;
+		int outputCount = outputOffsets.length - 1;
+		
+		// Signing an output that does not exist signs the number one, a quirk that
+		// consensus has to keep ...
+		if (baseType == SIGHASH_SINGLE && index >= outputCount) {
+			return SINGLE_WITHOUT_OUTPUT.clone();
+		}
+		
+		byte[] scratch = new byte[9];
+		MessageDigest digestor = sha256Digest();
+		
+		writeIntLE(version, scratch, 0);
+		digestor.update(scratch, 0, 4);
+		
+		// Anyone can pay keeps only the signed input, the other inputs otherwise go
+		// with empty scripts, and for none and single with their sequences zeroed ...
+		int from = anyoneCanPay ? index : 0;
+		int to = anyoneCanPay ? index + 1 : inputCount;
+		boolean zeroOthers = baseType == SIGHASH_NONE || baseType == SIGHASH_SINGLE;
+		
+		digestor.update(scratch, 0, writeVarInt(to - from, scratch, 0));
+		for (int i = from; i < to; ++i) {
+			int at = i * INPUT_SIZE;
+			digestor.update(inputs, at, OUTPOINT_SIZE);
+			
+			if (i == index) {
+				digestor.update(scratch, 0, writeVarInt(scriptCode.serializedSize(), scratch, 0));
+				scriptCode.updateDigest(digestor);
+				digestor.update(inputs, at + OUTPOINT_SIZE, 4);
+			} else {
+				digestor.update(EMPTY_SCRIPT);
+				if (zeroOthers) {
+					digestor.update(ZERO_SEQUENCE);
+				} else {
+					digestor.update(inputs, at + OUTPOINT_SIZE, 4);
+				}
+			}
+		}
+		
+		// None signs no outputs, single the outputs up to its own with the ones before
+		// it blanked, and every other type all of them ...
+		if (baseType == SIGHASH_NONE) {
+			digestor.update(EMPTY_SCRIPT);
+		} else if (baseType == SIGHASH_SINGLE) {
+			digestor.update(scratch, 0, writeVarInt(index + 1, scratch, 0));
+			for (int i = 0; i < index; ++i) {
+				digestor.update(BLANK_OUTPUT);
+			}
+			
+			digestor.update(outputs, outputOffsets[index], outputOffsets[index + 1] - outputOffsets[index]);
+		} else {
+			digestor.update(scratch, 0, writeVarInt(outputCount, scratch, 0));
+			digestor.update(outputs);
+		}
+		
+		// Lock time and then the hash type, both as 4 little endian bytes ...
+		writeIntLE(lockTime, scratch, 0);
+		writeIntLE(hashType, scratch, 4);
+		digestor.update(scratch, 0, 8);
+		
+		byte[] hash = new byte[HASH_LENGTH];
+		finishHash256(digestor, hash, 0);
+		
+		return hash;
+	}
+	
+	// BIP143 signature hash of a segwit input spending the given amount. The script
+	// code is the witness script, or the p2pkh script of the key hash for p2wpkh ...
+	byte[] segwitHash(int index, Script scriptCode, long amount, int hashType) {
+		checkNull(scriptCode);
+		checkIndex(index);
+		
+		int baseType = hashType & 0x1f;
+		boolean anyoneCanPay = (hashType & SIGHASH_ANYONECANPAY) != 0;
+		boolean allOutputs = baseType != SIGHASH_NONE && baseType != SIGHASH_SINGLE;
+		
+		// The shared hashes are worked out before the digest is taken, as some of them
+		// are hashed with the same digest ...
+		byte[] hashPrevOuts = anyoneCanPay ? ZERO_HASH : getPrevOutsHash();
+		byte[] hashSequences = !anyoneCanPay && allOutputs ? getSequencesHash() : ZERO_HASH;
+		
+		byte[] hashOutputs;
+		if (allOutputs) {
+			hashOutputs = getOutputsHash();
+		} else if (baseType == SIGHASH_SINGLE && index < outputOffsets.length - 1) {
+			hashOutputs = getSingleOutputHash(index);
+		} else {
+			hashOutputs = ZERO_HASH;
+		}
+		
+		byte[] scratch = new byte[9];
+		MessageDigest digestor = sha256Digest();
+		
+		writeIntLE(version, scratch, 0);
+		digestor.update(scratch, 0, 4);
+		digestor.update(hashPrevOuts);
+		digestor.update(hashSequences);
+		
+		int at = index * INPUT_SIZE;
+		digestor.update(inputs, at, OUTPOINT_SIZE);
+		
+		digestor.update(scratch, 0, writeVarInt(scriptCode.serializedSize(), scratch, 0));
+		scriptCode.updateDigest(digestor);
+		
+		writeLongLE(amount, scratch, 0);
+		digestor.update(scratch, 0, 8);
+		digestor.update(inputs, at + OUTPOINT_SIZE, 4);
+		
+		digestor.update(hashOutputs);
+		
+		writeIntLE(lockTime, scratch, 0);
+		writeIntLE(hashType, scratch, 4);
+		digestor.update(scratch, 0, 8);
+		
+		byte[] hash = new byte[HASH_LENGTH];
+		finishHash256(digestor, hash, 0);
+		
+		return hash;
+	}
+	
+	// BIP341 signature hash of a taproot input. The outputs spent by all the inputs
+	// are signed, and must be the same list on every call as the hashes over them
+	// are kept. The annex is left out when null, and so is the script path data when
+	// the leaf hash is null, as for a key path spend ...
+	byte[] taprootHash(int index, List<Transaction.Output> spentOutputs, int hashType, 
+			byte[] annex, byte[] leafHash, int codeSepPos) {
+		checkNull(spentOutputs);
+		checkIndex(index);
+		
+		if (spentOutputs.size() != inputCount) {
+			throw new IllegalArgumentException("Spent outputs do not match the inputs.");
+		}
+		
+		// The default type 0 signs the same as all, and is the only type above 3
+		// without anyone can pay ...
+		int baseType = hashType & 0x03;
+		boolean anyoneCanPay = (hashType & SIGHASH_ANYONECANPAY) != 0;
+		if ((hashType & ~(SIGHASH_ANYONECANPAY | 0x03)) != 0 || (anyoneCanPay && baseType == 0)) {
+			throw new IllegalArgumentException("Hash type not valid.");
+		}
+		
+		if (baseType == SIGHASH_SINGLE && index >= outputOffsets.length - 1) {
+			throw new IllegalArgumentException("No output for SIGHASH_SINGLE.");
+		}
+		
+		// Everything that is hashed on its own is worked out before the tagged
+		// digest is taken ...
+		byte[][] shared = anyoneCanPay ? null : getTaprootHashes(spentOutputs);
+		byte[] annexHash = isNull(annex) ? null : annexHash(annex);
+		byte[] outputHash = baseType == SIGHASH_SINGLE ? outputSha256(index) : null;
+		
+		byte[] scratch = new byte[9];
+		MessageDigest digestor = copyOf(TAP_SIGHASH);
+		
+		// Epoch 0, then the hash type, version and lock time ...
+		scratch[0] = 0;
+		scratch[1] = (byte)hashType;
+		writeIntLE(version, scratch, 2);
+		digestor.update(scratch, 0, 6);
+		writeIntLE(lockTime, scratch, 0);
+		digestor.update(scratch, 0, 4);
+		
+		if (!anyoneCanPay) {
+			digestor.update(shared[SHA_PREVOUTS]);
+			digestor.update(shared[SHA_AMOUNTS]);
+			digestor.update(shared[SHA_SCRIPTPUBKEYS]);
+			digestor.update(shared[SHA_SEQUENCES]);
+		}
+		
+		if (baseType != SIGHASH_NONE && baseType != SIGHASH_SINGLE) {
+			digestor.update(isNull(shared) ? getTaprootOutputsHash() : shared[SHA_OUTPUTS]);
+		}
+		
+		// Spend type, the script path flag doubled plus the annex flag ...
+		digestor.update((byte)((isNull(leafHash) ? 0 : 2) | (isNull(annex) ? 0 : 1)));
+		
+		if (anyoneCanPay) {
+			Transaction.Output spent = spentOutputs.get(index);
+			Script scriptPubKey = spent.getScriptPubKey();
+			
+			int at = index * INPUT_SIZE;
+			digestor.update(inputs, at, OUTPOINT_SIZE);
+			writeLongLE(spent.getAmountAsLong(), scratch, 0);
+			digestor.update(scratch, 0, 8);
+			digestor.update(scratch, 0, writeVarInt(scriptPubKey.serializedSize(), scratch, 0));
+			scriptPubKey.updateDigest(digestor);
+			digestor.update(inputs, at + OUTPOINT_SIZE, 4);
+		} else {
+			writeIntLE(index, scratch, 0);
+			digestor.update(scratch, 0, 4);
+		}
+		
+		if (!isNull(annexHash)) {
+			digestor.update(annexHash);
+		}
+		
+		if (!isNull(outputHash)) {
+			digestor.update(outputHash);
+		}
+		
+		// Script path spends add the leaf, the key version 0 and the position of
+		// the last executed OP_CODESEPARATOR ...
+		if (!isNull(leafHash)) {
+			if (leafHash.length != HASH_LENGTH) {
+				throw new IllegalArgumentException("Leaf hash not valid.");
+			}
+			
+			digestor.update(leafHash);
+			scratch[0] = 0;
+			writeIntLE(codeSepPos, scratch, 1);
+			digestor.update(scratch, 0, 5);
+		}
+		
+		return digestor.digest();
+	}
+	
+	private byte[] getPrevOutsHash() {
+		if (isNull(prevOutsHash)) {
+			prevOutsHash = hash256(outPoints());
+		}
+		
+		return prevOutsHash;
+	}
+	
+	private byte[] getSequencesHash() {
+		if (isNull(sequencesHash)) {
+			sequencesHash = hash256(sequences());
+		}
+		
+		return sequencesHash;
+	}
+	
+	private byte[] getOutputsHash() {
+		if (isNull(outputsHash)) {
+			outputsHash = hash256(outputs);
+		}
+		
+		return outputsHash;
+	}
+	
+	// The hashes of all the outputs are worked out together, which keeps the work
+	// linear and lets the array be published whole ...
+	private byte[] getSingleOutputHash(int index) {
+		if (isNull(singleOutputHashes)) {
+			byte[][] hashes = new byte[outputOffsets.length - 1][HASH_LENGTH];
+			for (int i = 0; i < hashes.length; ++i) {
+				int start = outputOffsets[i];
+				hash256(outputs, start, outputOffsets[i + 1] - start, hashes[i], 0);
+			}
+			
+			singleOutputHashes = hashes;
+		}
+		
+		return singleOutputHashes[index];
+	}
+	
+	// The single SHA-256 hashes that BIP341 shares between the inputs, worked out
+	// together the first time a hash without anyone can pay is asked for ...
+	private byte[][] getTaprootHashes(List<Transaction.Output> spentOutputs) {
+		if (isNull(taprootHashes)) {
+			OutputSink amounts = new OutputSink(inputCount * 8);
+			OutputSink scriptPubKeys = new OutputSink();
+			for (Transaction.Output spent: spentOutputs) {
+				Script scriptPubKey = spent.getScriptPubKey();
+				
+				amounts.writeLongLE(spent.getAmountAsLong());
+				scriptPubKeys.writeVarInt(scriptPubKey.serializedSize());
+				scriptPubKey.writeTo(scriptPubKeys);
+			}
+			
+			byte[][] hashes = new byte[5][];
+			hashes[SHA_PREVOUTS] = sha256(outPoints());
+			hashes[SHA_AMOUNTS] = sha256(amounts.toByteArray());
+			hashes[SHA_SCRIPTPUBKEYS] = sha256(scriptPubKeys.toByteArray());
+			hashes[SHA_SEQUENCES] = sha256(sequences());
+			hashes[SHA_OUTPUTS] = getTaprootOutputsHash();
+			
+			taprootHashes = hashes;
+		}
+		
+		return taprootHashes;
+	}
+	
+	private byte[] getTaprootOutputsHash() {
+		byte[][] hashes = taprootHashes;
+		
+		return isNull(hashes) ? sha256(outputs) : hashes[SHA_OUTPUTS];
+	}
+	
+	// The annex is hashed with its length prefix ...
+	private static byte[] annexHash(byte[] annex) {
+		OutputSink sink = new OutputSink(annex.length + 9);
+		sink.writeVarInt(annex.length);
+		sink.write(annex);
+		
+		return sha256(sink.toByteArray());
+	}
+	
+	private byte[] outputSha256(int index) {
+		int start = outputOffsets[index];
+		byte[] output = new byte[outputOffsets[index + 1] - start];
+		System.arraycopy(outputs, start, output, 0, output.length);
+		
+		return sha256(output);
+	}
+	
+	private byte[] outPoints() {
+		byte[] outPoints = new byte[inputCount * OUTPOINT_SIZE];
+		for (int i = 0; i < inputCount; ++i) {
+			System.arraycopy(inputs, i * INPUT_SIZE, outPoints, i * OUTPOINT_SIZE, OUTPOINT_SIZE);
+		}
+		
+		return outPoints;
+	}
+	
+	private byte[] sequences() {
+		byte[] sequences = new byte[inputCount * 4];
+		for (int i = 0; i < inputCount; ++i) {
+			System.arraycopy(inputs, i * INPUT_SIZE + OUTPOINT_SIZE, sequences, i * 4, 4);
+		}
+		
+		return sequences;
+	}
+	
+	private void checkIndex(int index) {
+		if (index < 0 || index >= inputCount) {
+			throw new IndexOutOfBoundsException(index);
+		}
+	}
+}
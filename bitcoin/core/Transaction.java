@@ -1,24 +1,18 @@
 package bitcoin.core;
 
-import static bitcoin.core.TxFetcher.fetch;
 import static bitcoin.crypto.ecc.Signature.SIGHASH_ALL;
-import static bitcoin.crypto.ecc.Signature.SIGHASH_ALL_MARKER;
-import static bitcoin.util.BigInt.from;
+import static bitcoin.lang.Script.VERIFY_FLAGS;
 import static bitcoin.util.BigInt.fromLittleEndian;
-import static bitcoin.util.BigInt.fromVarInt;
-import static bitcoin.util.BigInt.getVarIntSize;
+import static bitcoin.util.BigInt.fromUnsigned;
 import static bitcoin.util.BigInt.isThisLessThanThat;
-import static bitcoin.util.BigInt.toLittleEndian;
-import static bitcoin.util.BigInt.toVarInt;
+import static bitcoin.util.BigInt.sizeOfVarInt;
+import static bitcoin.util.Bytes.EMPTY_BYTES;
 import static bitcoin.util.Bytes.ONE;
 import static bitcoin.util.Bytes.ZERO;
 import static bitcoin.util.Bytes.bytesToHex;
-import static bitcoin.util.Bytes.hexCharsToByte;
 import static bitcoin.util.Bytes.hexToBytes;
-import static bitcoin.util.Bytes.reverse;
+import static bitcoin.util.Crypto.hash160;
 import static bitcoin.util.Crypto.hash256;
-import static bitcoin.util.Crypto.hash256BigInt;
-import static bitcoin.util.Functions.areEqual;
 import static bitcoin.util.Functions.checkNull;
 import static bitcoin.util.Functions.isNull;
 
@@ -27,48 +21,82 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
 
 import bitcoin.crypto.ecc.Secret;
+import bitcoin.crypto.ecc.Signature;
+import bitcoin.crypto.ecc.SignatureCache;
 import bitcoin.lang.Command;
 import bitcoin.lang.Script;
 import bitcoin.lang.dtype.ByteArray;
 import bitcoin.lang.dtype.Data;
 import bitcoin.lang.dtype.HexString;
+import bitcoin.lang.dtype.SignatureHash;
+import bitcoin.lang.script.P2PKH;
 import bitcoin.util.BytesEncodeable;
 import bitcoin.util.Functions;
+import bitcoin.util.Hash256;
 import bitcoin.util.InputSource;
 import bitcoin.util.OutputSink;
 
 public final class Transaction extends BytesEncodeable {	
-	private static final BigInteger NO_INPUT_INDEX = new BigInteger("ffffffff", 16);
+	// Code separator position signed when none was executed ...
+	public static final int NO_CODE_SEPARATOR = 0xffffffff;
+	
+	private static final int NO_INPUT_INDEX = 0xffffffff;
 	private static final String NEW_LINE = System.lineSeparator();
+	private static final byte ANNEX_TAG = 0x50;
+	
+	// Marks cached results worked out with the template checks off. The scripts never
+	// see this flag, it only keeps those results apart from the ones the checks gave ...
+	private static final int VERIFY_INTERPRETED = 1 << 31;
 	
+	// Fields are kept as primitives and the previous transaction hash as a Hash256,
+	// which keeps a parsed input small. The BigInteger accessors convert on every
+	// call, hot paths should use the primitive ones ...
 	public static final class Input extends BytesEncodeable {
-		private static final BigInteger DEFAULT_SEQUENCE = new BigInteger("ffffffff", 16);
-				
-		private BigInteger pvTxHash;
-		private BigInteger pvTxIndex;
+		private static final int DEFAULT_SEQUENCE = 0xffffffff;
+		
+		private final Hash256 pvTxHash;
+		private final int pvTxIndex;
 		private Script scriptSig;
-		private BigInteger seq;
+		private final int seq;
 		
 		private List<Data<?>> witnesses;
 		
-		private transient volatile String rep;		
-		
 		public Input(BigInteger pvTxHash, BigInteger pvTxIndex, Script scriptSig, BigInteger seq) {
-			checkNull(pvTxHash, pvTxIndex);
+			this(Hash256.of(pvTxHash), checkInt(pvTxIndex), 
+					scriptSig, isNull(seq) ? DEFAULT_SEQUENCE : checkInt(seq));
+		}
+		
+		public Input(Hash256 pvTxHash, int pvTxIndex, Script scriptSig, int seq) {
+			checkNull(pvTxHash);
 			
 			this.pvTxHash = pvTxHash;
 			this.pvTxIndex = pvTxIndex;
 			this.scriptSig = scriptSig;
-			this.seq = isNull(seq) ? DEFAULT_SEQUENCE : seq;
+			this.seq = seq;
 		}
 		
 		public BigInteger getPrevTxnHash() {
+			return pvTxHash.toBigInteger();
+		}
+		
+		public Hash256 getPrevTxnId() {
 			return pvTxHash;
 		}
 		
 		public BigInteger getPrevTxnIndex() {
+			return fromUnsigned(pvTxIndex);
+		}
+		
+		public int getPrevTxnIndexAsInt() {
 			return pvTxIndex;
 		}
 		
@@ -77,6 +105,10 @@ public final class Transaction extends BytesEncodeable {
 		}
 		
 		public BigInteger getSeq() {
+			return fromUnsigned(seq);
+		}
+		
+		public int getSeqAsInt() {
 			return seq;
 		}
 		
@@ -84,10 +116,10 @@ public final class Transaction extends BytesEncodeable {
 			if (another instanceof Input) {
 				Input other = (Input)another;
 				
-				boolean eq = Functions.areEqual(this.pvTxHash, other.pvTxHash);
-				eq = eq && Functions.areEqual(this.pvTxIndex, other.pvTxIndex);
+				boolean eq = this.pvTxHash.equals(other.pvTxHash);
+				eq = eq && this.pvTxIndex == other.pvTxIndex;
 				eq = eq && Functions.areEqual(this.scriptSig, other.scriptSig);
-				eq = eq && Functions.areEqual(this.seq, other.seq);
+				eq = eq && this.seq == other.seq;
 				
 				return eq;
 			}
@@ -96,90 +128,64 @@ public final class Transaction extends BytesEncodeable {
 		}
 		
 		public String toString() {
-			if (rep == null) {
-				StringBuilder buffer = new StringBuilder();
-				
-				buffer.append(pvTxHash.toString(16)).append(":").append(pvTxIndex);
-				
-				rep = buffer.toString();
-			}
+			StringBuilder buffer = new StringBuilder();
+			
+			buffer.append(pvTxHash).append(":").append(Integer.toUnsignedString(pvTxIndex));
 			
-			return rep;
+			return buffer.toString();
 		}
 		
 		public void writeTo(OutputSink sink) {
 			checkNull(sink);
 			
-			// Convert the previous transaction hash into little endian bytes and write to the sink ...
-			byte[] bytes = toLittleEndian(pvTxHash, 32);
-			sink.write(bytes);
+			// Write the previous transaction hash in its wire byte order ...
+			pvTxHash.writeTo(sink);
 			
-			// Convert the previous transaction index into little endian bytes and write to the sink ...
-			bytes = toLittleEndian(pvTxIndex, 4);
-			sink.write(bytes);
+			// Write the previous transaction index as 4 little endian bytes ...
+			sink.writeIntLE(pvTxIndex);
 			
-			// Write scriptsig to the sink ...
+			// Write scriptsig to the sink, its length is known without serializing it first ...
 			if (isNull(scriptSig)) {
 				sink.write(ZERO);
 			} else {
-				OutputSink localSink = new OutputSink();				
-				scriptSig.writeTo(localSink);
-				
-				byte[] scriptBytes = localSink.toByteArray();
-				byte[] scriptLength = toVarInt(from(scriptBytes.length));
-				
-				sink.write(scriptLength);
-				sink.write(scriptBytes);
+				sink.writeVarInt(scriptSig.serializedSize());
+				scriptSig.writeTo(sink);
 			}
 			
 			// Lastly write the sequence to the sink ...
-			bytes = toLittleEndian(seq, 4);
-			sink.write(bytes);
+			sink.writeIntLE(seq);
+		}
+		
+		public int serializedSize() {
+			// Previous transaction hash (32), index (4), the length prefixed scriptsig 
+			// and the sequence (4) ...
+			int scriptSize = isNull(scriptSig) ? 0 : scriptSig.serializedSize();
+			return 32 + 4 + sizeOfVarInt(scriptSize) + scriptSize + 4;
 		}
 		
 		public static Input parse(InputSource source) {
 			checkNull(source);
 			
-			// Input starts with the previous transaction hash and that is 32 bytes (64 characters) ...
-			char[] chars = source.readNextChars(64);
-			byte[] bytes = hexToBytes(chars);
-			BigInteger pvTxHash = fromLittleEndian(bytes);
+			// Input starts with the previous transaction hash and that is 32 bytes ...
+			Hash256 pvTxHash = Hash256.read(source);
 			
-			// Next read previous transaction index and that is 4 bytes (8 characters) ...
-			chars = source.readNextChars(8);
-			bytes = hexToBytes(chars);
-			BigInteger pvTxIndex = fromLittleEndian(bytes);
+			// Next read previous transaction index and that is 4 bytes ...
+			int pvTxIndex = source.readNextIntLE();
 			
 			// Next to parse is the "scriptsig" field ...
 			// The "scriptsig" field is of variable length, hence need to read the next byte
 			// to determine the size ..
-			chars = source.readNextChars(2);
-			byte b = hexCharsToByte(chars[0], chars[1]);
-			int vIntSize = getVarIntSize(b);		
-			
-			BigInteger scriptSigSize;
-			if (vIntSize == 1) {
-				// If the variable integer size is 1, the already read byte represents the size ...
-				scriptSigSize = BigInteger.valueOf(b);
-			} else {
-				// Read the next 2*vIntSize characters that represent the size ...
-				chars = source.readNextChars(2*vIntSize);
-				bytes = hexToBytes(chars);
-				scriptSigSize = fromVarInt(bytes);
-			}
+			int scriptSigSize = source.readNextCount();
 			
 			Script scriptSig = null;
-			if (!areEqual(BigInteger.ZERO, scriptSigSize)) {			
-				// Read the next 2*scriptSigSize characters that represent script sig hex ...
-				chars = source.readNextChars(BigInteger.TWO.multiply(scriptSigSize).intValue());
-				bytes = hexToBytes(chars);			
-				scriptSig = Script.parse(InputSource.wrap(bytes));
+			if (scriptSigSize != 0) {			
+				// The next scriptSigSize bytes represent the script sig, which is parsed
+				// from a slice so that buffer backed sources do not copy it first ...
+				scriptSig = Script.parse(InputSource.wrap(source.readNextSlice(scriptSigSize)));
 			}
 			
-			// Lastly read the sequence and that is 4 bytes (8 characters) ...
-			chars = source.readNextChars(8);
-			bytes = hexToBytes(chars);
-			BigInteger seq = fromLittleEndian(bytes);
+			// Lastly read the sequence and that is 4 bytes ...
+			int seq = source.readNextIntLE();
 			
 			return new Input(pvTxHash, pvTxIndex, scriptSig, seq);
 		}
@@ -197,42 +203,43 @@ public final class Transaction extends BytesEncodeable {
 						null : witnesses.get(witnesses.size() - 1);
 		}
 		
-		private Transaction fetchPrevTxn(boolean testnet) {
-			return fetch(pvTxHash, testnet, false);
-		}
-		
-		private Output fetchPrvTxnOutput(boolean testnet) {
-			Transaction prevTxn = fetchPrevTxn(testnet);
-			List<Output> outputs = prevTxn.getOutputs();
+		// BIP341 annex, the last of two or more witness items when it starts with 0x50 ...
+		private byte[] getAnnex() {
+			if (isNull(witnesses) || witnesses.size() < 2) {
+				return null;
+			}
 			
-			return outputs.get(pvTxIndex.intValue());
+			Data<?> last = getLastWitness();
+			return last.length() > 0 && last.byteAt(0) == ANNEX_TAG ? last.readAsBytes() : null;
 		}
 		
-		private BigInteger value(boolean testnet) {
-			Output output = fetchPrvTxnOutput(testnet);
-			return output.getAmount();
-		}
-		
-		private Script scriptPubKey(boolean testnet) {
-			Output output = fetchPrvTxnOutput(testnet);
-			return output.getScriptPubKey();
+		private boolean isNullPrevOut() {
+			return pvTxIndex == NO_INPUT_INDEX && pvTxHash.isZero();
 		}
+	
 	}
 	
 	public static final class Output extends BytesEncodeable {
-		private BigInteger amount;
-		private Script scriptPubKey;
-		
-		private transient volatile String rep;
+		private final long amount;
+		private final Script scriptPubKey;
 		
 		public Output(BigInteger amount, Script scriptPubKey) {
-			checkNull(amount, scriptPubKey);
+			this(checkAmount(amount).longValue(), scriptPubKey);
+		}
+		
+		// The amount is in satoshis ...
+		public Output(long amount, Script scriptPubKey) {
+			checkNull(scriptPubKey);
 			
 			this.amount = amount;
 			this.scriptPubKey = scriptPubKey;
 		}
 		
 		public BigInteger getAmount() {
+			return BigInteger.valueOf(amount);
+		}
+		
+		public long getAmountAsLong() {
 			return amount;
 		}
 		
@@ -241,22 +248,18 @@ public final class Transaction extends BytesEncodeable {
 		}
 		
 		public String toString() {
-			if (rep == null) {
-				StringBuilder buffer = new StringBuilder();
-				
-				buffer.append(amount).append(":").append(scriptPubKey);
-				
-				rep = buffer.toString();
-			}
+			StringBuilder buffer = new StringBuilder();
 			
-			return rep;
+			buffer.append(amount).append(":").append(scriptPubKey);
+			
+			return buffer.toString();
 		}
 		
 		public boolean equals(Object another) {
 			if (another instanceof Output) {
 				Output other = (Output)another;
 				
-				boolean eq = Functions.areEqual(this.amount, other.amount);
+				boolean eq = this.amount == other.amount;
 				eq = eq && Functions.areEqual(this.scriptPubKey, other.scriptPubKey);
 				
 				return eq;
@@ -268,73 +271,59 @@ public final class Transaction extends BytesEncodeable {
 		public void writeTo(OutputSink sink) {
 			checkNull(sink);
 			
-			// Convert the amount into little endian bytes and write to the sink ...
-			byte[] bytes = toLittleEndian(amount, 8);
-			sink.write(bytes);
-			
-			// Now write the ScriptPubKey to the sink ...
-			OutputSink localSink = new OutputSink();				
-			scriptPubKey.writeTo(localSink);
+			// Write the amount as 8 little endian bytes ...
+			sink.writeLongLE(amount);
 			
-			byte[] scriptBytes = localSink.toByteArray();
-			byte[] scriptLength = toVarInt(from(scriptBytes.length));
-			
-			sink.write(scriptLength);
-			sink.write(scriptBytes);
+			// Now write the length prefixed ScriptPubKey to the sink ...
+			sink.writeVarInt(scriptPubKey.serializedSize());
+			scriptPubKey.writeTo(sink);
+		}
+		
+		public int serializedSize() {
+			// Amount (8) followed by the length prefixed scriptPubKey ...
+			int scriptSize = scriptPubKey.serializedSize();
+			return 8 + sizeOfVarInt(scriptSize) + scriptSize;
 		}
 		
 		public static Output parse(InputSource source) {
 			checkNull(source);
 			
-			// Read the next 16 characters (8 bytes) that represent the amount ...
-			char[] chars = source.readNextChars(16);
-			byte[] bytes = hexToBytes(chars);			
-			BigInteger amount = fromLittleEndian(bytes);
+			// Read the next 8 bytes that represent the amount ...
+			long amount = source.readNextLongLE();
 			
 			// Next to parse is the "scriptPubKey" field ...
 			// The "scriptPubKey" field is of variable length, hence need to read the next byte
 			// to determine the size ..
-			chars = source.readNextChars(2);
-			byte b = hexCharsToByte(chars[0], chars[1]);
-			int vIntSize = getVarIntSize(b);		
-			
-			BigInteger scriptPubKeySize;
-			if (vIntSize == 1) {
-				// If the variable integer size is 1, the already read byte represents the size ...
-				scriptPubKeySize = BigInteger.valueOf(b);
-			} else {
-				// Read the next 2*vIntSize characters that represent the size ...
-				chars = source.readNextChars(2*vIntSize);
-				bytes = hexToBytes(chars);
-				scriptPubKeySize = fromVarInt(bytes);
-			}
+			int size = source.readNextCount();
 			
-			// Read the next 2*scriptPubKeySize characters that represent scriptPubKey hex ...
-			chars = source.readNextChars(BigInteger.TWO.multiply(scriptPubKeySize).intValue());
-			bytes = hexToBytes(chars);
-			Script scriptPubKey = Script.parse(InputSource.wrap(bytes));
+			// The next size bytes represent the scriptPubKey, parsed from a slice ...
+			Script scriptPubKey = Script.parse(size == 0 ? 
+					InputSource.wrap(EMPTY_BYTES) : InputSource.wrap(source.readNextSlice(size)));
 			
 			return new Output(amount, scriptPubKey);
 		}
 	}
 	
-	private BigInteger version;
-	private List<Input> inputs;
-	private List<Output> outputs;
-	private BigInteger lockTime;
-	private boolean coinbase;
-	private BigInteger coinbaseHeight;
-	private boolean testnet;
-	private boolean segwit;
+	private final int version;
+	private final List<Input> inputs;
+	private final List<Output> outputs;
+	private final int lockTime;
+	private final boolean coinbase;
+	private final boolean testnet;
+	private final boolean segwit;
 	
-	private transient volatile byte[] hash;
-	private transient volatile String id;
-	private transient volatile String rep;
+	private transient volatile Hash256 txId;
+	private transient volatile Hash256 wtxId;
 	private transient volatile BigInteger fee;
 	
-	private transient volatile byte[] outputs_hash;
-	private transient volatile byte[] seqs_hash;
-	private transient volatile byte[] prevTxs_hash;
+	// Sizes with and without the witnesses, zero until worked out ...
+	private transient volatile int baseSize;
+	private transient volatile int totalSize;
+	
+	private transient volatile SigHasher sigHasher;
+	private transient volatile List<Output> spentOutputs;
+	
+	private transient volatile boolean templateChecks = true;
 	
 	public Transaction(BigInteger version, List<Input> inputs, List<Output> outputs, BigInteger lockTime) {
 		this(version, inputs, outputs, lockTime, false);
@@ -345,7 +334,11 @@ public final class Transaction extends BytesEncodeable {
 	}
 	
 	public Transaction(BigInteger version, List<Input> inputs, List<Output> outputs, BigInteger lockTime, boolean testnet, boolean segwit) {
-		checkNull(version, inputs, outputs, lockTime);
+		this(checkInt(version), inputs, outputs, checkInt(lockTime), testnet, segwit);
+	}
+	
+	public Transaction(int version, List<Input> inputs, List<Output> outputs, int lockTime, boolean testnet, boolean segwit) {
+		checkNull(inputs, outputs);
 		
 		this.version = version;
 		this.inputs = inputs;
@@ -353,50 +346,40 @@ public final class Transaction extends BytesEncodeable {
 		this.lockTime = lockTime;
 		this.testnet = testnet;
 		this.segwit = segwit;
-		this.coinbase = 
-				inputs.size() == 1 &&
-					areEqual(BigInteger.ZERO, inputs.get(0).pvTxHash) &&
-						areEqual(NO_INPUT_INDEX, inputs.get(0).pvTxIndex);
-		
-		if (coinbase) {
-			Data<?> d = (Data<?>)inputs.get(0).scriptSig.getFirstCommand();
-			this.coinbaseHeight = fromLittleEndian(d.readAsBytes());
-		}
+		this.coinbase = inputs.size() == 1 && inputs.get(0).isNullPrevOut();
 	}
 	
+	// Strings are built on every call rather than kept, as they would take more
+	// memory than the transaction itself ...
 	public String toString() {
-		if (rep == null) {
-			StringBuilder inputs_buffer = new StringBuilder();
-			for(Input input:inputs) {
-				inputs_buffer.append(input).append(NEW_LINE);
-			}
-			
-			StringBuilder outputs_buffer = new StringBuilder();
-			for(Output output:outputs) {
-				outputs_buffer.append(output).append(NEW_LINE);
-			}
-			
-			StringBuilder buffer = new StringBuilder();
-			buffer.append("tx: ").append(getId()).append(NEW_LINE);
-			buffer.append("version: ").append(version).append(NEW_LINE);
-			buffer.append("tx_ins: ").append(inputs_buffer).append(NEW_LINE);
-			buffer.append("tx_outs: ").append(outputs_buffer).append(NEW_LINE);
-			buffer.append("locktime: ").append(lockTime).append(NEW_LINE);
-			
-			rep = buffer.toString();
+		StringBuilder inputs_buffer = new StringBuilder();
+		for(Input input:inputs) {
+			inputs_buffer.append(input).append(NEW_LINE);
 		}
 		
-		return rep;
+		StringBuilder outputs_buffer = new StringBuilder();
+		for(Output output:outputs) {
+			outputs_buffer.append(output).append(NEW_LINE);
+		}
+		
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("tx: ").append(getId()).append(NEW_LINE);
+		buffer.append("version: ").append(Integer.toUnsignedString(version)).append(NEW_LINE);
+		buffer.append("tx_ins: ").append(inputs_buffer).append(NEW_LINE);
+		buffer.append("tx_outs: ").append(outputs_buffer).append(NEW_LINE);
+		buffer.append("locktime: ").append(Integer.toUnsignedString(lockTime)).append(NEW_LINE);
+		
+		return buffer.toString();
 	}
 	
 	public boolean equals(Object another) {
 		if (another instanceof Transaction) {
 			Transaction other = (Transaction)another;
 			
-			boolean eq = Functions.areEqual(this.version, other.version);
+			boolean eq = this.version == other.version;
 			eq = eq && Functions.areEqual(this.inputs, other.inputs);
 			eq = eq && Functions.areEqual(this.outputs, other.outputs);
-			eq = eq && Functions.areEqual(this.lockTime, other.lockTime);
+			eq = eq && this.lockTime == other.lockTime;
 			
 			return eq;
 		}
@@ -408,35 +391,59 @@ public final class Transaction extends BytesEncodeable {
 		return coinbase;
 	}
 	
+	// BIP34 height, the first push of the coinbase scriptsig ...
 	public BigInteger getCoinbaseHeight() {
-		return coinbaseHeight;
+		if (!coinbase) {
+			return null;
+		}
+		
+		Data<?> d = (Data<?>)inputs.get(0).scriptSig.getFirstCommand();
+		return fromLittleEndian(d.readAsBytes());
 	}
 	
 	public String getId() {
-		if (id == null) {
-			id = bytesToHex(getHash());
-		}
-		
-		return id;
+		return getTxId().toString();
 	}
 	
+	// Returns the hash in display order ...
 	public byte[] getHash() {
-		if (hash == null) {
-			OutputSink sink = new OutputSink();
+		return getTxId().toDisplayBytes();
+	}
+	
+	public Hash256 getTxId() {
+		if (txId == null) {
+			OutputSink sink = new OutputSink(getBaseSize());
 			this.writeTo(sink, true);
-			byte[] h = hash256(sink.toByteArray());
-			
-			// The hash is the little endian of the original hash,
-			// hence we need to reverse the byte array ...
-			reverse(h);
-			hash = h;
 			
+			// The hash as computed is in internal byte order ...
+			txId = Hash256.fromInternal(hash256(sink.toByteArray()));
 		}
 		
-		return hash;
+		return txId;
+	}
+	
+	// Hash of the serialization with the witnesses, the same as the txid for a
+	// transaction without any ...
+	public Hash256 getWitnessTxId() {
+		if (wtxId == null) {
+			if (!segwit) {
+				wtxId = getTxId();
+			} else {
+				OutputSink sink = new OutputSink(getTotalSize());
+				this.writeTo(sink, false);
+				
+				wtxId = Hash256.fromInternal(hash256(sink.toByteArray()));
+			}
+		}
+		
+		return wtxId;
 	}
 	
 	public BigInteger getVersion() {
+		return fromUnsigned(version);
+	}
+	
+	public int getVersionAsInt() {
 		return version;
 	}
 	
@@ -444,11 +451,25 @@ public final class Transaction extends BytesEncodeable {
 		return inputs;
 	}
 	
+	public boolean hasTemplateChecks() {
+		return templateChecks;
+	}
+	
+	// With the template checks off every input goes through the interpreter. The
+	// outcome must be the same either way, so this is only for comparing the two ...
+	public void setTemplateChecks(boolean enabled) {
+		templateChecks = enabled;
+	}
+	
 	public List<Output> getOutputs() {
 		return outputs;
 	}
 	
 	public BigInteger getLockTime() {
+		return fromUnsigned(lockTime);
+	}
+	
+	public int getLockTimeAsInt() {
 		return lockTime;
 	}
 	
@@ -457,32 +478,16 @@ public final class Transaction extends BytesEncodeable {
 	}
 	
 	public BigInteger getInputHash(int index, Script redeemScript) {
-		int inputSize = inputs.size();
-		List<Input> modInputs = new ArrayList<Input>(inputSize);
-		for (int i = 0; i < inputSize; ++i) {
-			Input input = inputs.get(i);
-			Input modInput;
-			if (i == index) {				
-				// Replace sigscript with scriptpubkey ...
-				Script script = isNull(redeemScript) ? input.scriptPubKey(testnet) : redeemScript;
-				modInput = new Input(input.pvTxHash, input.pvTxIndex, script, input.seq);
-			} else {
-				modInput = new Input(input.pvTxHash, input.pvTxIndex, null, input.seq);
-			}
-			
-			modInputs.add(modInput);
-		}
-		
-		Transaction modTx = new Transaction(version, modInputs, outputs, lockTime);
-		OutputSink sink = new OutputSink();
-		modTx.writeTo(sink);
-		
-		// Finally write the SIGHASH_ALL value to the sink ...
-		byte[] bytes = toLittleEndian(SIGHASH_ALL, 4);
-		sink.write(bytes);
+		return getInputHash(index, redeemScript, SIGHASH_ALL.intValue());
+	}
+	
+	public BigInteger getInputHash(int index, Script redeemScript, int hashType) {
+		// The sigscript of the input is replaced with the scriptpubkey, or the redeem
+		// script for p2sh, and the other inputs are left out or blanked as the hash
+		// type asks ...
+		Script script = isNull(redeemScript) ? getSpentOutput(index).scriptPubKey : redeemScript;
 		
-		// Do hash256 over the serialized version of the modified transaction
-		return hash256BigInt(sink.toByteArray());
+		return new BigInteger(1, getSigHasher().legacyHash(index, script, hashType));
 	}
 	
 	public BigInteger getSegwitInputHash(int index) {
@@ -494,44 +499,49 @@ public final class Transaction extends BytesEncodeable {
 	}
 	
 	public BigInteger getSegwitInputHash(int index, Script redeemScript, Script witnessScript) {
-		Input input = inputs.get(index);
-		OutputSink sink = new OutputSink();
-		
-		sink.write(toLittleEndian(version, 4));
-		sink.write(getPrevTxsHash());
-		sink.write(getSeqsHash());
-		
-		byte[] prevTx = input.pvTxHash.toByteArray();
-		reverse(prevTx);
-		
-		sink.write(prevTx);
-		sink.write(toLittleEndian(input.pvTxIndex, 4));
+		return getSegwitInputHash(index, redeemScript, witnessScript, SIGHASH_ALL.intValue());
+	}
+	
+	public BigInteger getSegwitInputHash(int index, Script redeemScript, Script witnessScript, int hashType) {
+		Output spent = getSpentOutput(index);
 		
+		// p2wsh signs the witness script, and p2wpkh the p2pkh script of the key hash
+		// in its program, as given by the redeem script when nested in p2sh ...
+		Script scriptCode;
 		if (!isNull(witnessScript)) {
-			witnessScript.writeTo(sink);
-		} else if (!isNull(redeemScript)) {
-			Script p2pkh = new Script(Arrays.asList(redeemScript.getCommand(1)));
-			p2pkh.writeTo(sink);
+			scriptCode = witnessScript;
 		} else {
-			Script p2pkh = new Script(Arrays.asList(input.scriptPubKey(testnet).getCommand(1)));
-			p2pkh.writeTo(sink);
+			Script program = isNull(redeemScript) ? spent.scriptPubKey : redeemScript;
+			scriptCode = P2PKH.fromKeyHash(((Data<?>)program.getCommand(1)).readAsBytes());
 		}
 		
-		sink.write(toLittleEndian(input.value(testnet), 8));
-		sink.write(toLittleEndian(input.seq, 4));
-		sink.write(getOutputsHash());
-		sink.write(toLittleEndian(lockTime, 4));
-		
-		byte[] bytes = toLittleEndian(SIGHASH_ALL, 4);
-		sink.write(bytes);		
+		return new BigInteger(1, getSigHasher().segwitHash(index, scriptCode, spent.amount, hashType));
+	}
+	
+	// BIP341 hash of a taproot key path spend ...
+	public BigInteger getTaprootInputHash(int index, int hashType) {
+		return getTaprootInputHash(index, hashType, null, NO_CODE_SEPARATOR);
+	}
+	
+	// BIP341 hash of a taproot script path spend of the given leaf, signing the
+	// position of the last executed OP_CODESEPARATOR. Every input signs the outputs
+	// spent by all of them, which are looked up once for the transaction ...
+	public BigInteger getTaprootInputHash(int index, int hashType, byte[] leafHash, int codeSepPos) {
+		Input input = inputs.get(index);
+		byte[] hash = getSigHasher().taprootHash(index, getSpentOutputs(), 
+				hashType, input.getAnnex(), leafHash, codeSepPos);
 		
-		return hash256BigInt(sink.toByteArray());
+		return new BigInteger(1, hash);
 	}
 	
 	public boolean signInput(int index, Secret secret) {
-		BigInteger z = getInputHash(index);
+		return signInput(index, secret, SIGHASH_ALL.intValue());
+	}
+	
+	public boolean signInput(int index, Secret secret, int hashType) {
+		BigInteger z = getInputHash(index, null, hashType);
 		String der = secret.sign(z).toDER();
-		der = der + SIGHASH_ALL_MARKER; 
+		der = der + bytesToHex(new byte[] {(byte)hashType});
 		String pubKey = secret.pubKey().toSEC();
 		
 		List<Command> commands = new ArrayList<Command>(2);
@@ -540,62 +550,181 @@ public final class Transaction extends BytesEncodeable {
 		
 		Input input = inputs.get(index);
 		input.scriptSig = new Script(commands);
+		
+		// The ids and sizes cover the scriptsig, so they are worked out again ...
+		txId = null;
+		wtxId = null;
+		baseSize = 0;
+		totalSize = 0;
+		
 		return verifyInput(index);
 	}
 	
 	public boolean verifyInput(int index) {
+		return verifyInput(index, TxFetcher.prevouts(testnet));
+	}
+	
+	// An input that has evaluated to true before, under the same rules, is not run
+	// through the interpreter again, see ScriptCache ...
+	public boolean verifyInput(int index, PrevoutProvider prevouts) {
+		Hash256 id = getWitnessTxId();
+		boolean templated = templateChecks;
+		int flags = templated ? VERIFY_FLAGS : VERIFY_FLAGS | VERIFY_INTERPRETED;
+		if (ScriptCache.INSTANCE.contains(id, index, flags)) {
+			return true;
+		}
+		
+		boolean verified = evaluateInput(index, prevouts, templated);
+		if (verified) {
+			ScriptCache.INSTANCE.add(id, index, flags);
+		}
+		
+		return verified;
+	}
+	
+	private boolean evaluateInput(int index, PrevoutProvider prevouts, boolean templated) {
 		Input input = inputs.get(index);
-		Script scriptPubKey = input.scriptPubKey(testnet);
+		Script scriptPubKey = getSpentOutputs(prevouts).get(index).scriptPubKey;
+		
+		// The common templates are checked directly, misc.TemplateCheck compares the two ways ...
+		Boolean verified = templated ? verifyTemplate(index, input, scriptPubKey) : null;
+		
+		return isNull(verified) ? interpret(index, input, scriptPubKey) : verified;
+	}
+	
+	// Checks p2pkh, p2wpkh and p2sh wrapped p2wpkh inputs without the interpreter: the
+	// key hash is matched and the signature checked straight from the pushed data. Any
+	// other shape, even of these templates, is left to the interpreter by returning null ...
+	private Boolean verifyTemplate(int index, Input input, Script scriptPubKey) {
 		Script scriptSig = input.getScriptSig();
-		ByteArray zVal;
+		List<Data<?>> witnesses = input.getWitnesses();
+		
+		if (scriptPubKey.isP2PKH()) {
+			List<Command> pushes = isNull(scriptSig) ? null : scriptSig.getAllCommands();
+			if (isNull(pushes) || pushes.size() != 2 || 
+					!(pushes.get(0) instanceof Data) || !(pushes.get(1) instanceof Data)) {
+				return null;
+			}
+			
+			Data<?> sig = (Data<?>)pushes.get(0);
+			Data<?> pubKey = (Data<?>)pushes.get(1);
+			if (!isKeyHash(pubKey, scriptPubKey.getBytes(), 3)) {
+				return false;
+			}
+			
+			return verifySignature(sig, pubKey, t -> getInputHash(index, null, t));
+		}
+		
+		Script redeemScript = null;
+		if (scriptPubKey.isP2SH()) {
+			if (isNull(scriptSig) || scriptSig.getAllCommands().size() != 1 || 
+					!(scriptSig.getFirstCommand() instanceof Data)) {
+				return null;
+			}
+			
+			Data<?> redeem = (Data<?>)scriptSig.getFirstCommand();
+			redeemScript = Script.fromData(redeem);
+			if (!redeemScript.isP2WPKH()) {
+				return null;
+			}
+			
+			if (!isKeyHash(redeem, scriptPubKey.getBytes(), 2)) {
+				return false;
+			}
+		} else if (!scriptPubKey.isP2WPKH() || !isNull(scriptSig)) {
+			return null;
+		}
+		
+		if (isNull(witnesses) || witnesses.size() != 2) {
+			return null;
+		}
+		
+		Script program = isNull(redeemScript) ? scriptPubKey : redeemScript;
+		Data<?> pubKey = witnesses.get(1);
+		if (!isKeyHash(pubKey, program.getBytes(), 2)) {
+			return false;
+		}
+		
+		Script wrapped = redeemScript;
+		return verifySignature(witnesses.get(0), pubKey, t -> getSegwitInputHash(index, wrapped, null, t));
+	}
+	
+	// Whether the data hashes to the 20 byte hash at the given offset of the script ...
+	private static boolean isKeyHash(Data<?> data, byte[] script, int offset) {
+		byte[] h160 = hash160(data.readAsBytes());
+		return Arrays.equals(h160, 0, h160.length, script, offset, offset + h160.length);
+	}
+	
+	// Checks the signature as OP_CHECKSIG would, for the hash type it carries ...
+	private static boolean verifySignature(Data<?> sig, Data<?> pubKey, IntFunction<BigInteger> hasher) {
+		String der = sig.toHex();
+		
+		BigInteger z;
+		try {
+			int hashType = Signature.hashTypeOf(der);
+			z = hasher.apply(hashType < 0 ? SIGHASH_ALL.intValue() : hashType);
+		} catch(Exception e) {
+			return false;
+		}
+		
+		return SignatureCache.INSTANCE.verify(z, pubKey.toHex(), der);
+	}
+	
+	private boolean interpret(int index, Input input, Script scriptPubKey) {
+		Script scriptSig = input.getScriptSig();
+		
+		// The hash is worked out by the signature checks for the hash type of each
+		// signature, all of them sharing the precomputed parts of the transaction ...
+		SignatureHash zVal;
 		List<Data<?>> witnesses = null;
-		if (scriptPubKey.isP2SH()) {			
-			Script redeemScript = 
+		if (scriptPubKey.isP2SH()) {
+			Script redeemScript =
 					Script.fromData((Data<?>)scriptSig.getLastCommand());
-			if (redeemScript.isP2WPKH()) {	
+			if (redeemScript.isP2WPKH()) {
 				witnesses = input.getWitnesses();
-				BigInteger z = getSegwitInputHash(index, redeemScript);
-				zVal = new ByteArray(z.toByteArray());
+				zVal = new SignatureHash(t -> getSegwitInputHash(index, redeemScript, null, t));
 			} else if (redeemScript.isP2WSH()) {
 				witnesses = input.getWitnesses();
-				Script witnessScript = 
+				Script witnessScript =
 						Script.fromData(input.getLastWitness());
-				BigInteger z = getSegwitInputHash(index, null, witnessScript);
-				zVal = new ByteArray(z.toByteArray());
-			} else {	
-				BigInteger z = getInputHash(index, redeemScript);
-				zVal = new ByteArray(z.toByteArray());
+				zVal = new SignatureHash(t -> getSegwitInputHash(index, null, witnessScript, t));
+			} else {
+				zVal = new SignatureHash(t -> getInputHash(index, redeemScript, t));
 			}
 		} else {
 			if (scriptPubKey.isP2WPKH()) {
 				witnesses = input.getWitnesses();
-				BigInteger z = getSegwitInputHash(index);				
-				zVal = new ByteArray(z.toByteArray());
+				zVal = new SignatureHash(t -> getSegwitInputHash(index, null, null, t));
 			} else if (scriptPubKey.isP2WSH()) {
 				witnesses = input.getWitnesses();
-				Script witnessScript = 
+				Script witnessScript =
 						Script.fromData(input.getLastWitness());
-				BigInteger z = getSegwitInputHash(index, null, witnessScript);
-				zVal = new ByteArray(z.toByteArray());
-			} else {				
-				BigInteger z = getInputHash(index);
-				zVal = new ByteArray(z.toByteArray());
+				zVal = new SignatureHash(t -> getSegwitInputHash(index, null, witnessScript, t));
+			} else {
+				zVal = new SignatureHash(t -> getInputHash(index, null, t));
 			}
 		}
-				
-		Script verifier = scriptPubKey.add(scriptSig);
+		
+		// Native segwit inputs come with an empty scriptsig ...
+		Script verifier = isNull(scriptSig) ? scriptPubKey : scriptPubKey.add(scriptSig);
 		return isNull(witnesses) ? verifier.evaluate(zVal) : verifier.evaluate(witnesses, zVal);
 	}
 	
 	public boolean verify() {
-		BigInteger fee = getFee();
+		return verify(TxFetcher.prevouts(testnet));
+	}
+	
+	// Verifies against the outputs of the given provider, which is asked for all of
+	// them once. With a UtxoView nothing goes to the network ...
+	public boolean verify(PrevoutProvider prevouts) {
+		BigInteger fee = getFee(prevouts);
 		if (isThisLessThanThat(fee, BigInteger.ZERO)) {
 			return false;
 		}
 		
 		int inputSize = inputs.size();
 		for (int i = 0; i < inputSize; ++i) {
-			if (!verifyInput(i)) {
+			if (!verifyInput(i, prevouts)) {
 				return false;
 			}
 		}
@@ -603,24 +732,194 @@ public final class Transaction extends BytesEncodeable {
 		return true;
 	}
 	
+	// Verifies the inputs concurrently on the fork-join pool ...
+	public boolean verifyInParallel(PrevoutProvider prevouts) {
+		return verifyInParallel(prevouts, ForkJoinPool.commonPool());
+	}
+	
+	// Verifies the inputs concurrently on the given executor, such as one running
+	// virtual threads. Every input runs its own script evaluation, and they share
+	// the spent outputs, looked up beforehand, and the signature hash parts, which
+	// are safe to work out from any thread. The first failure decides the result,
+	// and an exception thrown by an input is thrown from here as by verify ...
+	public boolean verifyInParallel(PrevoutProvider prevouts, Executor executor) {
+		checkNull(prevouts, executor);
+		
+		BigInteger fee = getFee(prevouts);
+		if (isThisLessThanThat(fee, BigInteger.ZERO)) {
+			return false;
+		}
+		
+		if (inputs.size() < 2) {
+			return verify(prevouts);
+		}
+		
+		return forEachInput(executor, index -> verifyInput(index, prevouts));
+	}
+	
+	public Transaction signAll(List<Secret> secrets, PrevoutProvider prevouts) {
+		checkNull(secrets);
+		
+		if (secrets.size() != inputs.size()) {
+			throw new IllegalArgumentException("Expected a key for every input.");
+		}
+		
+		return signAll(secrets::get, prevouts, SIGHASH_ALL.intValue(), ForkJoinPool.commonPool(), true);
+	}
+	
+	// Signs every p2pkh and p2wpkh input with the key given for its index and returns
+	// the signed copy, this transaction is left as it is. The spent outputs are looked
+	// up once, the hashes share their precomputed parts, and the inputs are signed
+	// concurrently on the executor. The copy keeps the spent outputs and hash parts,
+	// as signing does not change them, so verifying it afterwards, in parallel as
+	// well, looks up nothing again ...
+	public Transaction signAll(IntFunction<Secret> keys, PrevoutProvider prevouts, 
+			int hashType, Executor executor, boolean verify) {
+		checkNull(keys, prevouts, executor);
+		
+		List<Output> spent = getSpentOutputs(prevouts);
+		SigHasher hasher = getSigHasher();
+		
+		Input[] signed = new Input[inputs.size()];
+		forEachInput(executor, index -> {
+			signed[index] = signedInput(index, keys.apply(index), spent.get(index).scriptPubKey, hashType);
+			return true;
+		});
+		
+		boolean withWitness = segwit;
+		for (Input input: signed) {
+			withWitness |= !isNull(input.witnesses);
+		}
+		
+		Transaction tx = new Transaction(version, Collections.unmodifiableList(Arrays.asList(signed)), 
+				outputs, lockTime, testnet, withWitness);
+		tx.spentOutputs = spent;
+		tx.sigHasher = hasher;
+		
+		if (verify && !tx.verifyInParallel(prevouts, executor)) {
+			throw new IllegalStateException("Signed transaction does not verify.");
+		}
+		
+		return tx;
+	}
+	
+	private Input signedInput(int index, Secret secret, Script scriptPubKey, int hashType) {
+		if (isNull(secret)) {
+			throw new IllegalArgumentException("No key for input " + index + ".");
+		}
+		
+		Input input = inputs.get(index);
+		byte[] pubKey = secret.pubKey().toSecBytes(true);
+		
+		if (scriptPubKey.isP2WPKH()) {
+			// The signature and key go to the witness and the scriptsig stays empty ...
+			BigInteger z = getSegwitInputHash(index, null, null, hashType);
+			
+			Input signed = new Input(input.pvTxHash, input.pvTxIndex, null, input.seq);
+			signed.setWitnesses(List.of(new ByteArray(signatureBytes(secret, z, hashType)), new ByteArray(pubKey)));
+			return signed;
+		}
+		
+		if (scriptPubKey.isP2PKH()) {
+			BigInteger z = getInputHash(index, null, hashType);
+			
+			List<Command> commands = new ArrayList<Command>(2);
+			commands.add(new ByteArray(signatureBytes(secret, z, hashType)));
+			commands.add(new ByteArray(pubKey));
+			
+			return new Input(input.pvTxHash, input.pvTxIndex, new Script(commands), input.seq);
+		}
+		
+		throw new IllegalArgumentException("Input " + index + " is neither p2pkh nor p2wpkh.");
+	}
+	
+	// DER signature followed by the hash type byte ...
+	private static byte[] signatureBytes(Secret secret, BigInteger z, int hashType) {
+		byte[] der = hexToBytes(secret.sign(z).toDER());
+		byte[] signature = Arrays.copyOf(der, der.length + 1);
+		signature[der.length] = (byte)hashType;
+		
+		return signature;
+	}
+	
+	// Runs the task for every input on the executor and returns false as soon as one
+	// of them does. The inputs not started by then are skipped. An exception thrown by
+	// a task is thrown from here ...
+	private boolean forEachInput(Executor executor, IntPredicate task) {
+		int inputSize = inputs.size();
+		if (inputSize == 0) {
+			return true;
+		}
+		
+		CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+		AtomicInteger remaining = new AtomicInteger(inputSize);
+		for (int i = 0; i < inputSize; ++i) {
+			final int index = i;
+			executor.execute(() -> {
+				if (result.isDone()) {
+					return;
+				}
+				
+				try {
+					if (!task.test(index)) {
+						result.complete(Boolean.FALSE);
+					} else if (remaining.decrementAndGet() == 0) {
+						result.complete(Boolean.TRUE);
+					}
+				} catch (Throwable t) {
+					result.completeExceptionally(t);
+				}
+			});
+		}
+		
+		try {
+			return result.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			
+			throw e;
+		}
+	}
+	
 	public BigInteger getFee() {
+		return getFee(TxFetcher.prevouts(testnet));
+	}
+	
+	public BigInteger getFee(PrevoutProvider prevouts) {
 		if (isNull(fee)) {
-			BigInteger inputTotal = BigInteger.ZERO;
-			for(Input input: inputs) {
-				inputTotal.add(input.value(testnet));
+			// Amounts are at most 21 million coins, so the totals cannot overflow ...
+			long inputTotal = 0;
+			for(Output spent: getSpentOutputs(prevouts)) {
+				inputTotal += spent.amount;
 			}
 			
-			BigInteger outputTotal = BigInteger.ZERO;
+			long outputTotal = 0;
 			for(Output output: outputs) {
-				outputTotal.add(output.getAmount());
+				outputTotal += output.amount;
 			}
 			
-			fee = inputTotal.subtract(outputTotal);
+			fee = BigInteger.valueOf(inputTotal - outputTotal);
 		}
 		
 		return fee;
 	}
 	
+	public double getFeeRate() {
+		return getFeeRate(TxFetcher.prevouts(testnet));
+	}
+	
+	// Fee in satoshis per virtual byte, by which transactions are ranked ...
+	public double getFeeRate(PrevoutProvider prevouts) {
+		return getFee(prevouts).doubleValue() / getVSize();
+	}
+	
 	public void writeTo(OutputSink sink) {
 		writeTo(sink, false);
 	}
@@ -628,95 +927,46 @@ public final class Transaction extends BytesEncodeable {
 	public static Transaction parse(InputSource source) {		
 		checkNull(source);
 		
-		// Parse the version first ...
-		// Read the version bytes (4 bytes or 8 characters) first ...
-		char[] chars = source.readNextChars(8);
-		byte[] bytes = hexToBytes(chars);
-		
-		BigInteger version = fromLittleEndian(bytes);
+		// Parse the version first, that is 4 bytes ...
+		int version = source.readNextIntLE();
 		
 		// Check for the segwit marker ...
-		chars = source.readNextChars(2);
-		byte b = hexCharsToByte(chars[0], chars[1]);
+		int b = source.readNextUnsignedByte(true);
 		boolean segwit = ZERO == b;
 		if (segwit) {
 			// If the segwit marker is present check if the flag is set ...
-			chars = source.readNextChars(2);
-			b = hexCharsToByte(chars[0], chars[1]);
-			
-			if (ONE != b) {
+			if (ONE != source.readNextByte()) {
 				throw new IllegalArgumentException("Invalid segwit transaction.");
 			}
 			
-			// Read the next 2 characters that will tell us the number of inputs expected ...			
-			chars = source.readNextChars(2);
-			b = hexCharsToByte(chars[0], chars[1]);
+			// Read the next byte that will tell us the number of inputs expected ...			
+			b = source.readNextUnsignedByte(true);
 		}		
 		
-		// If it is not segwit the already read byte should give us the number of inputs ...
-		int vIntSize = getVarIntSize(b);		
-		
-		BigInteger totalInputCount;
-		if (vIntSize == 1) {
-			// If the variable integer size is 1, the already read byte represents the 
-			// number of inputs ...
-			totalInputCount = BigInteger.valueOf(b);
-		} else {
-			// Read the next 2*vIntSize characters represent the number of inputs ...
-			chars = source.readNextChars(2*vIntSize);
-			bytes = hexToBytes(chars);
-			totalInputCount = fromVarInt(bytes);
+		// The already read byte starts the varint giving the number of inputs ...
+		long totalInputCount = source.readNextVarLong(b);
+		if (totalInputCount < 0 || totalInputCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid input count.");
 		}
 		
-		List<Input> inputs = new ArrayList<Input>(totalInputCount.intValue()); 
+		List<Input> inputs = new ArrayList<Input>((int)totalInputCount); 
 		
 		// Now we need to iterate and parse all the inputs ...
-		BigInteger readInputCount = BigInteger.ZERO;
-		while (isThisLessThanThat(readInputCount, totalInputCount)) {
-			// Parse the input ...
-			Input input = Input.parse(source);
-						
-			// Add this input to the set of inputs ...
-			inputs.add(input);
-			
-			// Increment the input count ...
-			readInputCount = readInputCount.add(BigInteger.ONE);
+		for (long i = 0; i < totalInputCount; ++i) {
+			inputs.add(Input.parse(source));
 		}
 		
 		// Created an immutable set of inputs ...
 		inputs = Collections.unmodifiableList(inputs);
 		
-		// Read the next 2 characters that will tell us the number of outputs expected
-		// in terms of a variable integer ...
-		chars = source.readNextChars(2);
-		b = hexCharsToByte(chars[0], chars[1]);
-		vIntSize = getVarIntSize(b);		
-		
-		BigInteger totalOutputCount;
-		if (vIntSize == 1) {
-			// If the variable integer size is 1, the already read byte represents the 
-			// number of outputs ...
-			totalOutputCount = BigInteger.valueOf(b);
-		} else {
-			// Read the next 2*vIntSize characters represent the number of outputs ...
-			chars = source.readNextChars(2*vIntSize);
-			bytes = hexToBytes(chars);
-			totalOutputCount = fromVarInt(bytes);
-		}
+		// Read the number of outputs expected in terms of a variable integer ...
+		int totalOutputCount = source.readNextCount();
 		
-		List<Output> outputs = new ArrayList<Output>(totalInputCount.intValue()); 
+		List<Output> outputs = new ArrayList<Output>(totalOutputCount); 
 		
 		// Now we need to iterate and parse all the outputs ...
-		BigInteger readOutputCount = BigInteger.ZERO;
-		while (isThisLessThanThat(readOutputCount, totalOutputCount)) {
-			// Parse the output ...
-			Output output = Output.parse(source);
-						
-			// Add this output to the set of outputs ...
-			outputs.add(output);
-			
-			// Increment the output count ...
-			readOutputCount = readOutputCount.add(BigInteger.ONE);
+		for (int i = 0; i < totalOutputCount; ++i) {
+			outputs.add(Output.parse(source));
 		}
 		
 		// Created an immutable set of outputs ...
@@ -725,117 +975,134 @@ public final class Transaction extends BytesEncodeable {
 		// if this is a segwit transaction, we need to get the witness for each of the inputs ...
 		if (segwit) {
 			for (Input input: inputs) {
-				// Read the next 2 characters that will tell us the number of witnesses for this input 
-				// as a varint ...			
-				chars = source.readNextChars(2);
-				b = hexCharsToByte(chars[0], chars[1]);
-				vIntSize = getVarIntSize(b);
-				
-				BigInteger witnessCount;
-				if (vIntSize == 1) {
-					// If the variable integer size is 1, the already read byte represents the count ...
-					witnessCount = BigInteger.valueOf(b);
-				} else {
-					// Read the next 2*vIntSize characters represent the count ...
-					chars = source.readNextChars(2*vIntSize);
-					bytes = hexToBytes(chars);
-					witnessCount = fromVarInt(bytes);
-				}
-				
-				int witnessNum = witnessCount.intValue();
-				List<Data<?>> witnesses = new ArrayList<Data<?>>();
+				// Read the number of witnesses for this input as a varint ...
+				int witnessNum = source.readNextCount();
+				List<Data<?>> witnesses = new ArrayList<Data<?>>(witnessNum);
 				for (int i= 0 ; i < witnessNum; ++i) {
-					// Read the next 2 characters that will tell us the length of witness data as a varint ...			
-					chars = source.readNextChars(2);
-					b = hexCharsToByte(chars[0], chars[1]);
-					vIntSize = getVarIntSize(b);
-					
-					BigInteger witnessLength;
-					if (vIntSize == 1) {
-						// If the variable integer size is 1, the already read byte represents the length ...
-						witnessLength = BigInteger.valueOf(b);
-					} else {
-						// Read the next 2*vIntSize characters represent the length ...
-						chars = source.readNextChars(2*vIntSize);
-						bytes = hexToBytes(chars);
-						witnessLength = fromVarInt(bytes);
-					}
+					// Read the length of witness data as a varint ...
+					int dataLength = source.readNextCount();
 					
-					int dataLength = witnessLength.intValue();
-					ByteArray data;
-					if (dataLength == 0) {
-						data = new ByteArray(new byte[] {ZERO});
-					} else {
-						// Read 2*dataLength characters and convert to bytes representing the data ...
-						chars = source.readNextChars(2*dataLength);
-						bytes = hexToBytes(chars);
-						data = new ByteArray(bytes);
-					}
-					
-					witnesses.add(data);
+					// Empty items stay empty, so that they are written back as they were ...
+					byte[] data = dataLength == 0 ? EMPTY_BYTES : source.readNextBytes(dataLength);
+					witnesses.add(new ByteArray(data));
 				}
 				
 				input.setWitnesses(witnesses);
 			}
 		}
 		
-		// Next read the locktime field that is 4 bytes (8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-		BigInteger lockTime = fromLittleEndian(bytes);
+		// Next read the locktime field that is 4 bytes ...
+		int lockTime = source.readNextIntLE();
 		
-		return new Transaction(version, inputs, outputs, lockTime, segwit);
+		return new Transaction(version, inputs, outputs, lockTime, false, segwit);
 	} 
 	
-	private byte[] getPrevTxsHash() {
-		if (isNull(prevTxs_hash)) {
-			OutputSink txs_sink = new OutputSink();
-			OutputSink seqs_sink = new OutputSink();
-			for(Input i: inputs) {
-				byte[] prevTx = i.pvTxHash.toByteArray();
-				reverse(prevTx);
-				
-				txs_sink.write(prevTx);
-				txs_sink.write(toLittleEndian(i.pvTxIndex, 4));
-				
-				seqs_sink.write(toLittleEndian(i.seq, 4));
-			}
+	private SigHasher getSigHasher() {
+		if (isNull(sigHasher)) {
+			sigHasher = new SigHasher(version, inputs, outputs, lockTime);
+		}
+		
+		return sigHasher;
+	}
+	
+	// Outputs spent by the inputs, looked up all at once the first time. An outpoint
+	// always names the same output, so they are kept whichever provider gave them ...
+	private List<Output> getSpentOutputs(PrevoutProvider prevouts) {
+		if (isNull(spentOutputs)) {
+			checkNull(prevouts);
 			
-			this.seqs_hash = hash256(seqs_sink.toByteArray());
-			this.prevTxs_hash = hash256(txs_sink.toByteArray());
+			spentOutputs = prevouts.getPrevouts(inputs);
 		}
 		
-		return prevTxs_hash;
+		return spentOutputs;
 	}
 	
-	private byte[] getSeqsHash() {
-		if (isNull(seqs_hash)) {
-			// This call will calculate sequences hash as well ...
-			getPrevTxsHash();
+	private List<Output> getSpentOutputs() {
+		List<Output> spent = spentOutputs;
+		
+		return isNull(spent) ? getSpentOutputs(TxFetcher.prevouts(testnet)) : spent;
+	}
+	
+	private Output getSpentOutput(int index) {
+		return getSpentOutputs().get(index);
+	}
+	
+	public int serializedSize() {
+		return getTotalSize();
+	}
+	
+	// Size without the witnesses, as hashed for the txid ...
+	public int getBaseSize() {
+		if (baseSize == 0) {
+			baseSize = serializedSize(true);
 		}
 		
-		return seqs_hash;
+		return baseSize;
+	}
+	
+	// Size with the witnesses, as sent over the network ...
+	public int getTotalSize() {
+		if (totalSize == 0) {
+			totalSize = serializedSize(false);
+		}
+		
+		return totalSize;
+	}
+	
+	// Witness bytes count once and all the others four times, as in BIP141 ...
+	public int getWeight() {
+		return 3 * getBaseSize() + getTotalSize();
 	}
 	
-	private byte[] getOutputsHash() {
-		if (isNull(outputs_hash)) {
-			OutputSink sink = new OutputSink();
-			for (Output o: outputs) {
-				o.writeTo(sink);
+	// Weight in virtual bytes, rounded up ...
+	public int getVSize() {
+		return (getWeight() + 3) / 4;
+	}
+	
+	private int serializedSize(boolean ignoreSegwit) {
+		boolean withWitness = !ignoreSegwit && segwit;
+		
+		// Version (4), the segwit marker and flag (2) when present and the lock time (4) ...
+		int size = 4 + (withWitness ? 2 : 0) + 4;
+		
+		// Indexed loops, so that nothing is allocated for the walk ...
+		int inputSize = inputs.size();
+		size += sizeOfVarInt(inputSize);
+		for (int i = 0; i < inputSize; ++i) {
+			size += inputs.get(i).serializedSize();
+		}
+		
+		int outputSize = outputs.size();
+		size += sizeOfVarInt(outputSize);
+		for (int i = 0; i < outputSize; ++i) {
+			size += outputs.get(i).serializedSize();
+		}
+		
+		if (withWitness) {
+			for (int i = 0; i < inputSize; ++i) {
+				List<Data<?>> witnesses = inputs.get(i).getWitnesses();
+				if (isNull(witnesses)) {
+					size += 1;
+					continue;
+				}
+				
+				int witnessSize = witnesses.size();
+				size += sizeOfVarInt(witnessSize);
+				for (int k = 0; k < witnessSize; ++k) {
+					int length = witnesses.get(k).length();
+					size += sizeOfVarInt(length) + length;
+				}
 			}
-			
-			outputs_hash = hash256(sink.toByteArray());
 		}
 		
-		return outputs_hash;
+		return size;
 	}
 	
 	private void writeTo(OutputSink sink, boolean ignoreSegwit) {
 		checkNull(sink);
 		
 		// First write the version ...
-		byte[] bytes = toLittleEndian(version, 4);
-		sink.write(bytes);
+		sink.writeIntLE(version);
 		
 		if (!ignoreSegwit && segwit) {
 			sink.write(ZERO);
@@ -843,9 +1110,7 @@ public final class Transaction extends BytesEncodeable {
 		}
 		
 		// next write the number of inputs as a varint ...
-		int inputCount = inputs.size();
-		bytes = toVarInt(from(inputCount));
-		sink.write(bytes);
+		sink.writeVarInt(inputs.size());
 		
 		// Next write each of the inputs to the sink ...
 		for(Input input: inputs) {
@@ -853,9 +1118,7 @@ public final class Transaction extends BytesEncodeable {
 		}
 		
 		// next write the number of outputs as a varint ...
-		int outputCount = outputs.size();
-		bytes = toVarInt(from(outputCount));
-		sink.write(bytes);
+		sink.writeVarInt(outputs.size());
 		
 		// Next write each of the outputs to the sink ...
 		for(Output output: outputs) {
@@ -871,28 +1134,43 @@ public final class Transaction extends BytesEncodeable {
 				
 				// Write the number of witnesses ...
 				if (isNull(witnesses)) {
-					bytes = toVarInt(BigInteger.ZERO);
-					sink.write(bytes);
+					sink.writeVarInt(0);
 				} else {
-					bytes = toVarInt(from(witnesses.size()));
-					sink.write(bytes);
+					sink.writeVarInt(witnesses.size());
 					
 					for (Data<?> witness: witnesses) {
-						byte[] content = witness.readAsBytes();
-						
 						// First write the length of the content as a varint ...
-						bytes = toVarInt(from(content.length));
-						sink.write(bytes);
+						sink.writeVarInt(witness.length());
 						
 						// Now write the content ...
-						sink.write(content);
+						witness.writeContentTo(sink);
 					}
 				}
 			}
 		}
 		
 		// Finally write the lock time to the sink ...
-		bytes = toLittleEndian(lockTime, 4);
-		sink.write(bytes);
+		sink.writeIntLE(lockTime);
+	}
+	
+	private static BigInteger checkAmount(BigInteger amount) {
+		checkNull(amount);
+		
+		if (amount.signum() < 0 || amount.bitLength() > 63) {
+			throw new IllegalArgumentException("Amount not valid.");
+		}
+		
+		return amount;
+	}
+	
+	// Values of 4 byte fields given as BigInteger, taken as unsigned ...
+	private static int checkInt(BigInteger value) {
+		checkNull(value);
+		
+		if (value.signum() < 0 || value.bitLength() > 32) {
+			throw new IllegalArgumentException("Value not valid: " + value);
+		}
+		
+		return value.intValue();
 	}
 }
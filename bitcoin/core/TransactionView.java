@@ -0,0 +1,386 @@
+package bitcoin.core;
+
+import static bitcoin.util.BigInt.getVarIntSize;
+import static bitcoin.util.BigInt.readIntLE;
+import static bitcoin.util.BigInt.readLongLE;
+import static bitcoin.util.BigInt.readVarInt;
+import static bitcoin.util.Bytes.ONE;
+import static bitcoin.util.Bytes.ZERO;
+import static bitcoin.util.Crypto.HASH_LENGTH;
+import static bitcoin.util.Crypto.hash256;
+import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import bitcoin.lang.Script;
+import bitcoin.lang.dtype.ByteArray;
+import bitcoin.lang.dtype.Data;
+import bitcoin.util.Hash256;
+import bitcoin.util.InputSource;
+
+// Read only view of a serialized transaction. A single pass over the raw bytes notes
+// where every input, output and witness starts, and nothing else is decoded until it
+// is asked for. The ids are hashed straight from the byte ranges, so indexing and
+// scanning the transactions of a block allocates next to nothing. The raw bytes are
+// not copied and must not change while the view is in use ...
+public final class TransactionView {
+	// Smallest possible input, the outpoint (36), an empty scriptsig (1) and the
+	// sequence (4), and smallest possible output, the amount (8) and an empty script (1) ...
+	private static final int MIN_INPUT_SIZE = 41;
+	private static final int MIN_OUTPUT_SIZE = 9;
+	
+	private final byte[] raw;
+	private final int offset;
+	private final int length;
+	private final boolean segwit;
+	
+	// Offsets of the inputs, outputs and witness stacks, each with one more entry
+	// marking where the last of them ends ...
+	private final int[] inputs;
+	private final int[] outputs;
+	private final int[] witnesses;
+	
+	private transient volatile Hash256 txId;
+	private transient volatile Hash256 wtxId;
+	
+	private TransactionView(byte[] raw, int offset) {
+		this.raw = raw;
+		this.offset = offset;
+		
+		// Version (4) and, for segwit, the marker and the flag ...
+		int pos = offset + 4;
+		require(pos, 1);
+		
+		segwit = raw[pos] == ZERO;
+		if (segwit) {
+			require(pos, 2);
+			if (raw[pos + 1] != ONE) {
+				throw new IllegalArgumentException("Invalid segwit transaction.");
+			}
+			
+			pos += 2;
+		}
+		
+		int inputCount = readCount(pos, MIN_INPUT_SIZE);
+		pos += varIntLength(pos);
+		
+		inputs = new int[inputCount + 1];
+		for (int i = 0; i < inputCount; ++i) {
+			inputs[i] = pos;
+			
+			// Outpoint (36), scriptsig and sequence (4) ...
+			pos += 36;
+			pos = skipBytes(pos);
+			pos += 4;
+		}
+		
+		inputs[inputCount] = pos;
+		
+		int outputCount = readCount(pos, MIN_OUTPUT_SIZE);
+		pos += varIntLength(pos);
+		
+		outputs = new int[outputCount + 1];
+		for (int i = 0; i < outputCount; ++i) {
+			outputs[i] = pos;
+			
+			// Amount (8) and scriptpubkey ...
+			pos += 8;
+			pos = skipBytes(pos);
+		}
+		
+		outputs[outputCount] = pos;
+		
+		if (segwit) {
+			witnesses = new int[inputCount + 1];
+			for (int i = 0; i < inputCount; ++i) {
+				witnesses[i] = pos;
+				
+				int items = readCount(pos, 1);
+				pos += varIntLength(pos);
+				for (int j = 0; j < items; ++j) {
+					pos = skipBytes(pos);
+				}
+			}
+			
+			witnesses[inputCount] = pos;
+		} else {
+			witnesses = null;
+		}
+		
+		// Lock time (4) ...
+		require(pos, 4);
+		this.length = pos + 4 - offset;
+	}
+	
+	// Views a buffer holding exactly one transaction ...
+	public static TransactionView of(byte[] raw) {
+		checkNull(raw);
+		
+		TransactionView view = new TransactionView(raw, 0);
+		if (view.length != raw.length) {
+			throw new IllegalArgumentException("Trailing bytes after the transaction.");
+		}
+		
+		return view;
+	}
+	
+	// Views the transaction starting at the given offset, whatever follows it is left
+	// alone. The length of the view gives where the next one starts, as when walking
+	// the transactions of a block ...
+	public static TransactionView of(byte[] raw, int offset) {
+		checkNull(raw);
+		
+		if (offset < 0 || offset > raw.length) {
+			throw new ArrayIndexOutOfBoundsException(offset);
+		}
+		
+		return new TransactionView(raw, offset);
+	}
+	
+	public int getOffset() {
+		return offset;
+	}
+	
+	public int getLength() {
+		return length;
+	}
+	
+	public boolean isSegwit() {
+		return segwit;
+	}
+	
+	public int getVersionAsInt() {
+		return readIntLE(raw, offset);
+	}
+	
+	public int getLockTimeAsInt() {
+		return readIntLE(raw, offset + length - 4);
+	}
+	
+	public int getInputCount() {
+		return inputs.length - 1;
+	}
+	
+	public int getOutputCount() {
+		return outputs.length - 1;
+	}
+	
+	public boolean isCoinbase() {
+		return getInputCount() == 1 && getPrevTxnIndexAsInt(0) == 0xffffffff && getPrevTxnId(0).isZero();
+	}
+	
+	public Hash256 getPrevTxnId(int index) {
+		return Hash256.fromInternal(raw, inputs[checkInput(index)]);
+	}
+	
+	public int getPrevTxnIndexAsInt(int index) {
+		return readIntLE(raw, inputs[checkInput(index)] + HASH_LENGTH);
+	}
+	
+	public int getSeqAsInt(int index) {
+		// The sequence is the last 4 bytes of the input ...
+		return readIntLE(raw, inputs[checkInput(index) + 1] - 4);
+	}
+	
+	// Decodes the scriptsig of an input, null when it is empty as with a parsed input ...
+	public Script getScriptSig(int index) {
+		int start = inputs[checkInput(index)] + 36;
+		int size = (int)readVarInt(raw, start);
+		
+		return size == 0 ? null : parseScript(start + varIntLength(start), size);
+	}
+	
+	// Decodes a whole input. Witness data is not part of it, see getWitnesses ...
+	public Transaction.Input getInput(int index) {
+		int start = inputs[checkInput(index)];
+		
+		return Transaction.Input.parse(InputSource.wrap(slice(start, inputs[index + 1] - start)));
+	}
+	
+	public long getAmountAsLong(int index) {
+		return readLongLE(raw, outputs[checkOutput(index)]);
+	}
+	
+	public Script getScriptPubKey(int index) {
+		int start = outputs[checkOutput(index)] + 8;
+		
+		return parseScript(start + varIntLength(start), (int)readVarInt(raw, start));
+	}
+	
+	// Copies out the undecoded scriptpubkey, enough for matching scripts or addresses ...
+	public byte[] getScriptPubKeyBytes(int index) {
+		int start = outputs[checkOutput(index)] + 8;
+		int from = start + varIntLength(start);
+		
+		byte[] script = new byte[(int)readVarInt(raw, start)];
+		System.arraycopy(raw, from, script, 0, script.length);
+		
+		return script;
+	}
+	
+	public Transaction.Output getOutput(int index) {
+		int start = outputs[checkOutput(index)];
+		
+		return Transaction.Output.parse(InputSource.wrap(slice(start, outputs[index + 1] - start)));
+	}
+	
+	// Total of all the outputs, amounts are at most 21 million coins so it cannot overflow ...
+	public long getOutputTotal() {
+		long total = 0;
+		for (int i = 0; i < getOutputCount(); ++i) {
+			total += readLongLE(raw, outputs[i]);
+		}
+		
+		return total;
+	}
+	
+	// Decodes the witness stack of an input, empty for transactions without witnesses ...
+	public List<Data<?>> getWitnesses(int index) {
+		checkInput(index);
+		
+		if (isNull(witnesses)) {
+			return Collections.emptyList();
+		}
+		
+		int pos = witnesses[index];
+		int items = (int)readVarInt(raw, pos);
+		pos += varIntLength(pos);
+		
+		List<Data<?>> stack = new ArrayList<Data<?>>(items);
+		for (int i = 0; i < items; ++i) {
+			int size = (int)readVarInt(raw, pos);
+			pos += varIntLength(pos);
+			
+			// Empty items stay empty, the same as in a parsed transaction ...
+			byte[] data = new byte[size];
+			System.arraycopy(raw, pos, data, 0, size);
+			
+			stack.add(new ByteArray(data));
+			pos += size;
+		}
+		
+		return stack;
+	}
+	
+	// Transaction id, the hash of the serialization without the segwit marker, flag
+	// and witnesses. The skipped parts are left out of the hashed ranges ...
+	public Hash256 getTxId() {
+		if (isNull(txId)) {
+			int[] ranges;
+			if (segwit) {
+				int lockTime = offset + length - 4;
+				ranges = new int[] {offset, 4, offset + 6, outputs[getOutputCount()] - offset - 6, lockTime, 4};
+			} else {
+				ranges = new int[] {offset, length};
+			}
+			
+			byte[] hash = new byte[HASH_LENGTH];
+			hash256(raw, ranges, hash, 0);
+			txId = Hash256.fromInternal(hash);
+		}
+		
+		return txId;
+	}
+	
+	// Witness transaction id, the hash of the full serialization. The same as the
+	// transaction id for transactions without witnesses ...
+	public Hash256 getWitnessTxId() {
+		if (isNull(wtxId)) {
+			if (!segwit) {
+				wtxId = getTxId();
+			} else {
+				byte[] hash = new byte[HASH_LENGTH];
+				hash256(raw, new int[] {offset, length}, hash, 0);
+				wtxId = Hash256.fromInternal(hash);
+			}
+		}
+		
+		return wtxId;
+	}
+	
+	// Copies out the serialized transaction ...
+	public byte[] toBytes() {
+		byte[] bytes = new byte[length];
+		System.arraycopy(raw, offset, bytes, 0, length);
+		
+		return bytes;
+	}
+	
+	// Decodes everything, for when the whole transaction is needed after all ...
+	public Transaction toTransaction() {
+		return Transaction.parse(InputSource.wrap(slice(offset, length)));
+	}
+	
+	public String toString() {
+		return getTxId().toString();
+	}
+	
+	private Script parseScript(int from, int size) {
+		return Script.parse(raw, from, size);
+	}
+	
+	private ByteBuffer slice(int from, int size) {
+		return ByteBuffer.wrap(raw, from, size);
+	}
+	
+	private int checkInput(int index) {
+		if (index < 0 || index >= getInputCount()) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		
+		return index;
+	}
+	
+	private int checkOutput(int index) {
+		if (index < 0 || index >= getOutputCount()) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		
+		return index;
+	}
+	
+	// Reads a count and makes sure the remaining bytes could hold that many items of
+	// the given least size, so that a bad count cannot ask for huge offset tables ...
+	private int readCount(int pos, int minItemSize) {
+		require(pos, 1);
+		require(pos, varIntLength(pos));
+		
+		long count = readVarInt(raw, pos);
+		if (count < 0 || count > (raw.length - pos) / minItemSize) {
+			throw new IllegalArgumentException("Invalid count.");
+		}
+		
+		return (int)count;
+	}
+	
+	// Skips a length prefixed field and returns the position right after it ...
+	private int skipBytes(int pos) {
+		require(pos, 1);
+		require(pos, varIntLength(pos));
+		
+		long size = readVarInt(raw, pos);
+		pos += varIntLength(pos);
+		if (size < 0 || size > raw.length - pos) {
+			throw new IllegalArgumentException("Transaction truncated.");
+		}
+		
+		return pos + (int)size;
+	}
+	
+	private int varIntLength(int pos) {
+		int size = getVarIntSize(raw[pos]);
+		
+		// A single byte varint carries its value, the others come after the prefix ...
+		return size == 1 ? 1 : 1 + size;
+	}
+	
+	private void require(int pos, int count) {
+		if (pos < 0 || count > raw.length - pos) {
+			throw new IllegalArgumentException("Transaction truncated.");
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package bitcoin.core;
 
+import static bitcoin.util.Functions.checkNull;
 import static bitcoin.util.Functions.isNull;
 
 import java.io.BufferedInputStream;
@@ -8,9 +9,12 @@ import java.math.BigInteger;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import bitcoin.util.Hash256;
 import bitcoin.util.InputSource;
 
 public final class TxFetcher {
@@ -19,23 +23,65 @@ public final class TxFetcher {
 	private static final String TESTNET_URL = "http://testnet.programmingbitcoin.com/tx/";
 	private static final String MAINNET_URL = "http://mainnet.programmingbitcoin.com/tx/";
 	
-	private static final Map<BigInteger, Transaction> CACHE = 
+	private static final Map<Hash256, Transaction> CACHE = 
 			Collections.synchronizedMap(
-				new LinkedHashMap<BigInteger, Transaction>(100) {
+				new LinkedHashMap<Hash256, Transaction>(100) {
 					private static final long serialVersionUID = 1L;
-	
-					protected boolean removeEldestEntry(Map.Entry<BigInteger, Transaction> eldest) {
+					
+					protected boolean removeEldestEntry(Map.Entry<Hash256, Transaction> eldest) {
 				        return size() > MAX_ENTRIES;
 				     }
 				}
 			);
+	
+	// Looks up outputs by fetching the previous transactions. A batch of inputs gets
+	// every previous transaction fetched once, even when it has dropped out of the
+	// cache above in the meantime ...
+	private static final class Prevouts implements PrevoutProvider {
+		private final boolean testnet;
+		
+		Prevouts(boolean testnet) {
+			this.testnet = testnet;
+		}
+		
+		public Transaction.Output getPrevout(Hash256 txId, int index) {
+			return outputOf(fetch(txId, testnet, false), index);
+		}
+		
+		public List<Transaction.Output> getPrevouts(List<Transaction.Input> inputs) {
+			Map<Hash256, Transaction> fetched = new HashMap<Hash256, Transaction>();
+			PrevoutProvider batch = (txId, index) -> 
+					outputOf(fetched.computeIfAbsent(txId, id -> fetch(id, testnet, false)), index);
+			
+			return batch.getPrevouts(inputs);
+		}
+	}
+	
 	private TxFetcher() {}
 	
+	public static PrevoutProvider prevouts() {
+		return prevouts(false);
+	}
+	
+	public static PrevoutProvider prevouts(boolean testnet) {
+		return new Prevouts(testnet);
+	}
+	
 	public static Transaction fetch(BigInteger txId) {
 		return fetch(txId, false, false);
 	}
 	
 	public static Transaction fetch(BigInteger txId, boolean testnet, boolean fresh) {
+		return fetch(Hash256.of(txId), testnet, fresh);
+	}
+	
+	public static Transaction fetch(Hash256 txId) {
+		return fetch(txId, false, false);
+	}
+	
+	public static Transaction fetch(Hash256 txId, boolean testnet, boolean fresh) {
+		checkNull(txId);
+		
 		Transaction tx = null;
 		if (!fresh) {
 			tx = CACHE.get(txId);
@@ -51,28 +97,20 @@ public final class TxFetcher {
 		return tx;
 	}
 	
-	private static String buildTxURL(BigInteger txId, boolean testnet) {
-		String txIdHex = txId.toString(16);
+	private static Transaction.Output outputOf(Transaction tx, int index) {
+		List<Transaction.Output> outputs = tx.getOutputs();
 		
-		// Transaction ids are expected to be 32 bytes or 64 characters, hence
-		// if it is less than that we need to compensate for that with prefixed 0s.		
-		int diff = 64 - txIdHex.length(); 
-		
-		if (diff < 0) {
-			throw new IllegalArgumentException("Invalid transaction id.");
-		}
+		return index >= 0 && index < outputs.size() ? outputs.get(index) : null;
+	}
+	
+	private static String buildTxURL(Hash256 txId, boolean testnet) {
+		// The display order hex of an id is always 64 characters ...
+		String txIdHex = txId.toString();
 		
 		StringBuilder buffer = 
-				new StringBuilder(TESTNET_URL.length() + diff + txIdHex.length() + 4);
+				new StringBuilder(TESTNET_URL.length() + txIdHex.length() + 4);
 		
 		buffer.append(testnet ? TESTNET_URL : MAINNET_URL);
-		
-		if (diff > 0) {			 
-			for(int i = 0; i < diff; ++i) {
-				buffer.append('0');
-			}
-		} 		
-		
 		buffer.append(txIdHex).append(".hex");
 		
 		return buffer.toString();
@@ -88,7 +126,7 @@ public final class TxFetcher {
 		
 		Transaction tx;
 		try(BufferedInputStream stream = new BufferedInputStream(url.openStream())) {
-			InputSource source = InputSource.wrap(stream);
+			InputSource source = InputSource.wrapHex(stream);
 			tx = Transaction.parse(source);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -0,0 +1,115 @@
+package bitcoin.core;
+
+import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bitcoin.util.Hash256;
+
+// Unspent outputs held in memory, keyed by outpoint. Verifying against a view needs no
+// network, and a view can be filled for a whole batch of transactions with one call to
+// a slower provider. A view must not be changed while other threads read it ...
+public final class UtxoView implements PrevoutProvider {
+	private static final class OutPoint {
+		private final Hash256 txId;
+		private final int index;
+		
+		OutPoint(Hash256 txId, int index) {
+			this.txId = txId;
+			this.index = index;
+		}
+		
+		public int hashCode() {
+			return 31 * txId.hashCode() + index;
+		}
+		
+		public boolean equals(Object another) {
+			if (another instanceof OutPoint) {
+				OutPoint other = (OutPoint)another;
+				return index == other.index && txId.equals(other.txId);
+			}
+			
+			return false;
+		}
+	}
+	
+	private final Map<OutPoint, Transaction.Output> outputs;
+	
+	public UtxoView() {
+		this.outputs = new HashMap<OutPoint, Transaction.Output>();
+	}
+	
+	// Resolves everything spent by a batch of transactions, such as the ones of a block.
+	// Outputs created within the batch are taken from it, and all the others are asked
+	// of the source in a single call, so a fetching source downloads every previous
+	// transaction just once ...
+	public static UtxoView resolve(List<Transaction> txs, PrevoutProvider source) {
+		checkNull(txs, source);
+		
+		UtxoView view = new UtxoView();
+		for (Transaction tx: txs) {
+			view.addOutputs(tx);
+		}
+		
+		List<Transaction.Input> missing = new ArrayList<Transaction.Input>();
+		for (Transaction tx: txs) {
+			if (tx.isCoinbase()) {
+				continue;
+			}
+			
+			for (Transaction.Input input: tx.getInputs()) {
+				if (isNull(view.getPrevout(input.getPrevTxnId(), input.getPrevTxnIndexAsInt()))) {
+					missing.add(input);
+				}
+			}
+		}
+		
+		if (!missing.isEmpty()) {
+			List<Transaction.Output> found = source.getPrevouts(missing);
+			for (int i = 0; i < missing.size(); ++i) {
+				Transaction.Input input = missing.get(i);
+				view.add(input.getPrevTxnId(), input.getPrevTxnIndexAsInt(), found.get(i));
+			}
+		}
+		
+		return view;
+	}
+	
+	public void add(Hash256 txId, int index, Transaction.Output output) {
+		checkNull(txId, output);
+		
+		outputs.put(new OutPoint(txId, index), output);
+	}
+	
+	// Adds every output of the transaction ...
+	public void addOutputs(Transaction tx) {
+		checkNull(tx);
+		
+		Hash256 txId = tx.getTxId();
+		List<Transaction.Output> created = tx.getOutputs();
+		for (int i = 0; i < created.size(); ++i) {
+			outputs.put(new OutPoint(txId, i), created.get(i));
+		}
+	}
+	
+	// Removes a spent output and returns it, null if it was not there ...
+	public Transaction.Output remove(Hash256 txId, int index) {
+		checkNull(txId);
+		
+		return outputs.remove(new OutPoint(txId, index));
+	}
+	
+	public int size() {
+		return outputs.size();
+	}
+	
+	public Transaction.Output getPrevout(Hash256 txId, int index) {
+		checkNull(txId);
+		
+		return outputs.get(new OutPoint(txId, index));
+	}
+}
@@ -15,6 +15,12 @@ public final class Signature {
 	public static final BigInteger SIGHASH_ALL = BigInteger.ONE;
 	public static final String SIGHASH_ALL_MARKER = "01";
 	
+	// The other hash types, as the byte that follows a signature. Anyone can pay is
+	// a flag on top of one of the others ...
+	public static final int SIGHASH_NONE = 2;
+	public static final int SIGHASH_SINGLE = 3;
+	public static final int SIGHASH_ANYONECANPAY = 0x80;
+	
 	private BigInteger r, s;
 	
 	public Signature(BigInteger r, BigInteger s) {
@@ -96,31 +102,21 @@ public final class Signature {
 			throw new IllegalArgumentException("String not in valid DER format");
 		}
 		
-		// Adjust the length to account for the SIGHASH_ALL suffix marker ...
-		int derLength = der.endsWith("01") ?  der.length() - 2 : der.length();
-		
-		// Next read the next byte that gives the total length  ...
-		char c1;
-		char c2;
-		
-		try {
-			c1 = der.charAt(2);
-			c2 = der.charAt(3);
-		} catch(Exception e) {
-			throw new IllegalArgumentException("String not in valid DER format", e);
-		}
-			
-		// Multiply by 2 because each byte is 2 characters ...
-		int expectedLength = hexCharsToByte(c1, c2) * 2;  		
+		// Next read the next byte that gives the total length. The signature may be
+		// followed by a hash type byte, which is told apart by the length alone, as
+		// a DER body can end with any byte ...
+		int expectedLength = encodedLength(der);
 		
 		// We subtract 4 characters to account for the initial marker and total length bytes ...
-		//int actualLength = der.length() - 4;
-		int actualLength = derLength - 4;
+		int actualLength = der.length() - 4;
 		
-		if (expectedLength != actualLength) {
+		if (expectedLength != actualLength && expectedLength + 2 != actualLength) {
 			throw new IllegalArgumentException("String not in valid DER format");
 		}
 		
+		char c1;
+		char c2;
+		
 		// Next make sure the "02" marker is present ...
 		if (!der.regionMatches(4, "02", 0, 2)) {
 			throw new IllegalArgumentException("String not in valid DER format");
@@ -173,6 +169,36 @@ public final class Signature {
 		return new Signature(r, s);
 	}
 	
+	// Returns the hash type that follows a DER signature, or -1 if there is none ...
+	public static int hashTypeOf(String der) {
+		checkNull(der);
+		
+		der = der.trim();
+		
+		int expectedLength = encodedLength(der);
+		if (der.length() - 4 == expectedLength + 2) {
+			return hexCharsToByte(der.charAt(der.length() - 2), der.charAt(der.length() - 1)) & 0xff;
+		}
+		
+		return -1;
+	}
+	
+	// Length in characters of the DER body, as given by its length byte ...
+	private static int encodedLength(String der) {
+		char c1;
+		char c2;
+		
+		try {
+			c1 = der.charAt(2);
+			c2 = der.charAt(3);
+		} catch(Exception e) {
+			throw new IllegalArgumentException("String not in valid DER format", e);
+		}
+		
+		// Multiply by 2 because each byte is 2 characters ...
+		return (hexCharsToByte(c1, c2) & 0xff) * 2;
+	}
+	
 	public static void main(String[] args) {
 		String der = "3045022037206a0610995c58074999cb9767b87af4c4978db68c06e8e6e81d282047a7c60221008ca63759c1157ebeaec0d03cecca119fc9a75bf8e6d0fa65c841c8e2738cdaec";
 		//String der = "304402207e6009ad86367fc4b166bc80bf10cf1e78832a01e9bb491c6d126ee8aa436cb502200e29e6dd7708ed419cd5ba798981c960f0cc811b24e894bff072fea8074a7c4c01";
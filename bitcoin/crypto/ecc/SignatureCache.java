@@ -0,0 +1,69 @@
+package bitcoin.crypto.ecc;
+
+import static bitcoin.util.Bytes.hexToBytes;
+import static bitcoin.util.Functions.checkNull;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import bitcoin.util.Hash256;
+import bitcoin.util.SaltedHashSet;
+
+// Signatures already found valid, so that a transaction seen again, such as in a block
+// after the mempool or after a reorg, skips the elliptic curve math. An entry is the
+// salted hash of the hash, public key and signature, and failed checks are never kept.
+// Threads that verify the same new signature at once all add it, but it is kept once,
+// and when full the entries neither recent nor looked up again go first ...
+public final class SignatureCache {
+	public static final int DEFAULT_CAPACITY = 100000;
+	
+	public static final SignatureCache INSTANCE = new SignatureCache(DEFAULT_CAPACITY);
+	
+	private final SaltedHashSet entries;
+	
+	public SignatureCache(int capacity) {
+		this.entries = new SaltedHashSet(capacity);
+	}
+	
+	// Checks the signature, given as the DER hex pushed by the script along with any
+	// hash type, against the public key as SEC hex. A signature or key that does not
+	// parse does not verify ...
+	public boolean verify(BigInteger z, String sec, String der) {
+		checkNull(z, sec, der);
+		
+		Hash256 key = keyOf(z, sec, der);
+		if (entries.contains(key)) {
+			return true;
+		}
+		
+		boolean verified;
+		try {
+			Secp256k1Point pubKey = Secp256k1Point.fromSEC(sec);
+			verified = pubKey.verifySignature(z, Signature.fromDER(der));
+		} catch(Exception e) {
+			return false;
+		}
+		
+		if (verified) {
+			entries.add(key);
+		}
+		
+		return verified;
+	}
+	
+	public SaltedHashSet getEntries() {
+		return entries;
+	}
+	
+	private Hash256 keyOf(BigInteger z, String sec, String der) {
+		byte[] pubKey = hexToBytes(sec);
+		
+		MessageDigest digestor = entries.newDigest();
+		digestor.update(Hash256.of(z).toInternalBytes());
+		digestor.update((byte)pubKey.length);
+		digestor.update(pubKey);
+		digestor.update(hexToBytes(der));
+		
+		return Hash256.fromInternal(digestor.digest());
+	}
+}
@@ -1,14 +1,11 @@
 package bitcoin.lang;
 
-import static bitcoin.util.BigInt.from;
-import static bitcoin.util.BigInt.fromLittleEndian;
-import static bitcoin.util.BigInt.toVarInt;
-import static bitcoin.util.Bytes.concatenate;
 import static bitcoin.util.Crypto.sha256;
 import static bitcoin.util.Functions.areEqual;
 import static bitcoin.util.Functions.checkNull;
 import static bitcoin.util.Functions.isNull;
 
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -18,6 +15,7 @@ import java.util.Stack;
 import bitcoin.lang.dtype.ByteArray;
 import bitcoin.lang.dtype.Data;
 import bitcoin.lang.dtype.NormalString;
+import bitcoin.lang.dtype.SignatureHash;
 import bitcoin.lang.op.Op0;
 import bitcoin.lang.op.OpCheckSig;
 import bitcoin.lang.op.OpCode;
@@ -30,18 +28,25 @@ import bitcoin.util.InputSource;
 import bitcoin.util.OutputSink;
 
 public final class Script extends Executable {
+	// Rules the evaluation applies on top of the base script, as verification flags.
+	// Results cached for one set of rules do not hold for another ...
+	public static final int VERIFY_P2SH = 1;
+	public static final int VERIFY_WITNESS = 1 << 1;
+	public static final int VERIFY_FLAGS = VERIFY_P2SH | VERIFY_WITNESS;
 	
-	private List<Command> commands;
+	// Pushes of up to 75 bytes carry their length in the opcode itself ...
+	private static final int MAX_DIRECT_PUSH = 75;
+	private static final int OP_PUSHDATA1 = 76;
+	private static final int OP_PUSHDATA2 = 77;
 	
-	private transient volatile String rep;
-	
-	private transient volatile Boolean p2pkh;
+	// Original encoding of a parsed script, or the cached encoding of one built from
+	// commands, written out as is. A parsed script decodes its commands only when
+	// they are asked for ...
+	private transient volatile byte[] bytes;
 	
-	private transient volatile Boolean p2sh;
+	private transient volatile List<Command> commands;
 	
-	private transient volatile Boolean p2wpkh;
-	
-	private transient volatile Boolean p2wsh;
+	private transient volatile String rep;
 	
 	public Script(List<Command> commands) {
 		checkNull(commands);
@@ -49,11 +54,20 @@ public final class Script extends Executable {
 		this.commands = Collections.unmodifiableList(commands);
 	}
 	
+	private Script(byte[] bytes) {
+		this.bytes = bytes;
+	}
+	
 	public List<Command> getAllCommands() {
+		if (isNull(commands)) {
+			commands = decode(bytes);
+		}
+		
 		return commands;
 	}
 	
 	public Command getCommand(int index) {
+		List<Command> commands = getAllCommands();
 		if (index < 0 || index > commands.size() - 1) {
 			throw new IllegalArgumentException("No command with that index exists.");
 		}
@@ -66,26 +80,53 @@ public final class Script extends Executable {
 	}
 	
 	public Command getLastCommand() {		
-		return getCommand(commands.size() - 1);
+		return getCommand(getAllCommands().size() - 1);
+	}
+	
+	// Returns a copy of the encoded script, without a length prefix ...
+	public byte[] getBytes() {
+		return encoded().clone();
 	}
 	
 	public void writeTo(OutputSink sink) {
 		checkNull(sink);
 		
+		sink.write(encoded());
+	}
+	
+	// Feeds the encoded script, without a length prefix, into a digest ...
+	public void updateDigest(MessageDigest digest) {
+		checkNull(digest);
+		
+		digest.update(encoded());
+	}
+	
+	public int serializedSize() {
+		byte[] bytes = this.bytes;
+		if (!isNull(bytes)) {
+			return bytes.length;
+		}
+		
+		int size = 0;
 		for(Command c: commands) {
-			c.writeTo(sink);
+			size += c.serializedSize();
 		}
+		
+		return size;
 	}
 	
 	public String toString() {
 		if (rep == null) {
 			StringBuilder buffer = new StringBuilder();
-			for (Command c: commands) {
+			for (Command c: getAllCommands()) {
 				buffer.append(c);				
 				buffer.append(" ");
 			}
 			
-			buffer.setLength(buffer.length() - 1);			
+			if (buffer.length() > 0) {
+				buffer.setLength(buffer.length() - 1);
+			}
+			
 			rep = buffer.toString();
 		}		
 		
@@ -95,87 +136,43 @@ public final class Script extends Executable {
 	public boolean equals(Object other) {
 		if (other instanceof Script) {
 			Script another = (Script)other;
-			return areEqual(this.commands, another.commands);
+			return areEqual(this.getAllCommands(), another.getAllCommands());
 		}
 		
 		return false;
 	}
 	
+	// OP_DUP OP_HASH160 <20 bytes> OP_EQUALVERIFY OP_CHECKSIG. The templates are
+	// matched on the encoded bytes, so no commands get decoded for them ...
 	public boolean isP2PKH() {
-		if (isNull(p2pkh)) {
-			boolean p = commands.size() == 5;
-			p = OpDup.INSTANCE.equals(commands.get(0));
-			p = p && OpHash160.INSTANCE.equals(commands.get(1));
-			p = p && commands.get(2) instanceof ByteArray;
-			p = p && OpEqualVerify.INSTANCE.equals(commands.get(3));
-			p = p && OpCheckSig.INSTANCE.equals(commands.get(4));
-			
-			if (p) {
-				byte[] data = ((ByteArray)commands.get(2)).read();
-				p = data.length == 20;
-			}
-			
-			p2pkh = Boolean.valueOf(p);
-		}
-		
-		return p2pkh.booleanValue();
+		byte[] b = encoded();
+		return b.length == 25 && b[0] == OpDup.INSTANCE.toByte() && b[1] == OpHash160.INSTANCE.toByte() && 
+				b[2] == 20 && b[23] == OpEqualVerify.INSTANCE.toByte() && b[24] == OpCheckSig.INSTANCE.toByte();
 	}
 	
+	// OP_HASH160 <20 bytes> OP_EQUAL
 	public boolean isP2SH() {
-		if (isNull(p2sh)) {
-			boolean p = commands.size() == 3;
-			p = OpHash160.INSTANCE.equals(commands.get(0));
-			p = p && commands.get(1) instanceof ByteArray;
-			p = p && OpEqual.INSTANCE.equals(commands.get(2));
-			
-			if (p) {
-				byte[] data = ((ByteArray)commands.get(1)).read();
-				p = data.length == 20;
-			}
-			
-			p2sh = Boolean.valueOf(p);
-		}
-		
-		return p2sh.booleanValue();
+		byte[] b = encoded();
+		return b.length == 23 && b[0] == OpHash160.INSTANCE.toByte() && b[1] == 20 && 
+				b[22] == OpEqual.INSTANCE.toByte();
 	}
 	
+	// OP_0 <20 bytes>
 	public boolean isP2WPKH() {
-		if (isNull(p2wpkh)) {
-			boolean p = commands.size() == 2;
-			p = Op0.INSTANCE.equals(commands.get(0));
-			p = p && commands.get(1) instanceof ByteArray;
-			
-			if (p) {
-				byte[] data = ((ByteArray)commands.get(1)).read();
-				p = data.length == 20;
-			}
-			
-			p2wpkh = Boolean.valueOf(p);
-		}
-		
-		return p2wpkh.booleanValue();
+		byte[] b = encoded();
+		return b.length == 22 && b[0] == Op0.INSTANCE.toByte() && b[1] == 20;
 	}
 	
+	// OP_0 <32 bytes>
 	public boolean isP2WSH() {
-		if (isNull(p2wsh)) {
-			boolean p = commands.size() == 2;
-			p = Op0.INSTANCE.equals(commands.get(0));
-			p = p && commands.get(1) instanceof ByteArray;
-			
-			if (p) {
-				byte[] data = ((ByteArray)commands.get(1)).read();
-				p = data.length == 32;
-			}
-			
-			p2wsh = Boolean.valueOf(p);
-		}
-		
-		return p2wsh.booleanValue();
+		byte[] b = encoded();
+		return b.length == 34 && b[0] == Op0.INSTANCE.toByte() && b[1] == 32;
 	}	
 	
 	public Script add(Script another) {
 		checkNull(another);		
 		
+		List<Command> commands = getAllCommands();
 		List<Command> instructions = new ArrayList<Command>(commands.size() + 1);
 		instructions.add(another);		
 		instructions.addAll(commands);
@@ -193,41 +190,34 @@ public final class Script extends Executable {
 		return compute(witnesses, data);
 	}	
 	
+	// Takes everything left in the source as the script. The bytes are only checked
+	// here, the commands are decoded when first needed ...
 	public static Script parse(InputSource source) {
 		checkNull(source);
 		
-		List<Command> commands = new ArrayList<Command>();
-		int n = -1;
-		while ((n = source.readNextByte(false)) != -1 ) {
-			n = Byte.toUnsignedInt((byte)n);
-			if (n >= 1 && n <= 75) {				
-				ByteArray data = new ByteArray(source.readNextBytes(n));
-				commands.add(data);
-			} else if (n == 76) {
-				int dataLength = source.readNextByte();
-				ByteArray data = new ByteArray(source.readNextBytes(dataLength));
-				commands.add(data);
-			} else if (n == 77) {
-				int dataLength = fromLittleEndian(source.readNextBytes(2)).intValue();
-				ByteArray data = new ByteArray(source.readNextBytes(dataLength));
-				commands.add(data);
-			} else {				
-				OpCode instruction = OpCode.from(n);
-				if (isNull(instruction)) {
-					throw new IllegalArgumentException("Opcode '"+n+"' not valid");
-				}				
-				commands.add(instruction);
-			}
-		}		
+		byte[] bytes = source.readRemainingBytes();
+		validate(bytes);
+		
+		return new Script(bytes);
+	}
+	
+	public static Script parse(byte[] bytes, int offset, int length) {
+		checkNull(bytes);
+		
+		if (offset < 0 || length < 0 || offset + length > bytes.length) {
+			throw new ArrayIndexOutOfBoundsException(offset + length);
+		}
+		
+		byte[] script = Arrays.copyOfRange(bytes, offset, offset + length);
+		validate(script);
 		
-		return new Script(commands);
+		return new Script(script);
 	}
 	
+	// The pushed bytes are the script itself, without a length prefix ...
 	public static Script fromData(Data<?> data) {
 		byte[] redeemBytes = data.readAsBytes();
-		byte[] varIntLength = toVarInt(from(redeemBytes.length));
-		byte[] scriptBytes = concatenate(varIntLength, redeemBytes);
-		return Script.parse(InputSource.wrap(scriptBytes));
+		return Script.parse(redeemBytes, 0, redeemBytes.length);
 	}
 	
 	protected final boolean beforeExec(Context context) {
@@ -251,81 +241,69 @@ public final class Script extends Executable {
 			Command c = commands.get(i);
 			if (c.isExecutable()) {
 				Executable e = (Executable)c;
-				if (e.execute(context)) {
-					++i;
-					continue;
+				if (!e.execute(context)) {
+					return false;
+				}
+				
+				++i;
+				
+				// A scriptsig runs as a script of its own, so its last push is what a
+				// p2sh script pubkey after it checks ...
+				if (c instanceof Script && !inputs.isEmpty() && isP2SHAt(commands, i)) {
+					if (!redeem(context, inputs.peek(), (ByteArray)commands.get(i + 1))) {
+						return false;
+					}
+					
+					i = i + 3;
 				}
 				
-				return false;
+				continue;
 			}
 			
 			Data<?> d = (Data<?>)c;
 			inputs.add(d);
 			// This is a special handling for the p2sh scenario ...
-			int remainingCommands = commands.size() - (i + 1);
-			if (remainingCommands == 3 && 
-					OpHash160.INSTANCE.equals(commands.get(i + 1)) &&
-						commands.get(i + 2) instanceof ByteArray && 
-							((ByteArray)commands.get(i + 2)).read().length == 20 &&
-								OpEqual.INSTANCE.equals(commands.get(i + 3))) {
-				ByteArray h160 = ((ByteArray)commands.get(i + 2));
-				if (!OpHash160.INSTANCE.execute(context)) {
-					return false;
-				}
-				
-				inputs.add(h160);
-				
-				if (!OpEqual.INSTANCE.execute(context)) {
+			if (isP2SHAt(commands, i + 1)) {
+				if (!redeem(context, d, (ByteArray)commands.get(i + 2))) {
 					return false;
 				}
 				
-				if (!OpVerify.INSTANCE.execute(context)) {
-					return false;
-				}				
-				
-				Script redeemScript = fromData(d);
-				commands.addAll(redeemScript.commands);
-				
-				i = i + 3;
+				i = i + 4;
 			} else {
 				++i;
 			} 
 			
-			// Special handling for p2wkh scenario ...
-			if (inputs.size() == 2 && 
-				NormalString.FAILURE.equals(inputs.get(0)) && 
-					inputs.get(1) instanceof ByteArray && 
-						((ByteArray)inputs.get(1)).read().length == 20) {
+			// Special handling for p2wkh scenario, the witness is run against the
+			// p2pkh script of the key hash ...
+			if (isWitnessProgram(inputs, 20)) {
 				ByteArray h160 = (ByteArray)inputs.pop();	
 				inputs.pop();
 				
 				List<Data<?>> witnesses = context.getWitnesses();
 				if (!isNull(witnesses)) {
-					commands.addAll(witnesses);
+					for (Data<?> witness: witnesses) {
+						commands.add(witnessCommand(witness));
+					}
 				}				
 				
-				commands.addAll(new Script(Arrays.asList(h160)).getAllCommands());
+				commands.addAll(Arrays.asList(OpDup.INSTANCE, OpHash160.INSTANCE, 
+						h160, OpEqualVerify.INSTANCE, OpCheckSig.INSTANCE));
 			}
 			
 			// Special handling for p2wsh scenario ...
-			if (inputs.size() == 2 && 
-				NormalString.FAILURE.equals(inputs.get(0)) && 
-					inputs.get(1) instanceof ByteArray && 
-						((ByteArray)inputs.get(1)).read().length == 32) {
-				byte[] s256 = ((ByteArray)inputs.pop()).read();	
+			if (isWitnessProgram(inputs, 32)) {
+				Data<?> s256 = inputs.pop();
 				inputs.pop();
 				
 				List<Data<?>> witnesses = context.getWitnesses();
 				if (!isNull(witnesses)) {
 					int last = witnesses.size() - 1;
-					for (int k = 0; i < last; ++k) {
-						Data<?> witness = witnesses.get(k);
-						commands.add(witness);
+					for (int k = 0; k < last; ++k) {
+						commands.add(witnessCommand(witnesses.get(k)));
 					}
 					
 					Data<?> witnessData = witnesses.get(last);
-					byte[] scriptBytes = witnessData.readAsBytes();
-					if (!Arrays.equals(s256, sha256(scriptBytes))) {
+					if (!s256.equals(new ByteArray(sha256(witnessData.asReadOnlyBuffer())))) {
 						return false;
 					}
 					
@@ -347,15 +325,131 @@ public final class Script extends Executable {
 		return true;
 	}
 	
+	// An empty witness item goes on the stack the way OP_0 puts it there, as the
+	// dummy that OP_CHECKMULTISIG takes does for p2wsh multisig ...
+	private static Command witnessCommand(Data<?> witness) {
+		return witness.length() == 0 ? Op0.INSTANCE : witness;
+	}
+	
+	// Whether the commands from the given index are all of a p2sh script pubkey,
+	// OP_HASH160 <20 bytes> OP_EQUAL ...
+	private static boolean isP2SHAt(List<Command> commands, int index) {
+		return commands.size() - index == 3 && 
+				OpHash160.INSTANCE.equals(commands.get(index)) &&
+					commands.get(index + 1) instanceof ByteArray && 
+						((ByteArray)commands.get(index + 1)).length() == 20 &&
+							OpEqual.INSTANCE.equals(commands.get(index + 2));
+	}
+	
+	// Checks the redeem script on top of the stack against the hash of a p2sh script
+	// pubkey, and queues its commands to run on what is left of the stack ...
+	private static boolean redeem(Context context, Data<?> redeemData, ByteArray h160) {
+		if (!OpHash160.INSTANCE.execute(context)) {
+			return false;
+		}
+		
+		context.getRegularStack().add(h160);
+		
+		if (!OpEqual.INSTANCE.execute(context)) {
+			return false;
+		}
+		
+		if (!OpVerify.INSTANCE.execute(context)) {
+			return false;
+		}				
+		
+		Script redeemScript = fromData(redeemData);
+		context.getCommands().addAll(redeemScript.getAllCommands());
+		
+		return true;
+	}
+	
+	// Whether the stack holds nothing but a version 0 witness program of the given
+	// size, above the signature hash when a transaction is being verified ...
+	private static boolean isWitnessProgram(Stack<Data<?>> inputs, int size) {
+		int base = inputs.size() - 2;
+		if (base < 0 || base > 1 || (base == 1 && !(inputs.get(0) instanceof SignatureHash))) {
+			return false;
+		}
+		
+		return NormalString.FAILURE.equals(inputs.get(base)) && 
+				inputs.get(base + 1) instanceof ByteArray && inputs.get(base + 1).length() == size;
+	}
+	
 	protected final void afterExec(Context context) {
 		// Clear any state stored on the alternate stack after execution ...
 		clearAltStack(context);
 		
 		// Clear all the current commands from the context ...
 		context.removeCommands();
+	}
+	
+	private byte[] encoded() {
+		if (isNull(bytes)) {
+			OutputSink sink = new OutputSink(serializedSize());
+			for(Command c: commands) {
+				c.writeTo(sink);
+			}
+			
+			bytes = sink.toByteArray();
+		}
+		
+		return bytes;
+	}
+	
+	// Walks the pushes and opcodes without decoding them, so that a script that
+	// would not decode is still refused when parsed ...
+	private static void validate(byte[] bytes) {
+		int i = 0;
+		while (i < bytes.length) {
+			int n = bytes[i++] & 0xff;
+			if (n >= 1 && n <= MAX_DIRECT_PUSH) {
+				i += n;
+			} else if (n == OP_PUSHDATA1) {
+				checkAvailable(bytes, i, 1);
+				i += 1 + (bytes[i] & 0xff);
+			} else if (n == OP_PUSHDATA2) {
+				checkAvailable(bytes, i, 2);
+				i += 2 + ((bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8);
+			} else if (isNull(OpCode.from(n))) {
+				throw new IllegalArgumentException("Opcode '"+n+"' not valid");
+			}
+			
+			checkAvailable(bytes, i, 0);
+		}
+	}
+	
+	private static void checkAvailable(byte[] bytes, int offset, int count) {
+		if (offset + count > bytes.length) {
+			throw new IllegalStateException("Expected bytes not available in stream.");
+		}
+	}
+	
+	private static List<Command> decode(byte[] bytes) {
+		List<Command> commands = new ArrayList<Command>();
+		int i = 0;
+		while (i < bytes.length) {
+			int n = bytes[i++] & 0xff;
+			int dataLength = -1;
+			if (n >= 1 && n <= MAX_DIRECT_PUSH) {
+				dataLength = n;
+			} else if (n == OP_PUSHDATA1) {
+				dataLength = bytes[i++] & 0xff;
+			} else if (n == OP_PUSHDATA2) {
+				// The length is 2 bytes in little endian ...
+				dataLength = (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8;
+				i += 2;
+			}
+			
+			if (dataLength < 0) {
+				commands.add(OpCode.from(n));
+			} else {
+				commands.add(new ByteArray(Arrays.copyOfRange(bytes, i, i + dataLength)));
+				i += dataLength;
+			}
+		}
 		
-		// Clear all the current witnesses from the context ...
-		context.removeWitnesses();
+		return Collections.unmodifiableList(commands);
 	}
 	
 	private boolean compute(List<Data<?>> witnesses, Data<?> ... data) {
@@ -370,6 +464,12 @@ public final class Script extends Executable {
 			regStack.push(d);
 		}
 		
-		return execute(context);
+		// The witnesses stay for the whole evaluation, a scriptsig run as a script of
+		// its own must not take them away from the p2sh redeem script ...
+		try {
+			return execute(context);
+		} finally {
+			context.removeWitnesses();
+		}
 	}
 }
@@ -16,7 +16,7 @@ public final class ByteArray extends Data<byte[]> {
 	public String toString() {
 		return bytesToHex(super.content);
 	}
-
+	
 	protected byte[] safeCopy() {	
 		return newBytes(super.content);
 	}	
@@ -24,4 +24,8 @@ public final class ByteArray extends Data<byte[]> {
 	protected byte[] asBytes(byte[] data) {
 		return safeCopy();
 	}
+	
+	protected byte[] contentBytes() {
+		return super.content;
+	}
 }
@@ -1,17 +1,25 @@
 package bitcoin.lang.dtype;
 
-import static bitcoin.util.BigInt.from;
-import static bitcoin.util.BigInt.toLittleEndian;
+import static bitcoin.util.Bytes.bytesToHex;
 import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
 import bitcoin.lang.Command;
 import bitcoin.util.OutputSink;
 
+// Data on the script stack. Besides read() and readAsBytes(), which hand out copies
+// the caller may change, the content can be looked at as bytes through the read only
+// methods below, none of which copy ...
 public abstract class Data<T> extends Command {
 	protected T content;
 	
+	// Content as bytes, worked out once and never handed out ...
+	private transient volatile byte[] view;
+	
 	protected Data(T content) {
 		checkNull(content);
 		
@@ -21,37 +29,94 @@ public abstract class Data<T> extends Command {
 	public final void writeTo(OutputSink sink) {
 		checkNull(sink);
 		
-		byte[] content = readAsBytes();
-		byte[] length;
-		if (content.length < 76) {
-			length = toLittleEndian(from(content.length), 1);
-		} else if (content.length > 75 && content.length < 256) {
-			length = toLittleEndian(from(content.length), 1);
-			
-			byte[] opCode = toLittleEndian(from(76), 1);					
-			sink.write(opCode);
-		} else if (content.length > 255 && content.length <= 520) {
-			length = toLittleEndian(from(content.length), 2);
-			
-			byte[] opCode = toLittleEndian(from(77), 1);
-			sink.write(opCode);					
+		byte[] content = view();
+		int length = content.length;
+		if (length < 76) {
+			sink.write((byte)length);
+		} else if (length < 256) {
+			// OP_PUSHDATA1 followed by a 1 byte length ...
+			sink.write((byte)76);
+			sink.write((byte)length);
+		} else if (length <= 520) {
+			// OP_PUSHDATA2 followed by a 2 byte little endian length ...
+			sink.write((byte)77);
+			sink.write((byte)length);
+			sink.write((byte)(length >>> 8));
 		} else {
 			throw new IllegalArgumentException("Data is too long.");
 		}
 		
-		sink.write(length);
 		sink.write(content);
 	}
 	
+	public final int serializedSize() {
+		int length = length();
+		
+		// Length prefixes as written by writeTo above ...
+		if (length < 76) {
+			return 1 + length;
+		}
+		
+		return (length < 256 ? 2 : 3) + length;
+	}
+	
 	public final boolean equals(Object another) {
 		if (another instanceof Data) {
 			Data<?> other = (Data<?>)another;
-			return Arrays.equals(this.readAsBytes(), other.readAsBytes());
+			return Arrays.equals(this.view(), other.view());
 		}
 		
 		return false;
 	}
 	
+	public final int hashCode() {
+		return Arrays.hashCode(view());
+	}
+	
+	public final int length() {
+		return view().length;
+	}
+	
+	public final byte byteAt(int index) {
+		return view()[index];
+	}
+	
+	// Orders by the content bytes taken as unsigned, shorter content first when it
+	// is a prefix of the other ...
+	public final int compareContent(Data<?> other) {
+		checkNull(other);
+		
+		return Arrays.compareUnsigned(view(), other.view());
+	}
+	
+	public final void updateDigest(MessageDigest digest) {
+		checkNull(digest);
+		
+		digest.update(view());
+	}
+	
+	// Writes just the content, without the push prefix of writeTo ...
+	public final void writeContentTo(OutputSink sink) {
+		checkNull(sink);
+		
+		sink.write(view());
+	}
+	
+	public final void copyTo(byte[] bytes, int offset) {
+		checkNull(bytes);
+		
+		byte[] view = view();
+		System.arraycopy(view, 0, bytes, offset, view.length);
+	}
+	
+	public final ByteBuffer asReadOnlyBuffer() {
+		return ByteBuffer.wrap(view()).asReadOnlyBuffer();
+	}
+	
+	public final String toHex() {
+		return bytesToHex(view());
+	}
+	
 	public final boolean isExecutable() {
 		return false;
 	}
@@ -60,13 +125,29 @@ public abstract class Data<T> extends Command {
 		return safeCopy();
 	}
 	
+	// Copy of the content as bytes, for callers that need an array of their own ...
 	public final byte[] readAsBytes() {
-		T content = read();
-		return asBytes(content);
+		return view().clone();
 	}
 	
 	public abstract Data<T> replicate();
 	
 	protected abstract byte[] asBytes(T content);
 	protected abstract T safeCopy();
+	
+	// Content as bytes that is never changed or handed out. Types whose content
+	// already is a byte array return it as is ...
+	protected byte[] contentBytes() {
+		return asBytes(content);
+	}
+	
+	private byte[] view() {
+		byte[] view = this.view;
+		if (isNull(view)) {
+			view = contentBytes();
+			this.view = view;
+		}
+		
+		return view;
+	}
 }
@@ -0,0 +1,36 @@
+package bitcoin.lang.dtype;
+
+import static bitcoin.crypto.ecc.Signature.SIGHASH_ALL;
+
+import java.math.BigInteger;
+import java.util.function.IntFunction;
+
+// Signature hash of the input being verified, worked out for the hash type that a
+// signature carries. The signature checks ask it for the hash they need, and as bytes
+// it is the hash for SIGHASH_ALL, the same as the fixed hash pushed before ...
+public final class SignatureHash extends Data<IntFunction<BigInteger>> {
+	
+	public SignatureHash(IntFunction<BigInteger> hasher) {
+		super(hasher);
+	}
+	
+	public BigInteger hashFor(int hashType) {
+		return super.content.apply(hashType);
+	}
+	
+	public final Data<IntFunction<BigInteger>> replicate() {
+		return new SignatureHash(super.content);
+	}
+	
+	public String toString() {
+		return hashFor(SIGHASH_ALL.intValue()).toString(16);
+	}
+	
+	protected IntFunction<BigInteger> safeCopy() {
+		return super.content;
+	}
+	
+	protected byte[] asBytes(IntFunction<BigInteger> data) {
+		return data.apply(SIGHASH_ALL.intValue()).toByteArray();
+	}
+}
@@ -1,17 +1,18 @@
 package bitcoin.lang.op;
 
-import static bitcoin.util.Bytes.bytesToHex;
+import static bitcoin.crypto.ecc.Signature.SIGHASH_ALL;
 import static bitcoin.util.Bytes.bytesToInt;
 
 import java.math.BigInteger;
 import java.util.Stack;
 
-import bitcoin.crypto.ecc.Secp256k1Point;
 import bitcoin.crypto.ecc.Signature;
+import bitcoin.crypto.ecc.SignatureCache;
 import bitcoin.lang.dtype.Data;
 import bitcoin.lang.dtype.HexString;
 import bitcoin.lang.dtype.IntValue;
 import bitcoin.lang.dtype.NormalString;
+import bitcoin.lang.dtype.SignatureHash;
 
 public final class OpCheckMultiSig extends OpCode {
 	public static final OpCheckMultiSig INSTANCE = new OpCheckMultiSig();
@@ -35,13 +36,9 @@ public final class OpCheckMultiSig extends OpCode {
 			return false;
 		}
 		
-		Secp256k1Point[] pubKeys = new Secp256k1Point[n];
+		String[] pubKeys = new String[n];
 		for (int i = 0; i < n; ++i) {
-			try {
-				pubKeys[i] = parsePublicKey(inputs.pop());
-			} catch(Exception e) {
-				return false;
-			}
+			pubKeys[i] = hexOf(inputs.pop());
 		}
 		
 		int m = parseNumber(inputs.pop());
@@ -49,13 +46,9 @@ public final class OpCheckMultiSig extends OpCode {
 			return false;
 		}
 		
-		Signature[] signatures = new Signature[m];
+		String[] ders = new String[m];
 		for (int i = 0; i < m; ++i) {
-			try {
-				signatures[i] = parseSignature(inputs.pop());
-			} catch(Exception e) {
-				return false;
-			}
+			ders[i] = hexOf(inputs.pop());
 		}
 		
 		if (inputs.size() < 2) {
@@ -64,15 +57,18 @@ public final class OpCheckMultiSig extends OpCode {
 		
 		inputs.pop(); // This is to handle the off-by-one error ...
 		
-		BigInteger z;
-		try {
-			z = parseZ(inputs.pop());
-		} catch(Exception e) {
-			return false;
-		}	
+		Data<?> zData = inputs.pop();
 		
+		// Every signature carries its own hash type, so the hash is worked out for each ...
 		for (int i = 0; i < m; ++i) {
-			if (!pubKeys[i].verifySignature(z, signatures[i])) {
+			BigInteger z;
+			try {
+				z = parseZ(zData, ders[i]);
+			} catch(Exception e) {
+				return false;
+			}
+			
+			if (!SignatureCache.INSTANCE.verify(z, pubKeys[i], ders[i])) {
 				inputs.push(NormalString.FAILURE);
 				return false;
 			}
@@ -95,33 +91,26 @@ public final class OpCheckMultiSig extends OpCode {
 		return bytesToInt(data.readAsBytes());
 	}
 	
-	private Secp256k1Point parsePublicKey(Data<?> data) {
+	private String hexOf(Data<?> data) {
 		if (data instanceof HexString) {
 			HexString hex = (HexString)data;
-			return Secp256k1Point.fromSEC(hex.read());
+			return hex.read();
 		}
 		
-		String hex = bytesToHex(data.readAsBytes());
-		return Secp256k1Point.fromSEC(hex);
+		return data.toHex();
 	}
 	
-	private Signature parseSignature(Data<?> data) {
-		if (data instanceof HexString) {
-			HexString hex = (HexString)data;
-			return Signature.fromDER(hex.read());
+	private BigInteger parseZ(Data<?> data, String der) {
+		if (data instanceof SignatureHash) {
+			int hashType = Signature.hashTypeOf(der);
+			return ((SignatureHash)data).hashFor(hashType < 0 ? SIGHASH_ALL.intValue() : hashType);
 		}
 		
-		String hex = bytesToHex(data.readAsBytes());
-		return Signature.fromDER(hex);
-	}
-	
-	private BigInteger parseZ(Data<?> data) {
 		if (data instanceof HexString) {
 			HexString hex = (HexString)data;
 			return new BigInteger(hex.read(), 16);
 		}
 		
-		String hex = bytesToHex(data.readAsBytes());
-		return new BigInteger(hex, 16);
+		return new BigInteger(data.toHex(), 16);
 	}
 }
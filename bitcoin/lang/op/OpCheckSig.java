@@ -1,16 +1,17 @@
 package bitcoin.lang.op;
 
-import static bitcoin.util.Bytes.bytesToHex;
+import static bitcoin.crypto.ecc.Signature.SIGHASH_ALL;
 
 import java.math.BigInteger;
 import java.util.Stack;
 
-import bitcoin.crypto.ecc.Secp256k1Point;
 import bitcoin.crypto.ecc.Signature;
+import bitcoin.crypto.ecc.SignatureCache;
 import bitcoin.lang.dtype.Data;
 import bitcoin.lang.dtype.HexString;
 import bitcoin.lang.dtype.IntValue;
 import bitcoin.lang.dtype.NormalString;
+import bitcoin.lang.dtype.SignatureHash;
 
 public final class OpCheckSig extends OpCode {
 	public static final OpCheckSig INSTANCE = new OpCheckSig();
@@ -29,28 +30,18 @@ public final class OpCheckSig extends OpCode {
 			return false;
 		}
 		
-		Secp256k1Point pubKey;
-		try {
-			pubKey = parsePublicKey(inputs.pop());
-		} catch(Exception e) {
-			return false;
-		}
-		
-		Signature signature;
-		try {
-			signature = parseSignature(inputs.pop());
-		} catch(Exception e) {
-			return false;
-		}
+		String sec = hexOf(inputs.pop());
+		String der = hexOf(inputs.pop());
 		
 		BigInteger z;
 		try {
-			z = parseZ(inputs.pop());
+			z = parseZ(inputs.pop(), der);
 		} catch(Exception e) {
 			return false;
 		}	
 		
-		boolean verified = pubKey.verifySignature(z, signature);
+		// The key and the signature are parsed only when the cache has not seen them ...
+		boolean verified = SignatureCache.INSTANCE.verify(z, sec, der);
 		inputs.push(verified ? IntValue.SUCCESS : NormalString.FAILURE);
 		
 		return verified;
@@ -60,34 +51,29 @@ public final class OpCheckSig extends OpCode {
 		return (byte)172; 
 	}
 	
-	private Secp256k1Point parsePublicKey(Data<?> data) {
+	private String hexOf(Data<?> data) {
 		if (data instanceof HexString) {
 			HexString hex = (HexString)data;
-			return Secp256k1Point.fromSEC(hex.read());
+			return hex.read();
 		}
 		
-		String hex = bytesToHex(data.readAsBytes());
-		return Secp256k1Point.fromSEC(hex);
+		return data.toHex();
 	}
 	
-	private Signature parseSignature(Data<?> data) {
-		if (data instanceof HexString) {
-			HexString hex = (HexString)data;
-			return Signature.fromDER(hex.read());
+	// The hash is worked out for the hash type following the signature, all when
+	// there is none ...
+	private BigInteger parseZ(Data<?> data, String der) {
+		if (data instanceof SignatureHash) {
+			int hashType = Signature.hashTypeOf(der);
+			return ((SignatureHash)data).hashFor(hashType < 0 ? SIGHASH_ALL.intValue() : hashType);
 		}
 		
-		String hex = bytesToHex(data.readAsBytes());
-		return Signature.fromDER(hex);
-	}
-	
-	private BigInteger parseZ(Data<?> data) {
 		if (data instanceof HexString) {
 			HexString hex = (HexString)data;
 			//return new BigInteger(hex.consume(), 16);
 			return new BigInteger(1, hex.readAsBytes());
 		}
 		
-		String hex = bytesToHex(data.readAsBytes());
-		return new BigInteger(hex, 16);
+		return new BigInteger(data.toHex(), 16);
 	}
 }
@@ -3,14 +3,16 @@ package bitcoin.lang.op;
 import static bitcoin.util.Functions.areEqual;
 import static bitcoin.util.Functions.checkNull;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import bitcoin.lang.Executable;
 import bitcoin.util.OutputSink;
 
 public abstract class OpCode extends Executable {		
-	private static final Map<Integer, OpCode> REGISTRY = new HashMap<Integer, OpCode>();
+	// Scripts are decoded and run from many threads at once, such as when the inputs
+	// of a transaction are verified in parallel ...
+	private static final Map<Integer, OpCode> REGISTRY = new ConcurrentHashMap<Integer, OpCode>();
 	
 	public abstract String getName();
 	
@@ -26,6 +28,10 @@ public abstract class OpCode extends Executable {
 		sink.write(toByte());
 	}
 	
+	public final int serializedSize() {
+		return 1;
+	}
+	
 	public final boolean equals(Object other) {
 		if (other instanceof OpCode) {
 			if (areEqual(this.getClass(), other.getClass())) {
@@ -2,7 +2,6 @@ package bitcoin.lang.op;
 
 import static bitcoin.util.Functions.areEqual;
 
-import java.util.Arrays;
 import java.util.Stack;
 
 import bitcoin.lang.dtype.Data;
@@ -26,19 +25,11 @@ public final class OpEqual extends OpCode {
 			return false;
 		}
 		
-		boolean eq;
-		
 		Data<?> a = inputs.pop();
 		Data<?> b = inputs.pop();
 		
-		if (a.getClass() == b.getClass()) {
-			eq = areEqual(a, b);
-		} else {
-			byte[] one = a.readAsBytes();
-			byte[] two = b.readAsBytes();
-			
-			eq = Arrays.equals(one, two);
-		}
+		// Data of any type compares by its bytes, without copying them ...
+		boolean eq = areEqual(a, b);
 		
 		inputs.push(eq ? IntValue.SUCCESS : NormalString.FAILURE);
 		
@@ -28,8 +28,7 @@ public final class OpHash256 extends OpCode {
 		Data<?> top = inputs.pop();	
 		
 		try {
-			byte[] content = top.readAsBytes();
-			inputs.push(new ByteArray(hash256(content)));
+			inputs.push(new ByteArray(hash256(top.asReadOnlyBuffer())));
 		} catch(Exception e) {
 			return false;
 		}
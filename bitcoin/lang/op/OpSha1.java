@@ -28,8 +28,7 @@ public final class OpSha1 extends OpCode {
 		Data<?> top = inputs.pop();	
 		
 		try {
-			byte[] content = top.readAsBytes();
-			inputs.push(new ByteArray(sha1(content)));
+			inputs.push(new ByteArray(sha1(top.asReadOnlyBuffer())));
 		} catch(Exception e) {
 			return false;
 		}
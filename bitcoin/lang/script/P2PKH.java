@@ -38,10 +38,22 @@ public final class P2PKH {
 	public static Script fromAddress(String b58) {
 		checkNull(b58);
 		
+		return fromKeyHash(decodeFromBase58(b58));
+	}
+	
+	// Script paying to the 20 byte hash of a public key, also the script code that
+	// BIP143 signs for p2wpkh ...
+	public static Script fromKeyHash(byte[] h160) {
+		checkNull(h160);
+		
+		if (h160.length != 20) {
+			throw new IllegalArgumentException("Key hash not valid.");
+		}
+		
 		List<Command> commands = new ArrayList<Command>(5);
 		commands.add(OpDup.INSTANCE);
 		commands.add(OpHash160.INSTANCE);
-		commands.add(new ByteArray(decodeFromBase58(b58)));
+		commands.add(new ByteArray(h160));
 		commands.add(OpEqualVerify.INSTANCE);
 		commands.add(OpCheckSig.INSTANCE);
 		
@@ -0,0 +1,143 @@
+package misc;
+
+import static bitcoin.util.Bytes.bytesToHex;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import bitcoin.crypto.ecc.Secret;
+import bitcoin.crypto.ecc.SignatureCache;
+import bitcoin.util.Hash256;
+import bitcoin.util.SaltedHashSet;
+
+// Fills a verification cache set far past its capacity in rounds, and checks after
+// every round that the newest entries and the ones looked up all along are still
+// there, that the size stays bounded and that adds cost about the same once full as
+// while filling. The same is then checked on SignatureCache. Run with an optional
+// capacity and number of rounds ...
+public final class SaltedHashSetCheck {
+	private static final int NEWEST = 10000;
+	private static final int HOT = 1000;
+	
+	private static final int SIGNATURES = 400;
+	private static final int NEWEST_SIGNATURES = 40;
+	
+	private SaltedHashSetCheck() {}
+	
+	public static void main(String[] args) throws InterruptedException {
+		int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+		int roundSize = capacity / 4;
+		
+		Random random = new Random(11);
+		SaltedHashSet set = new SaltedHashSet(capacity);
+		
+		// Entries a node keeps checking again, such as mempool transactions ...
+		Hash256[] hot = keys(random, HOT);
+		for (Hash256 key: hot) {
+			set.add(key);
+		}
+		
+		double filling = 0;
+		double worst = 0;
+		boolean kept = true;
+		boolean bounded = true;
+		
+		System.out.println("***** Capacity " + capacity + " *****");
+		for (int round = 0; round < rounds; ++round) {
+			Hash256[] keys = keys(random, roundSize);
+			
+			long start = System.nanoTime();
+			for (Hash256 key: keys) {
+				set.add(key);
+			}
+			double perAdd = (System.nanoTime() - start) / 1000.0 / roundSize;
+			
+			// The first round also warms up the JIT, so the second is the one to compare with.
+			// After four rounds the set has been full at least once ...
+			if (round == 1) {
+				filling = perAdd;
+			} else if (round >= 4) {
+				worst = Math.max(worst, perAdd);
+			}
+			
+			int newest = 0;
+			for (int i = Math.max(0, keys.length - NEWEST); i < keys.length; ++i) {
+				newest += set.contains(keys[i]) ? 1 : 0;
+			}
+			
+			int found = 0;
+			for (Hash256 key: hot) {
+				found += set.contains(key) ? 1 : 0;
+			}
+			
+			kept &= newest == Math.min(NEWEST, keys.length) && found == HOT;
+			bounded &= set.size() <= capacity;
+			
+			System.out.printf("round %d: %.2fus per add, newest %d, hot %d/%d, size %d%n",
+					round, perAdd, newest, found, HOT, set.size());
+		}
+		
+		System.out.println("recent kept " + kept);
+		System.out.println("bounded " + bounded);
+		System.out.printf("flat %b, %.2fus filling, %.2fus at worst once full%n",
+				worst <= 4 * filling, filling, worst);
+		
+		checkSignatureCache(random);
+	}
+	
+	// The same through SignatureCache, as OP_CHECKSIG uses it. Signatures verified
+	// again from several threads at once are kept just once ...
+	private static void checkSignatureCache(Random random) throws InterruptedException {
+		SignatureCache cache = new SignatureCache(SIGNATURES / 4);
+		Secret key = new Secret(new BigInteger(200, random));
+		String sec = bytesToHex(key.pubKey().toSecBytes(true));
+		
+		BigInteger[] hashes = new BigInteger[SIGNATURES];
+		String[] ders = new String[SIGNATURES];
+		boolean verified = true;
+		for (int i = 0; i < SIGNATURES; ++i) {
+			hashes[i] = new BigInteger(256, random);
+			ders[i] = key.sign(hashes[i]).toDER();
+			verified &= cache.verify(hashes[i], sec, ders[i]);
+		}
+		
+		SaltedHashSet entries = cache.getEntries();
+		long hits = entries.getHits();
+		for (int i = SIGNATURES - NEWEST_SIGNATURES; i < SIGNATURES; ++i) {
+			verified &= cache.verify(hashes[i], sec, ders[i]);
+		}
+		long newest = entries.getHits() - hits;
+		
+		int size = entries.size();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread(() -> {
+				for (int i = SIGNATURES - NEWEST_SIGNATURES; i < SIGNATURES; ++i) {
+					cache.verify(hashes[i], sec, ders[i]);
+				}
+			});
+			threads[t].start();
+		}
+		
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		
+		System.out.println("***** Signature cache of " + cache.getEntries().getCapacity() + " *****");
+		System.out.println("verified " + verified);
+		System.out.println("newest " + newest + "/" + NEWEST_SIGNATURES + " " + (newest == NEWEST_SIGNATURES));
+		System.out.println("size " + entries.size() + " " + (entries.size() == size && size <= entries.getCapacity()));
+	}
+	
+	private static Hash256[] keys(Random random, int count) {
+		Hash256[] keys = new Hash256[count];
+		for (int i = 0; i < count; ++i) {
+			byte[] bytes = new byte[32];
+			random.nextBytes(bytes);
+			keys[i] = Hash256.fromInternal(bytes);
+		}
+		
+		return keys;
+	}
+}
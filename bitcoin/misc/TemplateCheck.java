@@ -0,0 +1,275 @@
+package misc;
+
+import static bitcoin.util.Bytes.hexToBytes;
+import static bitcoin.util.Crypto.hash160;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import bitcoin.core.Transaction;
+import bitcoin.core.UtxoView;
+import bitcoin.crypto.ecc.Secret;
+import bitcoin.crypto.ecc.Signature;
+import bitcoin.lang.Command;
+import bitcoin.lang.Script;
+import bitcoin.lang.dtype.ByteArray;
+import bitcoin.lang.op.Op0;
+import bitcoin.util.Hash256;
+import bitcoin.util.InputSource;
+import bitcoin.util.OutputSink;
+
+// Compares the template checks of Transaction against the interpreter. Transactions
+// spending p2pkh, p2wpkh and p2sh wrapped p2wpkh outputs are signed for every hash
+// type, then bits are flipped at random all over them. Every copy is verified once as
+// is and once with the template checks off, and both must come to the same outcome.
+// Run with an optional seed and number of flipped copies per hash type ...
+public final class TemplateCheck {
+	private static final int KEYS = 12;
+	
+	private static final int[] HASH_TYPES = new int[] {
+		Signature.SIGHASH_ALL.intValue(), Signature.SIGHASH_NONE, Signature.SIGHASH_SINGLE,
+		Signature.SIGHASH_ALL.intValue() | Signature.SIGHASH_ANYONECANPAY,
+		Signature.SIGHASH_NONE | Signature.SIGHASH_ANYONECANPAY,
+		Signature.SIGHASH_SINGLE | Signature.SIGHASH_ANYONECANPAY
+	};
+	
+	private final List<Secret> keys = new ArrayList<Secret>(KEYS);
+	private final UtxoView view = new UtxoView();
+	private Transaction funding;
+	
+	private int agreed, differed, unreadable;
+	
+	private TemplateCheck(Random random) {
+		List<Transaction.Output> outputs = new ArrayList<Transaction.Output>(KEYS);
+		for (int i = 0; i < KEYS; ++i) {
+			Secret key = new Secret(new BigInteger(200, random));
+			keys.add(key);
+			outputs.add(new Transaction.Output(10000 + i, scriptPubKey(i)));
+		}
+		
+		funding = new Transaction(1, List.of(new Transaction.Input(Hash256.ZERO, 0, null, -1)),
+				outputs, 0, false, false);
+		view.addOutputs(funding);
+	}
+	
+	public static void main(String[] args) {
+		ExercisesUtil.loadOpCodes();
+		Op0.INSTANCE.toByte();
+		
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 5;
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		
+		Random random = new Random(seed);
+		TemplateCheck check = new TemplateCheck(random);
+		for (int hashType: HASH_TYPES) {
+			byte[] raw = check.sign(hashType);
+			System.out.println("***** Hash type " + hashType + " *****");
+			System.out.println("signed inputs verified: " + check.verifiedInputs(raw) + "/" + KEYS);
+			
+			for (int i = 0; i < copies; ++i) {
+				byte[] flipped = raw.clone();
+				int flips = 1 + random.nextInt(2);
+				for (int k = 0; k < flips; ++k) {
+					// Version, marker and flag in front and the lock time at the end are left alone ...
+					flipped[6 + random.nextInt(flipped.length - 10)] ^= (byte)(1 << random.nextInt(8));
+				}
+				
+				check.compare(flipped);
+			}
+		}
+		
+		System.out.println();
+		System.out.println("agreed " + check.agreed + ", differed " + check.differed +
+				", unreadable " + check.unreadable);
+		
+		if (check.differed > 0) {
+			System.exit(1);
+		}
+	}
+	
+	// Input i spends p2pkh, p2wpkh and p2sh wrapped p2wpkh in turn ...
+	private Script scriptPubKey(int i) {
+		byte[] h160 = hash160(keys.get(i).pubKey().toSecBytes(true));
+		if (i % 3 == 0) {
+			byte[] script = new byte[25];
+			script[0] = (byte)0x76;
+			script[1] = (byte)0xa9;
+			script[2] = 20;
+			System.arraycopy(h160, 0, script, 3, 20);
+			script[23] = (byte)0x88;
+			script[24] = (byte)0xac;
+			
+			return Script.parse(script, 0, script.length);
+		}
+		
+		byte[] program = program(h160);
+		if (i % 3 == 1) {
+			return Script.parse(program, 0, program.length);
+		}
+		
+		byte[] script = new byte[23];
+		script[0] = (byte)0xa9;
+		script[1] = 20;
+		System.arraycopy(hash160(program), 0, script, 2, 20);
+		script[22] = (byte)0x87;
+		
+		return Script.parse(script, 0, script.length);
+	}
+	
+	// OP_0 <20 byte key hash> ...
+	private static byte[] program(byte[] h160) {
+		byte[] program = new byte[22];
+		program[1] = 20;
+		System.arraycopy(h160, 0, program, 2, 20);
+		
+		return program;
+	}
+	
+	// Signs every input for the hash type and returns the serialized transaction ...
+	private byte[] sign(int hashType) {
+		List<Transaction.Input> unsignedInputs = new ArrayList<Transaction.Input>(KEYS);
+		List<Transaction.Output> outputs = new ArrayList<Transaction.Output>(KEYS);
+		for (int i = 0; i < KEYS; ++i) {
+			unsignedInputs.add(new Transaction.Input(funding.getTxId(), i, redeemPush(i), -1));
+			outputs.add(new Transaction.Output(500 + i, funding.getOutputs().get(i).getScriptPubKey()));
+		}
+		
+		Transaction unsigned = new Transaction(2, unsignedInputs, outputs, 0, false, false);
+		unsigned.getFee(view);
+		
+		List<Transaction.Input> inputs = new ArrayList<Transaction.Input>(KEYS);
+		List<byte[][]> witnesses = new ArrayList<byte[][]>(KEYS);
+		for (int i = 0; i < KEYS; ++i) {
+			Secret key = keys.get(i);
+			byte[] pubKey = key.pubKey().toSecBytes(true);
+			
+			if (i % 3 == 0) {
+				BigInteger z = unsigned.getInputHash(i, null, hashType);
+				List<Command> pushes = List.of(new ByteArray(signature(key, z, hashType)), new ByteArray(pubKey));
+				inputs.add(new Transaction.Input(funding.getTxId(), i, new Script(pushes), -1));
+				witnesses.add(new byte[0][]);
+				continue;
+			}
+			
+			Script redeemScript = i % 3 == 1 ? null : Script.fromData(new ByteArray(program(hash160(pubKey))));
+			BigInteger z = unsigned.getSegwitInputHash(i, redeemScript, null, hashType);
+			inputs.add(unsignedInputs.get(i));
+			witnesses.add(new byte[][] {signature(key, z, hashType), pubKey});
+		}
+		
+		OutputSink sink = new OutputSink();
+		sink.writeIntLE(2);
+		sink.write((byte)0);
+		sink.write((byte)1);
+		sink.writeVarInt(KEYS);
+		for (Transaction.Input input: inputs) {
+			input.writeTo(sink);
+		}
+		
+		sink.writeVarInt(KEYS);
+		for (Transaction.Output output: outputs) {
+			output.writeTo(sink);
+		}
+		
+		for (byte[][] items: witnesses) {
+			sink.writeVarInt(items.length);
+			for (byte[] item: items) {
+				sink.writeVarInt(item.length);
+				sink.write(item);
+			}
+		}
+		
+		sink.writeIntLE(0);
+		return sink.toByteArray();
+	}
+	
+	// The scriptsig of a p2sh wrapped p2wpkh input pushes the witness program ...
+	private Script redeemPush(int i) {
+		if (i % 3 != 2) {
+			return null;
+		}
+		
+		byte[] h160 = hash160(keys.get(i).pubKey().toSecBytes(true));
+		return new Script(List.of(new ByteArray(program(h160))));
+	}
+	
+	private static byte[] signature(Secret key, BigInteger z, int hashType) {
+		byte[] der = hexToBytes(key.sign(z).toDER());
+		byte[] signature = Arrays.copyOf(der, der.length + 1);
+		signature[der.length] = (byte)hashType;
+		
+		return signature;
+	}
+	
+	// Counts the inputs both ways find valid ...
+	private int verifiedInputs(byte[] raw) {
+		Transaction templated = parse(raw, true);
+		Transaction interpreted = parse(raw, false);
+		
+		int verified = 0;
+		for (int i = 0; i < KEYS; ++i) {
+			if (compare(templated, interpreted, i) && templated.verifyInput(i, view)) {
+				++verified;
+			}
+		}
+		
+		return verified;
+	}
+	
+	private void compare(byte[] raw) {
+		Transaction templated, interpreted;
+		try {
+			templated = parse(raw, true);
+			interpreted = parse(raw, false);
+		} catch(RuntimeException e) {
+			++unreadable;
+			return;
+		}
+		
+		for (int i = 0; i < templated.getInputs().size(); ++i) {
+			compare(templated, interpreted, i);
+		}
+		
+		String parallel = outcome(() -> templated.verifyInParallel(view));
+		if (!parallel.equals(outcome(() -> interpreted.verifyInParallel(view)))) {
+			++differed;
+			System.out.println(templated.getId() + " differs when verified in parallel");
+		}
+	}
+	
+	// Whether both ways decide the input alike, counting the outcome ...
+	private boolean compare(Transaction templated, Transaction interpreted, int index) {
+		String template = outcome(() -> templated.verifyInput(index, view));
+		String interpreter = outcome(() -> interpreted.verifyInput(index, view));
+		
+		if (!template.equals(interpreter)) {
+			++differed;
+			System.out.println("Input " + index + " of " + templated.getId() + ": template " + template +
+					", interpreter " + interpreter);
+			return false;
+		}
+		
+		++agreed;
+		return true;
+	}
+	
+	private Transaction parse(byte[] raw, boolean templateChecks) {
+		Transaction tx = Transaction.parse(InputSource.wrap(raw));
+		tx.setTemplateChecks(templateChecks);
+		tx.getFee(view);
+		
+		return tx;
+	}
+	
+	private static String outcome(BooleanSupplier verification) {
+		try {
+			return Boolean.toString(verification.getAsBoolean());
+		} catch(RuntimeException e) {
+			return "error";
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package misc;
+
+import static bitcoin.crypto.ecc.Signature.SIGHASH_ALL;
+import static bitcoin.util.Bytes.hexToBytes;
+import static bitcoin.util.Crypto.hash256;
+import static bitcoin.util.Crypto.sha256;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import bitcoin.core.Transaction;
+import bitcoin.core.TransactionView;
+import bitcoin.core.UtxoView;
+import bitcoin.crypto.ecc.Secret;
+import bitcoin.lang.Script;
+import bitcoin.lang.op.Op0;
+import bitcoin.lang.op.OpCheckMultiSig;
+import bitcoin.util.Hash256;
+import bitcoin.util.InputSource;
+import bitcoin.util.OutputSink;
+
+// Spends a 2 of 2 p2wsh multisig, whose witness starts with the empty dummy item, and
+// checks the sizes and ids worked out from the parsed transaction against its raw bytes ...
+public final class WitnessSizeCheck {
+	private WitnessSizeCheck() {}
+	
+	public static void main(String[] args) {
+		ExercisesUtil.loadOpCodes();
+		Op0.INSTANCE.toByte();
+		OpCheckMultiSig.INSTANCE.toByte();
+		
+		Secret first = new Secret(BigInteger.valueOf(8675309));
+		Secret second = new Secret(BigInteger.valueOf(2718281));
+		byte[] firstKey = first.pubKey().toSecBytes(true);
+		byte[] secondKey = second.pubKey().toSecBytes(true);
+		
+		// OP_2 <key> <key> OP_2 OP_CHECKMULTISIG ...
+		OutputSink ws = new OutputSink();
+		ws.write((byte)0x52);
+		ws.write((byte)firstKey.length);
+		ws.write(firstKey);
+		ws.write((byte)secondKey.length);
+		ws.write(secondKey);
+		ws.write((byte)0x52);
+		ws.write((byte)0xae);
+		byte[] witnessScript = ws.toByteArray();
+		
+		// OP_0 <sha256 of the witness script> ...
+		byte[] program = new byte[34];
+		program[1] = 32;
+		System.arraycopy(sha256(witnessScript), 0, program, 2, 32);
+		
+		Transaction.Output spent = new Transaction.Output(50000, Script.parse(program, 0, program.length));
+		Transaction funding = new Transaction(1, List.of(new Transaction.Input(Hash256.ZERO, 0, null, -1)),
+				List.of(spent), 0, false, false);
+		UtxoView view = new UtxoView();
+		view.addOutputs(funding);
+		
+		Transaction.Input input = new Transaction.Input(funding.getTxId(), 0, null, -1);
+		Transaction.Output output = new Transaction.Output(40000, spent.getScriptPubKey());
+		Transaction unsigned = new Transaction(1, List.of(input), List.of(output), 0, false, false);
+		unsigned.getFee(view);
+		
+		Script code = Script.parse(witnessScript, 0, witnessScript.length);
+		BigInteger z = unsigned.getSegwitInputHash(0, null, code, SIGHASH_ALL.intValue());
+		byte[][] witnesses = new byte[][] {
+			new byte[0], signature(first, z), signature(second, z), witnessScript
+		};
+		
+		OutputSink sink = new OutputSink();
+		sink.writeIntLE(1);
+		sink.write((byte)0);
+		sink.write((byte)1);
+		sink.writeVarInt(1);
+		input.writeTo(sink);
+		sink.writeVarInt(1);
+		output.writeTo(sink);
+		
+		int witnessStart = sink.toByteArray().length;
+		sink.writeVarInt(witnesses.length);
+		for (byte[] witness: witnesses) {
+			sink.writeVarInt(witness.length);
+			sink.write(witness);
+		}
+		int witnessSize = sink.toByteArray().length - witnessStart;
+		
+		sink.writeIntLE(0);
+		byte[] raw = sink.toByteArray();
+		
+		Transaction tx = Transaction.parse(InputSource.wrap(raw));
+		TransactionView txView = TransactionView.of(raw);
+		
+		// The marker and flag are not part of the base size either ...
+		int baseSize = raw.length - witnessSize - 2;
+		int weight = 3 * baseSize + raw.length;
+		
+		System.out.println("***** p2wsh multisig sizes *****");
+		System.out.println("total " + tx.getTotalSize() + " raw " + raw.length + " view " + txView.getLength() +
+				" " + (tx.getTotalSize() == raw.length && txView.getLength() == raw.length));
+		System.out.println("base " + tx.getBaseSize() + " " + (tx.getBaseSize() == baseSize));
+		System.out.println("weight " + tx.getWeight() + " " + (tx.getWeight() == weight));
+		System.out.println("vsize " + tx.getVSize() + " " + (tx.getVSize() == (weight + 3) / 4));
+		System.out.println("written back " + Arrays.equals(tx.toBytes(), raw));
+		
+		Hash256 wtxId = Hash256.fromInternal(hash256(raw));
+		System.out.println("wtxid " + (tx.getWitnessTxId().equals(wtxId) && txView.getWitnessTxId().equals(wtxId)));
+		System.out.println("txid " + tx.getTxId().equals(txView.getTxId()));
+		System.out.println("verify " + tx.verify(view));
+	}
+	
+	private static byte[] signature(Secret secret, BigInteger z) {
+		byte[] der = hexToBytes(secret.sign(z).toDER());
+		byte[] signature = Arrays.copyOf(der, der.length + 1);
+		signature[der.length] = SIGHASH_ALL.byteValue();
+		
+		return signature;
+	}
+}
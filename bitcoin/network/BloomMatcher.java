@@ -0,0 +1,338 @@
+package bitcoin.network;
+
+import static bitcoin.util.BigInt.writeIntLE;
+import static bitcoin.util.Crypto.HASH_LENGTH;
+import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import bitcoin.core.Transaction;
+import bitcoin.lang.Command;
+import bitcoin.lang.Script;
+import bitcoin.lang.dtype.Data;
+import bitcoin.lang.op.OpCheckMultiSig;
+import bitcoin.lang.op.OpCheckSig;
+import bitcoin.network.message.FilterLoad;
+import bitcoin.util.BloomFilter;
+
+// Matches transactions against a BIP37 bloom filter the way a full node does for a
+// peer that sent a "filterload", including the filter updates on matched outputs.
+// A matcher with an update flag depends on the order of the transactions, so it must
+// not be shared between threads while matching ...
+public final class BloomMatcher {
+	// Blocks with at least these many transactions are scanned on the fork-join pool ...
+	private static final int PARALLEL_THRESHOLD = 256;
+	
+	// Number of transactions scanned by a single fork-join task ...
+	private static final int PARALLEL_GRAIN = 64;
+	
+	private static final byte[][] NO_ELEMENTS = new byte[0][];
+	
+	// Everything of a transaction that BIP37 tests against a filter, extracted once
+	// so that a block can be scanned against any number of filters ...
+	private static final class Elements {
+		private final byte[] txId;
+		private final byte[][][] outputData;
+		private final boolean[] outputsPayToPubKey;
+		private final byte[][] outPoints;
+		private final byte[][][] inputData;
+		
+		Elements(Transaction tx) {
+			// BIP37 matches transaction ids in their internal byte order ...
+			txId = tx.getTxId().toInternalBytes();
+			
+			List<Transaction.Output> outputs = tx.getOutputs();
+			outputData = new byte[outputs.size()][][];
+			outputsPayToPubKey = new boolean[outputs.size()];
+			for (int i = 0; i < outputs.size(); ++i) {
+				Script scriptPubKey = outputs.get(i).getScriptPubKey();
+				outputData[i] = dataOf(scriptPubKey);
+				outputsPayToPubKey[i] = isPayToPubKey(scriptPubKey);
+			}
+			
+			List<Transaction.Input> inputs = tx.getInputs();
+			outPoints = new byte[inputs.size()][];
+			inputData = new byte[inputs.size()][][];
+			for (int i = 0; i < inputs.size(); ++i) {
+				Transaction.Input input = inputs.get(i);
+				outPoints[i] = outPoint(input.getPrevTxnId().toInternalBytes(), input.getPrevTxnIndexAsInt());
+				inputData[i] = dataOf(input.getScriptSig());
+			}
+		}
+	}
+	
+	private static final class ExtractTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final List<Transaction> txs;
+		private final Elements[] elements;
+		private final int from;
+		private final int to;
+		
+		ExtractTask(List<Transaction> txs, Elements[] elements, int from, int to) {
+			this.txs = txs;
+			this.elements = elements;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (to - from <= PARALLEL_GRAIN) {
+				for (int i = from; i < to; ++i) {
+					elements[i] = new Elements(txs.get(i));
+				}
+				
+				return;
+			}
+			
+			int middle = (from + to) >>> 1;
+			invokeAll(new ExtractTask(txs, elements, from, middle),
+						new ExtractTask(txs, elements, middle, to));
+		}
+	}
+	
+	private static final class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final BloomMatcher matcher;
+		private final Elements[] elements;
+		private final BitSet[] matches;
+		private final int from;
+		private final int to;
+		
+		ScanTask(BloomMatcher matcher, Elements[] elements, BitSet[] matches, int from, int to) {
+			this.matcher = matcher;
+			this.elements = elements;
+			this.matches = matches;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (to - from <= PARALLEL_GRAIN) {
+				// Each task fills its own set, as a BitSet cannot be shared for writing ...
+				BitSet set = new BitSet();
+				for (int i = from; i < to; ++i) {
+					if (matcher.matches(elements[i])) {
+						set.set(i);
+					}
+				}
+				
+				matches[from / PARALLEL_GRAIN] = set;
+				return;
+			}
+			
+			// Split on grain boundaries so that every leaf owns exactly one slot ...
+			int middle = from + ((to - from) / PARALLEL_GRAIN / 2) * PARALLEL_GRAIN;
+			if (middle == from) {
+				middle += PARALLEL_GRAIN;
+			}
+			
+			invokeAll(new ScanTask(matcher, elements, matches, from, middle),
+						new ScanTask(matcher, elements, matches, middle, to));
+		}
+	}
+	
+	private BloomFilter filter;
+	private byte flag;
+	
+	public BloomMatcher(BloomFilter filter, byte flag) {
+		checkNull(filter);
+		
+		if (flag < FilterLoad.UPDATE_NONE || flag > FilterLoad.UPDATE_P2PUBKEY_ONLY) {
+			throw new IllegalArgumentException("Update flag not valid.");
+		}
+		
+		// Updates go to a private copy, the given filter stays as it is ...
+		this.filter = flag == FilterLoad.UPDATE_NONE ? filter : filter.copy();
+		this.flag = flag;
+	}
+	
+	public static BloomMatcher of(FilterLoad load) {
+		checkNull(load);
+		
+		return new BloomMatcher(load.getFilter(), load.getFlag());
+	}
+	
+	public BloomFilter getFilter() {
+		return filter;
+	}
+	
+	public byte getFlag() {
+		return flag;
+	}
+	
+	public boolean matches(Transaction tx) {
+		checkNull(tx);
+		
+		return matches(new Elements(tx));
+	}
+	
+	// Returns the positions of the matched transactions of a block ...
+	public BitSet matches(List<Transaction> txs) {
+		checkNull(txs);
+		
+		return matchAll(Collections.singletonList(this), txs).get(0);
+	}
+	
+	// Scans a block against every given matcher and returns the matched positions
+	// for each of them. The elements of every transaction are extracted just once.
+	// Matchers run in parallel to each other, and the transactions of a matcher that
+	// never updates its filter are scanned in parallel as well ...
+	public static List<BitSet> matchAll(List<BloomMatcher> matchers, List<Transaction> txs) {
+		checkNull(matchers, txs);
+		
+		Elements[] elements = new Elements[txs.size()];
+		if (elements.length < PARALLEL_THRESHOLD) {
+			for (int i = 0; i < elements.length; ++i) {
+				elements[i] = new Elements(txs.get(i));
+			}
+		} else {
+			ForkJoinPool.commonPool().invoke(new ExtractTask(txs, elements, 0, elements.length));
+		}
+		
+		BitSet[] results = new BitSet[matchers.size()];
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(matchers.size());
+		for (int i = 0; i < matchers.size(); ++i) {
+			final int index = i;
+			final BloomMatcher matcher = matchers.get(i);
+			checkNull(matcher);
+			
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				
+				protected void compute() {
+					results[index] = matcher.scan(elements);
+				}
+			});
+		}
+		
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		
+		return Arrays.asList(results);
+	}
+	
+	private BitSet scan(Elements[] elements) {
+		if (flag != FilterLoad.UPDATE_NONE || elements.length < PARALLEL_THRESHOLD) {
+			// An updating filter has to see the transactions in block order, since a
+			// spend may only match because of an output matched earlier ...
+			BitSet matches = new BitSet(elements.length);
+			for (int i = 0; i < elements.length; ++i) {
+				if (matches(elements[i])) {
+					matches.set(i);
+				}
+			}
+			
+			return matches;
+		}
+		
+		BitSet[] parts = new BitSet[(elements.length + PARALLEL_GRAIN - 1) / PARALLEL_GRAIN];
+		new ScanTask(this, elements, parts, 0, elements.length).invoke();
+		
+		BitSet matches = new BitSet(elements.length);
+		for (BitSet part : parts) {
+			matches.or(part);
+		}
+		
+		return matches;
+	}
+	
+	private boolean matches(Elements elements) {
+		boolean matched = filter.contains(elements.txId);
+		
+		// Any data pushed by an output script is a match and may add the output to
+		// the filter, so that spends of it are matched later ...
+		for (int i = 0; i < elements.outputData.length; ++i) {
+			for (byte[] data : elements.outputData[i]) {
+				if (!filter.contains(data)) {
+					continue;
+				}
+				
+				matched = true;
+				if (flag == FilterLoad.UPDATE_ALL ||
+						flag == FilterLoad.UPDATE_P2PUBKEY_ONLY && elements.outputsPayToPubKey[i]) {
+					filter.add(outPoint(elements.txId, i));
+				}
+				
+				break;
+			}
+		}
+		
+		if (matched) {
+			return true;
+		}
+		
+		for (int i = 0; i < elements.outPoints.length; ++i) {
+			if (filter.contains(elements.outPoints[i])) {
+				return true;
+			}
+			
+			for (byte[] data : elements.inputData[i]) {
+				if (filter.contains(data)) {
+					return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	private static byte[] outPoint(byte[] txId, int index) {
+		// Serialized as in a transaction input, the hash in internal byte order
+		// followed by the 4 byte little endian index ...
+		byte[] outPoint = new byte[HASH_LENGTH + 4];
+		System.arraycopy(txId, 0, outPoint, 0, HASH_LENGTH);
+		writeIntLE(index, outPoint, HASH_LENGTH);
+		
+		return outPoint;
+	}
+	
+	private static byte[][] dataOf(Script script) {
+		if (isNull(script)) {
+			return NO_ELEMENTS;
+		}
+		
+		List<byte[]> data = new ArrayList<byte[]>();
+		collectData(script, data);
+		
+		return data.toArray(NO_ELEMENTS);
+	}
+	
+	// BIP37 only tests pushes that carry data, an empty push such as OP_0 is left out ...
+	private static void collectData(Script script, List<byte[]> data) {
+		for (Command command : script.getAllCommands()) {
+			if (command instanceof Data) {
+				Data<?> pushed = (Data<?>)command;
+				if (pushed.length() > 0) {
+					data.add(pushed.readAsBytes());
+				}
+			} else if (command instanceof Script) {
+				collectData((Script)command, data);
+			}
+		}
+	}
+	
+	// Pay to public key or bare multisig, the outputs that BLOOM_UPDATE_P2PUBKEY_ONLY
+	// adds to the filter ...
+	private static boolean isPayToPubKey(Script script) {
+		List<Command> commands = script.getAllCommands();
+		if (commands.size() == 2) {
+			return commands.get(0) instanceof Data && OpCheckSig.INSTANCE.equals(commands.get(1));
+		}
+		
+		return commands.size() > 3 && OpCheckMultiSig.INSTANCE.equals(commands.get(commands.size() - 1));
+	}
+}
@@ -1,13 +1,8 @@
 package bitcoin.network;
 
-import static bitcoin.util.BigInt.from;
-import static bitcoin.util.BigInt.fromLittleEndian;
-import static bitcoin.util.BigInt.toLittleEndian;
 import static bitcoin.util.Bytes.EMPTY_BYTES;
 import static bitcoin.util.Bytes.areEqual;
 import static bitcoin.util.Bytes.bytesToHex;
-import static bitcoin.util.Bytes.hexToBytes;
-import static bitcoin.util.Bytes.newBytes;
 import static bitcoin.util.Crypto.hash256;
 import static bitcoin.util.Functions.checkNull;
 import static bitcoin.util.Functions.isNull;
@@ -48,7 +43,7 @@ public final class NetworkEnvelope extends BytesEncodeable {
 	public String getMsgType() {
 		return msgType;
 	}
-
+	
 	public byte[] getPayload() {
 		return payload;
 	}
@@ -66,7 +61,7 @@ public final class NetworkEnvelope extends BytesEncodeable {
 		
 		return rep;
 	}
-
+	
 	public void writeTo(OutputSink sink) {
 		checkNull(sink);
 		
@@ -77,12 +72,10 @@ public final class NetworkEnvelope extends BytesEncodeable {
 		sink.write(msgType.getBytes());
 		
 		// Next write the payload length as a little endian ...
-		byte[] bytes = toLittleEndian(from(payload.length), 4);
-		sink.write(bytes);
+		sink.writeIntLE(payload.length);
 		
 		// Next write the checksum bytes (first 4 bytes) ...
-		bytes = newBytes(hash256(payload), 0, 4);
-		sink.write(bytes);
+		sink.write(hash256(payload), 0, 4);
 		
 		// Finally write the payload bytes ...
 		sink.write(payload);
@@ -91,9 +84,8 @@ public final class NetworkEnvelope extends BytesEncodeable {
 	public static NetworkEnvelope parse(InputSource source) {
 		checkNull(source);
 		
-		// Read the magic bytes (4 bytes or 8 characters) first ...
-		char[] chars = source.readNextChars(8);
-		byte[] bytes = hexToBytes(chars);
+		// Read the magic bytes (4 bytes) first ...
+		byte[] bytes = source.readNextBytes(4);
 		
 		boolean testnet = Arrays.equals(bytes, TESTNET_MAGIC);
 		if (!testnet) {
@@ -104,24 +96,22 @@ public final class NetworkEnvelope extends BytesEncodeable {
 			}
 		}
 		
-		// Next read the command bytes (12 bytes or 24 characters) ... 
-		chars = source.readNextChars(24);	
-		String command = new String(hexToBytes(chars));
+		// Next read the command bytes (12 bytes) ... 
+		String command = new String(source.readNextBytes(12));
 		
-		// Next read the payload length (4 bytes or 8 characters in little-endian) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-		int payloadLength = fromLittleEndian(bytes).intValue();
+		// Next read the payload length (4 bytes in little-endian) ...
+		int payloadLength = source.readNextIntLE();
+		if (payloadLength < 0) {
+			throw new IllegalArgumentException("Envelope not valid.");
+		}
 		
-		// Next read the payload checksum (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		byte[] checksum = hexToBytes(chars);
+		// Next read the payload checksum (4 bytes) ...
+		byte[] checksum = source.readNextBytes(4);
 		
 		byte[] payload = EMPTY_BYTES;
 		if (payloadLength != 0) {					
-			// Next read the payload (payloadLength * 2 characters) ...
-			chars = source.readNextChars(payloadLength * 2);
-			payload = hexToBytes(chars);			
+			// Next read the payload (payloadLength bytes) ...
+			payload = source.readNextBytes(payloadLength);
 		}
 		
 		// Check first 4 bytes of calculated checksum matches the given checksum ...
@@ -1,14 +1,7 @@
 package bitcoin.network.message;
 
-import static bitcoin.util.BigInt.from;
-import static bitcoin.util.BigInt.fromLittleEndian;
-import static bitcoin.util.BigInt.fromVarInt;
-import static bitcoin.util.BigInt.getVarIntSize;
-import static bitcoin.util.BigInt.toLittleEndian;
-import static bitcoin.util.BigInt.toVarInt;
-import static bitcoin.util.Bytes.ONE;
-import static bitcoin.util.Bytes.hexCharsToByte;
-import static bitcoin.util.Bytes.hexToBytes;
+import static bitcoin.util.BigInt.fromUnsigned;
+import static bitcoin.util.Bytes.EMPTY_BYTES;
 import static bitcoin.util.Functions.checkNull;
 
 import java.math.BigInteger;
@@ -21,6 +14,11 @@ import bitcoin.util.OutputSink;
 public final class FilterLoad extends Message {
 	public static final String TYPE = "filterload";
 	
+	// BIP37 flags telling the peer how to update the filter on a match ...
+	public static final byte UPDATE_NONE = 0;
+	public static final byte UPDATE_ALL = 1;
+	public static final byte UPDATE_P2PUBKEY_ONLY = 2;
+	
 	static {
 		register(FilterLoad.class, TYPE);
 	}
@@ -29,7 +27,7 @@ public final class FilterLoad extends Message {
 	private byte flag;
 	
 	public FilterLoad(BloomFilter filter) {
-		this(filter, ONE);
+		this(filter, UPDATE_ALL);
 	}
 	
 	public FilterLoad(BloomFilter filter, byte flag) {
@@ -40,33 +38,34 @@ public final class FilterLoad extends Message {
 		this.filter = filter;
 		this.flag = flag;
 	}
-
+	
+	public BloomFilter getFilter() {
+		return filter;
+	}
+	
+	public byte getFlag() {
+		return flag;
+	}
+	
 	public void writeTo(OutputSink sink) {
 		checkNull(sink);
 		
 		byte[] bitsField = filter.getBitsField();
 		
 		// Write the bitsField size first ...
-		byte[] bytes = toVarInt(from(bitsField.length));
-		sink.write(bytes);
+		sink.writeVarInt(bitsField.length);
 		
 		// Write the bits field next ...
 		sink.write(bitsField);
 		
-		BigInteger functionCount = filter.getFunctionCount();
-		
 		// Write the function count next ...
-		bytes = toLittleEndian(functionCount, 4);
-		sink.write(bytes);
-		
-		BigInteger tweak = filter.getTweak();
+		sink.writeIntLE(filter.getFunctionCount().intValue());
 		
 		// Write the tweak field next ...
-		bytes = toLittleEndian(tweak, 4);
-		sink.write(bytes);	
+		sink.writeIntLE(filter.getTweak().intValue());
 		
 		// Write the flag field next ...		
-		sink.write(bytes);			
+		sink.write(flag);			
 	}
 	
 	public static FilterLoad parse(InputSource source) {
@@ -74,37 +73,18 @@ public final class FilterLoad extends Message {
 		
 		// The "bits" field is of variable length, 
 		// hence need to read the next byte to determine the size ..
-		char[] chars = source.readNextChars(2);
-		byte b = hexCharsToByte(chars[0], chars[1]);
-		int vIntSize = getVarIntSize(b);		
-		
-		BigInteger size;
-		if (vIntSize == 1) {
-			// If the variable integer size is 1, the already read byte represents the size ...
-			size = BigInteger.valueOf(b);
-		} else {
-			// Read the next 2*vIntSize characters that represent the size ...
-			chars = source.readNextChars(2*vIntSize);
-			byte[] bytes = hexToBytes(chars);
-			size = fromVarInt(bytes);
-		}
+		int size = source.readNextCount();
 		
-		chars = source.readNextChars(2*size.intValue());
-		byte[] bitsField = hexToBytes(chars);
+		byte[] bitsField = size == 0 ? EMPTY_BYTES : source.readNextBytes(size);
 		
-		// Next read the function count (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		byte[] bytes = hexToBytes(chars);
-		BigInteger functionCount = fromLittleEndian(bytes);
+		// Next read the function count (4 bytes) ...
+		BigInteger functionCount = fromUnsigned(source.readNextIntLE());
 		
-		// Next read the tweak (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-		BigInteger tweak = fromLittleEndian(bytes);	
+		// Next read the tweak (4 bytes) ...
+		BigInteger tweak = fromUnsigned(source.readNextIntLE());
 		
-		// Next read the flag field (1 byte or 2 characters) ...
-		chars = source.readNextChars(2);
-		byte flag = hexCharsToByte(chars[0], chars[1]);	
+		// Next read the flag field (1 byte) ...
+		byte flag = source.readNextByte();
 		
 		BloomFilter filter = BloomFilter.from(bitsField, functionCount, tweak);
 		
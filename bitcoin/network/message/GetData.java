@@ -1,35 +1,56 @@
 package bitcoin.network.message;
 
-import static bitcoin.util.BigInt.from;
-import static bitcoin.util.BigInt.fromLittleEndian;
-import static bitcoin.util.BigInt.fromVarInt;
-import static bitcoin.util.BigInt.getVarIntSize;
-import static bitcoin.util.BigInt.toLittleEndian;
-import static bitcoin.util.BigInt.toVarInt;
-import static bitcoin.util.Bytes.hexCharsToByte;
-import static bitcoin.util.Bytes.hexToBytes;
 import static bitcoin.util.Functions.checkNull;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import bitcoin.network.Message;
+import bitcoin.util.Hash256;
 import bitcoin.util.InputSource;
 import bitcoin.util.OutputSink;
 
 public final class GetData extends Message {
 	public static final String TYPE = "getdata";
 	
+	public static final int TX_DATA_TYPE = 1;
+	public static final int BLOCK_DATA_TYPE = 2;
+	public static final int FILTERED_BLOCK_DATA_TYPE = 3;
+	public static final int COMPACT_BLOCK_DATA_TYPE = 4;
+	
+	// An inventory entry, usable as a map or set key ...
 	public static final class Data {
-		private BigInteger hType;
-		private BigInteger hash; 
+		private final int hType;
+		private final Hash256 hash; 
 		
-		private Data(BigInteger hType, BigInteger hash) {
+		public Data(int hType, Hash256 hash) {
+			checkNull(hash);
+			
 			this.hType = hType;
 			this.hash = hash;
 		}
+		
+		public int getType() {
+			return hType;
+		}
+		
+		public Hash256 getHash() {
+			return hash;
+		}
+		
+		public int hashCode() {
+			return 31 * hash.hashCode() + hType;
+		}
+		
+		public boolean equals(Object another) {
+			if (another instanceof Data) {
+				Data other = (Data)another;
+				return hType == other.hType && hash.equals(other.hash);
+			}
+			
+			return false;
+		}
 	}
 	
 	static {
@@ -45,54 +66,30 @@ public final class GetData extends Message {
 		
 		this.hashes = Collections.unmodifiableList(hashes);
 	}
-
+	
 	public void writeTo(OutputSink sink) {
 		// First write the hash count ...
-		byte[] bytes = toVarInt(from(hashes.size()));
-		sink.write(bytes);
+		sink.writeVarInt(hashes.size());
 		
 		// Now write all the hashes ...
 		for (Data d: hashes) {
-			bytes = toLittleEndian(d.hType, 4);
-			sink.write(bytes);		
-			
-			bytes = toLittleEndian(d.hash, 32);
-			sink.write(bytes);
+			sink.writeIntLE(d.hType);
+			d.hash.writeTo(sink);
 		}			
 	}
 	
 	public static GetData parse(InputSource source) {
 		// The "number of hashes" field is of variable length, 
 		// hence need to read the next byte to determine the size ..
-		char[] chars = source.readNextChars(2);
-		byte b = hexCharsToByte(chars[0], chars[1]);
-		int vIntSize = getVarIntSize(b);		
-		
-		BigInteger hashCount;
-		byte[] bytes = null;
-		if (vIntSize == 1) {
-			// If the variable integer size is 1, the already read byte represents the number ...
-			hashCount = BigInteger.valueOf(b);
-		} else {
-			// Read the next 2*vIntSize characters that represent the number ...
-			chars = source.readNextChars(2*vIntSize);
-			bytes = hexToBytes(chars);
-			hashCount = fromVarInt(bytes);
-		}
+		int numberOfHashes = source.readNextCount();
 		
 		// Now read the hashes ...
-		int numberOfHashes = hashCount.intValue();
 		List<Data> hashes = new ArrayList<Data>(numberOfHashes);
 		for (int i = 0; i < numberOfHashes; ++i) {
-			chars = source.readNextChars(8);
-			bytes = hexToBytes(chars);
-			
-			BigInteger hType = fromLittleEndian(bytes);	
+			int hType = source.readNextIntLE();
 			
-			// Get the id of the starting block ...
-			chars = source.readNextChars(64);	
-			bytes = hexToBytes(chars);
-			BigInteger hash = fromLittleEndian(bytes);
+			// Get the id of the requested item ...
+			Hash256 hash = Hash256.read(source);
 			
 			hashes.add(new Data(hType, hash));
 		}
@@ -1,14 +1,7 @@
 package bitcoin.network.message;
 
 import static bitcoin.util.BigInt.from;
-import static bitcoin.util.BigInt.fromLittleEndian;
-import static bitcoin.util.BigInt.fromVarInt;
-import static bitcoin.util.BigInt.getVarIntSize;
-import static bitcoin.util.BigInt.toLittleEndian;
-import static bitcoin.util.BigInt.toVarInt;
-import static bitcoin.util.Bytes.hexCharsToByte;
-import static bitcoin.util.Bytes.hexToBytes;
-import static bitcoin.util.Bytes.newBytes;
+import static bitcoin.util.BigInt.fromUnsigned;
 import static bitcoin.util.Functions.checkNull;
 
 import java.math.BigInteger;
@@ -17,6 +10,7 @@ import java.util.Collections;
 import java.util.List;
 
 import bitcoin.network.Message;
+import bitcoin.util.Hash256;
 import bitcoin.util.InputSource;
 import bitcoin.util.OutputSink;
 
@@ -24,21 +18,21 @@ public final class GetHeaders extends Message {
 	public static final String TYPE = "getheaders";
 	
 	private static final BigInteger DEFAULT_VERSION = from(70015);
-	private static final BigInteger DEFAULT_END_BLOCK_ID = new BigInteger(1, newBytes(32, (byte)0));
+	private static final Hash256 DEFAULT_END_BLOCK_ID = Hash256.ZERO;
 	
 	static {
 		register(GetHeaders.class, TYPE);
 	}
 	
 	private BigInteger version;
-	private List<BigInteger> blockIds;
-	private BigInteger endingBlockId;
+	private List<Hash256> blockIds;
+	private Hash256 endingBlockId;
 	
-	public GetHeaders(List<BigInteger> blockIds) {
+	public GetHeaders(List<Hash256> blockIds) {
 		this(DEFAULT_VERSION, blockIds, DEFAULT_END_BLOCK_ID);
 	}
-
-	public GetHeaders(BigInteger version, List<BigInteger> blockIds, BigInteger endingBlockId) {
+	
+	public GetHeaders(BigInteger version, List<Hash256> blockIds, Hash256 endingBlockId) {
 		super(TYPE);
 		
 		checkNull(version, blockIds);
@@ -47,69 +41,43 @@ public final class GetHeaders extends Message {
 		this.blockIds = Collections.unmodifiableList(blockIds);
 		this.endingBlockId = endingBlockId == null ? DEFAULT_END_BLOCK_ID : endingBlockId;
 	}
-
+	
 	public void writeTo(OutputSink sink) {
 		checkNull(sink);
 		
 		// First write the version bytes ...
-		byte[] bytes = toLittleEndian(version, 4);
-		sink.write(bytes);
+		sink.writeIntLE(version.intValue());
 		
 		// Next write the hash count ...
-		bytes = toVarInt(from(blockIds.size()));
-		sink.write(bytes);
+		sink.writeVarInt(blockIds.size());
 		
 		// Next write the block ids ...
-		for (BigInteger id: blockIds) {
-			bytes = toLittleEndian(id, 32);
-			sink.write(bytes);
+		for (Hash256 id: blockIds) {
+			id.writeTo(sink);
 		}
 		
 		// Next write the ending block id ...
-		bytes = toLittleEndian(endingBlockId, 32);
-		sink.write(bytes);		
+		endingBlockId.writeTo(sink);
 	}
 	
 	public static GetHeaders parse(InputSource source) {
 		checkNull(source);
 		
 		// First read the version 
-		char[] chars = source.readNextChars(8);
-		byte[] bytes = hexToBytes(chars);
-		BigInteger version = fromLittleEndian(bytes);
+		BigInteger version = fromUnsigned(source.readNextIntLE());
 		
 		// The "number of hashes" field is of variable length, 
 		// hence need to read the next byte to determine the size ..
-		chars = source.readNextChars(2);
-		byte b = hexCharsToByte(chars[0], chars[1]);
-		int vIntSize = getVarIntSize(b);		
-		
-		BigInteger hashCount;
-		if (vIntSize == 1) {
-			// If the variable integer size is 1, the already read byte represents the number ...
-			hashCount = BigInteger.valueOf(b);
-		} else {
-			// Read the next 2*vIntSize characters that represent the number ...
-			chars = source.readNextChars(2*vIntSize);
-			bytes = hexToBytes(chars);
-			hashCount = fromVarInt(bytes);
-		}
+		int numberOfHashes = source.readNextCount();
 		
-		int numberOfHashes = hashCount.intValue();
-		List<BigInteger> blockIds = new ArrayList<BigInteger>(numberOfHashes);
+		List<Hash256> blockIds = new ArrayList<Hash256>(numberOfHashes);
 		for (int i = 0; i < numberOfHashes; ++i) {
 			// Get the id of the starting block ...
-			chars = source.readNextChars(64);	
-			bytes = hexToBytes(chars);
-			BigInteger id = fromLittleEndian(bytes);
-			
-			blockIds.add(id);
+			blockIds.add(Hash256.read(source));
 		}
 		
 		// Get the id of the ending block ...
-		chars = source.readNextChars(64);	
-		bytes = hexToBytes(chars);
-		BigInteger endBlockId = fromLittleEndian(bytes);
+		Hash256 endBlockId = Hash256.read(source);
 		
 		return new GetHeaders(version, blockIds, endBlockId);
 	}
@@ -1,25 +1,22 @@
 package bitcoin.network.message;
 
-import static bitcoin.util.BigInt.from;
 import static bitcoin.util.BigInt.fromLittleEndian;
-import static bitcoin.util.BigInt.fromVarInt;
-import static bitcoin.util.BigInt.getVarIntSize;
+import static bitcoin.util.BigInt.fromUnsigned;
 import static bitcoin.util.BigInt.toLittleEndian;
-import static bitcoin.util.BigInt.toVarInt;
-import static bitcoin.util.Bytes.ensureSize;
-import static bitcoin.util.Bytes.hexCharsToByte;
-import static bitcoin.util.Bytes.hexToBytes;
+import static bitcoin.util.Bytes.EMPTY_BYTES;
+import static bitcoin.util.Crypto.HASH_LENGTH;
 import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
+import bitcoin.core.Block;
 import bitcoin.network.Message;
+import bitcoin.util.Hash256;
 import bitcoin.util.InputSource;
-import bitcoin.util.MerkleTree;
 import bitcoin.util.OutputSink;
+import bitcoin.util.PartialMerkleTree;
 
 public final class MerkleBlock extends Message {
 	public static final String TYPE = "merkleblock";
@@ -34,15 +31,19 @@ public final class MerkleBlock extends Message {
 	private BigInteger timestamp;
 	private BigInteger bits;
 	private BigInteger nonce;
-	private BigInteger txNum;
-	private List<BigInteger> txHashes;
-	private byte[] flags;
+	private PartialMerkleTree tree;
 	
 	public MerkleBlock(BigInteger version, BigInteger pvBlkHash, BigInteger mrklRootHash, BigInteger timestamp,
-			BigInteger bits, BigInteger nonce, BigInteger txNum, List<BigInteger> txHashes, byte[] flags) {
+			BigInteger bits, BigInteger nonce, BigInteger txNum, List<Hash256> txHashes, byte[] flags) {
+		this(version, pvBlkHash, mrklRootHash, timestamp, bits, nonce, 
+				new PartialMerkleTree(txNum.intValue(), toHashBytes(txHashes), txHashes.size(), flags));
+	}
+	
+	public MerkleBlock(BigInteger version, BigInteger pvBlkHash, BigInteger mrklRootHash, BigInteger timestamp,
+			BigInteger bits, BigInteger nonce, PartialMerkleTree tree) {
 		super(TYPE);
 		
-		checkNull(version, pvBlkHash, mrklRootHash, timestamp, bits, nonce, txHashes, flags);
+		checkNull(version, pvBlkHash, mrklRootHash, timestamp, bits, nonce, tree);
 		
 		this.version = version;
 		this.pvBlkHash = pvBlkHash;
@@ -50,30 +51,48 @@ public final class MerkleBlock extends Message {
 		this.timestamp = timestamp;
 		this.bits = bits;
 		this.nonce = nonce;
-		this.txNum = txNum;
-		this.txHashes = Collections.unmodifiableList(txHashes);
-		this.flags = flags;
+		this.tree = tree;
 	}
 	
-	public boolean isValid() {	
-		List<BigInteger> reversedHashes = MerkleTree.reversesOf(txHashes);
-		List<Boolean> bitFlags = bytesToBitFlags();
+	public static MerkleBlock of(Block header, PartialMerkleTree tree) {
+		checkNull(header, tree);
 		
-		MerkleTree tree = new MerkleTree(txNum.intValue());		
-		tree.populate(bitFlags, reversedHashes);
+		return new MerkleBlock(header.getVersion(), header.getPrevBlockHash(), header.getMerkleRootHash(), 
+				header.getTimestamp(), header.getBits(), header.getNonce(), tree);
+	}
+	
+	public PartialMerkleTree getTree() {
+		return tree;
+	}
+	
+	// Returns the matched transactions if the proof leads to the merkle root of the
+	// header, otherwise null ...
+	public PartialMerkleTree.Matches getMatches() {
+		PartialMerkleTree.Matches matches;
+		try {
+			matches = tree.extractMatches();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
 		
-		return mrklRootHash.equals(MerkleTree.reverseOf(tree.getRoot()));
+		// The header keeps the root in display order, so compare against its little
+		// endian bytes which is the internal order ...
+		byte[] root = toLittleEndian(mrklRootHash, HASH_LENGTH);
+		return matches.isRoot(root, 0) ? matches : null;
 	}
-
+	
+	public boolean isValid() {	
+		return !isNull(getMatches());
+	}
+	
 	public void writeTo(OutputSink sink) {
 		checkNull(sink);
 		
 		// First write the version ...
-		byte[] bytes = toLittleEndian(version, 4);
-		sink.write(bytes);
+		sink.writeIntLE(version.intValue());
 		
 		// Next write the previous block hash ...
-		bytes = toLittleEndian(pvBlkHash, 32);
+		byte[] bytes = toLittleEndian(pvBlkHash, 32);
 		sink.write(bytes);
 		
 		// Next write the merle root hash ...
@@ -81,145 +100,70 @@ public final class MerkleBlock extends Message {
 		sink.write(bytes);		
 		
 		// Next write the timestamp ...
-		bytes = toLittleEndian(timestamp, 4);
-		sink.write(bytes);
-		
-		// Next write the bits
-		bytes = ensureSize(bits.toByteArray(), 4);		
-		sink.write(bytes);
-		
-		// Next write the nonce
-		bytes = ensureSize(nonce.toByteArray(), 4);	
-		sink.write(bytes);	
+		sink.writeIntLE(timestamp.intValue());
 		
-		// Next write the total number of transactions ...
-		bytes = toLittleEndian(txNum, 4);
-		sink.write(bytes);		
-		
-		// Next write the transaction hash count ...
-		bytes = toVarInt(from(txHashes.size()));
-		sink.write(bytes);
+		// Next write the bits and the nonce, both are kept as the big endian value
+		// of their bytes, hence the bytes are swapped back ...
+		sink.writeIntLE(Integer.reverseBytes(bits.intValue()));
+		sink.writeIntLE(Integer.reverseBytes(nonce.intValue()));	
 		
-		// Next write the block ids ...
-		for (BigInteger hash: txHashes) {
-			bytes = toLittleEndian(hash, 32);
-			sink.write(bytes);
-		}	
-		
-		// Next write the flags count ...
-		bytes = toVarInt(from(flags.length));
-		sink.write(bytes);		
-		
-		// Finally write the flag bytes ...
-		sink.write(flags);
+		// Finally write the transaction count, hashes and flags ...
+		tree.writeTo(sink);
 	}
 	
 	public static MerkleBlock parse(InputSource source) {
 		checkNull(source);
 		
-		// Read the version bytes (4 bytes or 8 characters) first ...
-		char[] chars = source.readNextChars(8);
-		byte[] bytes = hexToBytes(chars);
-		
-		BigInteger version = fromLittleEndian(bytes);
+		// Read the version bytes (4 bytes) first ...
+		BigInteger version = fromUnsigned(source.readNextIntLE());
 		
-		// Next read the previous block hash (32 bytes or 64 characters) ...
-		chars = source.readNextChars(64);
-		bytes = hexToBytes(chars);
+		// Next read the previous block hash (32 bytes) ...
+		byte[] bytes = source.readNextBytes(32);
 		
 		BigInteger pvBlkHash = fromLittleEndian(bytes);
 		
-		// Next read the Merkle root hash (32 bytes or 64 characters) ...
-		chars = source.readNextChars(64);
-		bytes = hexToBytes(chars);
+		// Next read the Merkle root hash (32 bytes) ...
+		bytes = source.readNextBytes(32);
 		
 		BigInteger mrklRootHash = fromLittleEndian(bytes);
 		
-		// Next read the timestamp (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
+		// Next read the timestamp (4 bytes) ...
+		BigInteger timestamp = fromUnsigned(source.readNextIntLE());
 		
-		BigInteger timestamp = fromLittleEndian(bytes);
+		// Next read the bits and the nonce (4 bytes each), taken big endian ...
+		BigInteger bits = fromUnsigned(Integer.reverseBytes(source.readNextIntLE()));
+		BigInteger nonce = fromUnsigned(Integer.reverseBytes(source.readNextIntLE()));
 		
-		// Next read the bits (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-				
-		BigInteger bits = new BigInteger(1, bytes);
-		
-		// Next read the nonce (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-				
-		BigInteger nonce = new BigInteger(1, bytes);
-		
-		// Next read the transaction count (4 bytes or 8 characters) ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-		
-		BigInteger txNum = fromLittleEndian(bytes);
+		// Next read the transaction count (4 bytes) ...
+		int txNum = source.readNextIntLE();
 		
 		// The "number of hashes" field is of variable length, 
 		// hence need to read the next byte to determine the size ..
-		chars = source.readNextChars(2);
-		byte b = hexCharsToByte(chars[0], chars[1]);
-		int vIntSize = getVarIntSize(b);		
-		
-		BigInteger hashCount;
-		if (vIntSize == 1) {
-			// If the variable integer size is 1, the already read byte represents the number ...
-			hashCount = BigInteger.valueOf(b);
-		} else {
-			// Read the next 2*vIntSize characters that represent the number ...
-			chars = source.readNextChars(2*vIntSize);
-			bytes = hexToBytes(chars);
-			hashCount = fromVarInt(bytes);
-		}
+		int numberOfHashes = source.readNextCount();
 		
-		int numberOfHashes = hashCount.intValue();
-		List<BigInteger> txHashes = new ArrayList<BigInteger>(numberOfHashes);
-		for (int i = 0; i < numberOfHashes; ++i) {
-			// Get the id of the starting block ...
-			chars = source.readNextChars(64);	
-			bytes = hexToBytes(chars);
-			BigInteger hash = fromLittleEndian(bytes);
-			
-			txHashes.add(hash);
-		}
+		// The hashes are kept back to back in the order they are read, which is the 
+		// internal byte order ...
+		byte[] hashes = numberOfHashes == 0 ? 
+				EMPTY_BYTES : source.readNextBytes(numberOfHashes * HASH_LENGTH);
 		
 		// The "flag bits" field is of variable length, 
 		// hence need to read the next byte to determine the size ..
-		chars = source.readNextChars(2);
-		b = hexCharsToByte(chars[0], chars[1]);
-		vIntSize = getVarIntSize(b);		
-		
-		BigInteger flagsCount;
-		if (vIntSize == 1) {
-			// If the variable integer size is 1, the already read byte represents the number ...
-			flagsCount = BigInteger.valueOf(b);
-		} else {
-			// Read the next 2*vIntSize characters that represent the number ...
-			chars = source.readNextChars(2*vIntSize);
-			bytes = hexToBytes(chars);
-			flagsCount = fromVarInt(bytes);
-		}
+		int numberOfFlags = source.readNextCount();
+		byte[] flags = numberOfFlags == 0 ? EMPTY_BYTES : source.readNextBytes(numberOfFlags);
 		
-		chars = source.readNextChars(2*flagsCount.intValue());
-		byte[] flags = hexToBytes(chars);
-		
-		return new MerkleBlock(version, pvBlkHash, mrklRootHash, timestamp, bits, nonce, txNum, txHashes, flags);
+		PartialMerkleTree tree = new PartialMerkleTree(txNum, hashes, numberOfHashes, flags);
+		return new MerkleBlock(version, pvBlkHash, mrklRootHash, timestamp, bits, nonce, tree);
 	}
 	
-	private List<Boolean> bytesToBitFlags() {
-		List<Boolean> bitFlags = new ArrayList<Boolean>();
-		for (byte b: flags) {
-			int f = (int)b;
-			for (int i = 0; i < 8; ++i) {
-				bitFlags.add((f & 1) == 1);
-				f = f >> 1;
-			}
+	private static byte[] toHashBytes(List<Hash256> txHashes) {
+		checkNull(txHashes);
+		
+		// The hashes are kept back to back in their internal order ...
+		byte[] hashes = new byte[txHashes.size() * HASH_LENGTH];
+		for (int i = 0; i < txHashes.size(); ++i) {
+			txHashes.get(i).copyTo(hashes, i * HASH_LENGTH);
 		}
 		
-		return bitFlags;
+		return hashes;
 	}
 }
@@ -1,7 +1,6 @@
 package bitcoin.network.message;
 
 import static bitcoin.util.BigInt.toLittleEndian;
-import static bitcoin.util.Bytes.hexToBytes;
 import static bitcoin.util.Functions.checkNull;
 
 import java.math.BigInteger;
@@ -28,8 +27,7 @@ public final class Ping extends PingPong {
 		checkNull(source);
 		
 		// First read the version 
-		char[] chars = source.readNextChars(16);
-		byte[] nonce = hexToBytes(chars);
+		byte[] nonce = source.readNextBytes(8);
 		return new Ping(nonce);
 	}
 }
@@ -1,6 +1,5 @@
 package bitcoin.network.message;
 
-import static bitcoin.util.Bytes.hexToBytes;
 import static bitcoin.util.Functions.checkNull;
 
 import bitcoin.util.InputSource;
@@ -20,8 +19,7 @@ public final class Pong extends PingPong{
 		checkNull(source);
 		
 		// First read the version 
-		char[] chars = source.readNextChars(16);
-		byte[] nonce = hexToBytes(chars);
+		byte[] nonce = source.readNextBytes(8);
 		return new Pong(nonce);
 	}
 }
@@ -1,19 +1,11 @@
 package bitcoin.network.message;
 
 import static bitcoin.util.BigInt.from;
-import static bitcoin.util.BigInt.fromLittleEndian;
-import static bitcoin.util.BigInt.fromVarInt;
-import static bitcoin.util.BigInt.getVarIntSize;
+import static bitcoin.util.BigInt.fromUnsigned;
 import static bitcoin.util.BigInt.toLittleEndian;
-import static bitcoin.util.BigInt.toVarInt;
 import static bitcoin.util.Bytes.EMPTY_BYTES;
 import static bitcoin.util.Bytes.ZERO;
-import static bitcoin.util.Bytes.bytesToInt;
-import static bitcoin.util.Bytes.hexCharsToByte;
-import static bitcoin.util.Bytes.hexToBytes;
-import static bitcoin.util.Bytes.intToBytes;
 import static bitcoin.util.Bytes.newBytes;
-import static bitcoin.util.Functions.areEqual;
 import static bitcoin.util.Functions.checkNull;
 import static bitcoin.util.Functions.isNull;
 
@@ -82,45 +74,36 @@ public final class Version extends Message {
 		this.height = height;
 		this.relay = relay;
 	}
-
+	
 	public void writeTo(OutputSink sink) {
 		checkNull(sink);
 		
 		// First write the version bytes ...
-		byte[] bytes = toLittleEndian(version, 4);
-		sink.write(bytes);
+		sink.writeIntLE(version.intValue());
 		
 		// Next write the services bytes ...
-		bytes = toLittleEndian(services, 8);
-		sink.write(bytes);
+		sink.writeLongLE(services.longValue());
 		
 		// Next write the timestamp bytes ...
-		bytes = toLittleEndian(timestamp, 8);
-		sink.write(bytes);
+		sink.writeLongLE(timestamp.longValue());
 		
 		// Next write the receiver services bytes ...
-		bytes = toLittleEndian(receiverServices, 8);
-		sink.write(bytes);
+		sink.writeLongLE(receiverServices.longValue());
 		
 		// Next write the reciever ip bytes ...
 		sink.write(receiverIP);
 		
 		// Next write the receiver port bytes ...
-		bytes = intToBytes(recieverPort);
-		bytes = newBytes(bytes, bytes.length - 2, bytes.length);
-		sink.write(bytes);
+		writePort(recieverPort, sink);
 		
 		// Next write the sender services bytes ...
-		bytes = toLittleEndian(senderServices, 8);
-		sink.write(bytes);
+		sink.writeLongLE(senderServices.longValue());
 		
 		// Next write the sender ip bytes ...
 		sink.write(senderIP);
 		
 		// Next write the sender port bytes ...
-		bytes = intToBytes(senderPort);
-		bytes = newBytes(bytes, bytes.length - 2, bytes.length);
-		sink.write(bytes);
+		writePort(senderPort, sink);
 		
 		// Next write the nonce bytes ...
 		sink.write(nonce);
@@ -129,110 +112,83 @@ public final class Version extends Message {
 		if (isNull(userAgent) || userAgent.length == 0) {
 			sink.write(ZERO);
 		} else {
-			byte[] userAgentLength = toVarInt(from(userAgent.length));
-			
-			sink.write(userAgentLength);
+			sink.writeVarInt(userAgent.length);
 			sink.write(userAgent);
 		}
 		
 		// Next write the height bytes ...
-		bytes = toLittleEndian(height, 4);
-		sink.write(bytes);
+		sink.writeIntLE(height.intValue());
 		
-		if (relay) {
-			sink.write((byte)1);
-		}
+		// Finally write the relay flag ...
+		sink.write(relay ? (byte)1 : (byte)0);
 	}	
 	
 	public static Version parse(InputSource source) {
 		checkNull(source);
 		
 		// First read the version 
-		char[] chars = source.readNextChars(8);
-		byte[] bytes = hexToBytes(chars);
-		BigInteger version = fromLittleEndian(bytes);
+		BigInteger version = fromUnsigned(source.readNextIntLE());
 		
 		// Next read services ...
-		chars = source.readNextChars(16);
-		bytes = hexToBytes(chars);
-		BigInteger services = fromLittleEndian(bytes);
+		BigInteger services = fromUnsigned(source.readNextLongLE());
 		
 		// Next read timestamp ...
-		chars = source.readNextChars(16);
-		bytes = hexToBytes(chars);
-		BigInteger timestamp = fromLittleEndian(bytes);
+		BigInteger timestamp = fromUnsigned(source.readNextLongLE());
 		
 		// Next read receiver services ...
-		chars = source.readNextChars(16);
-		bytes = hexToBytes(chars);
-		BigInteger receiverServices = fromLittleEndian(bytes);
+		BigInteger receiverServices = fromUnsigned(source.readNextLongLE());
 		
 		// Next read the receiver ip ...
-		chars = source.readNextChars(32);
-		byte[] receiverIP = hexToBytes(chars);
+		byte[] receiverIP = source.readNextBytes(16);
 		
 		// Next read the receiver port ...
-		chars = source.readNextChars(4);
-		bytes = hexToBytes(chars);
-		int receiverPort = bytesToInt(bytes);
+		int receiverPort = readPort(source);
 		
 		// Next read sender services ...
-		chars = source.readNextChars(16);
-		bytes = hexToBytes(chars);
-		BigInteger senderServices = fromLittleEndian(bytes);
+		BigInteger senderServices = fromUnsigned(source.readNextLongLE());
 		
 		// Next read the sender ip ...
-		chars = source.readNextChars(32);
-		byte[] senderIP = hexToBytes(chars);
+		byte[] senderIP = source.readNextBytes(16);
 		
 		// Next read the sender port ...
-		chars = source.readNextChars(4);
-		bytes = hexToBytes(chars);
-		int senderPort = bytesToInt(bytes);		
+		int senderPort = readPort(source);
 		
 		// Next read nonce ...
-		chars = source.readNextChars(16);
-		byte[] nonce = hexToBytes(chars);		
+		byte[] nonce = source.readNextBytes(8);		
 		
 		// The "user agent" field is of variable length, hence need to read the next byte
 		// to determine the size ..
-		chars = source.readNextChars(2);
-		byte b = hexCharsToByte(chars[0], chars[1]);
-		int vIntSize = getVarIntSize(b);		
-		
-		BigInteger userAgentSize;
-		if (vIntSize == 1) {
-			// If the variable integer size is 1, the already read byte represents the size ...
-			userAgentSize = BigInteger.valueOf(b);
-		} else {
-			// Read the next 2*vIntSize characters that represent the size ...
-			chars = source.readNextChars(2*vIntSize);
-			bytes = hexToBytes(chars);
-			userAgentSize = fromVarInt(bytes);
-		}
+		int userAgentSize = source.readNextCount();
 		
 		byte[] userAgent;
-		if (areEqual(BigInteger.ZERO, userAgentSize)) {
+		if (userAgentSize == 0) {
 			userAgent = EMPTY_BYTES;
 		} else {
-			// Read the next 2*userAgentSize characters that represent 'useragent' hex ...
-			chars = source.readNextChars(BigInteger.TWO.multiply(userAgentSize).intValue());
-			userAgent = hexToBytes(chars);
+			// Read the next userAgentSize bytes that represent 'useragent' ...
+			userAgent = source.readNextBytes(userAgentSize);
 		}
 		
 		// Next read the height field ...
-		chars = source.readNextChars(8);
-		bytes = hexToBytes(chars);
-		BigInteger height = fromLittleEndian(bytes);		
+		BigInteger height = fromUnsigned(source.readNextIntLE());
 		
-		// Finally read the relay flag if it exists ...
-		char relayFlag = source.readNextChar(false);
-		boolean relay = (relayFlag & 1) == 1;
+		// Finally read the relay flag if it exists, older peers leave it out ...
+		int relayFlag = source.readNextUnsignedByte(false);
+		boolean relay = relayFlag != -1 && (relayFlag & 1) == 1;
 		
 		return new Version(version, services, timestamp, receiverServices, receiverIP, 
 				receiverPort, senderServices, senderIP, senderPort, nonce, userAgent, height, relay);
 	}
 	
+	// Ports are the only fields sent as 2 bytes in big-endian ...
+	private static void writePort(int port, OutputSink sink) {
+		sink.write((byte)(port >>> 8));
+		sink.write((byte)port);
+	}
+	
+	private static int readPort(InputSource source) {
+		return source.readNextUnsignedByte(true) << 8 | source.readNextUnsignedByte(true);
+	}
+	
 	public static void main(String[] args) {
 		Version vm = new Version();
 	}
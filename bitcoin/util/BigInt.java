@@ -2,13 +2,16 @@ package bitcoin.util;
 
 import static bitcoin.util.Bytes.newBytes;
 import static bitcoin.util.Bytes.reverse;
-import static bitcoin.util.Bytes.stitch;
 import static bitcoin.util.Bytes.zeroSuffix;
 import static bitcoin.util.Bytes.EMPTY_BYTES;
 
 import static bitcoin.util.Functions.checkNull;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public final class BigInt {
 	
@@ -17,9 +20,17 @@ public final class BigInt {
 	private static final byte HEX_FF = (byte)0xff;
 	
 	private static final BigInteger HEX_FD_INT = new BigInteger("fd", 16);
-	private static final BigInteger HEX_16_POW_4 = new BigInteger("10000", 16);
-	private static final BigInteger HEX_16_POW_8 = new BigInteger("100000000", 16);
-	private static final BigInteger HEX_16_POW_16 = new BigInteger("10000000000000000", 16);
+	
+	// Views that read and write little endian ints and longs at any offset of a
+	// byte array or buffer, without going through BigInteger or temporary arrays ...
+	private static final VarHandle INT_LE = 
+			MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LONG_LE = 
+			MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle BUFFER_INT_LE = 
+			MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle BUFFER_LONG_LE = 
+			MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
 	
 	private BigInt() {}
 	
@@ -31,6 +42,20 @@ public final class BigInt {
 		return BigInteger.valueOf(v);
 	}
 	
+	// Value of the given unsigned 32 bit int ...
+	public static BigInteger fromUnsigned(int v) {
+		return BigInteger.valueOf(Integer.toUnsignedLong(v));
+	}
+	
+	// Value of the given unsigned 64 bit long ...
+	public static BigInteger fromUnsigned(long v) {
+		if (v >= 0) {
+			return BigInteger.valueOf(v);
+		}
+		
+		return BigInteger.valueOf(v & Long.MAX_VALUE).setBit(63);
+	}
+	
 	public static BigInteger gcd(BigInteger a, BigInteger b) {
 		checkNull(a, b);
 		
@@ -69,17 +94,52 @@ public final class BigInt {
 	public static BigInteger fromLittleEndian(byte[] littleEndian, int start, int end) {
 		return fromLittleEndian(true, littleEndian, start, end);
 	}
-
+	
 	public static BigInteger fromLittleEndian(boolean positiveExpected, byte[] littleEndian, int start, int end) {
 		checkNull(littleEndian);
 		
-		if (littleEndian.length < 1) {
+		if (start < 0 || end > littleEndian.length || start >= end) {
 			throw new IllegalArgumentException("Bytes cannot be empty");
 		}
 		
-		reverse(littleEndian);
+		// Reverse a copy of the range, the given bytes are left as they are ...
+		byte[] bigEndian = newBytes(littleEndian, start, end);
+		reverse(bigEndian);
 		
-		return positiveExpected ? new BigInteger(1, littleEndian) : new BigInteger(littleEndian);
+		return positiveExpected ? new BigInteger(1, bigEndian) : new BigInteger(bigEndian);
+	}
+	
+	public static int readIntLE(byte[] bytes, int offset) {
+		return (int)INT_LE.get(bytes, offset);
+	}
+	
+	public static long readLongLE(byte[] bytes, int offset) {
+		return (long)LONG_LE.get(bytes, offset);
+	}
+	
+	public static void writeIntLE(int value, byte[] bytes, int offset) {
+		INT_LE.set(bytes, offset, value);
+	}
+	
+	public static void writeLongLE(long value, byte[] bytes, int offset) {
+		LONG_LE.set(bytes, offset, value);
+	}
+	
+	// The buffer variants use absolute indices and ignore the order of the buffer ...
+	public static int readIntLE(ByteBuffer buffer, int index) {
+		return (int)BUFFER_INT_LE.get(buffer, index);
+	}
+	
+	public static long readLongLE(ByteBuffer buffer, int index) {
+		return (long)BUFFER_LONG_LE.get(buffer, index);
+	}
+	
+	public static void writeIntLE(int value, ByteBuffer buffer, int index) {
+		BUFFER_INT_LE.set(buffer, index, value);
+	}
+	
+	public static void writeLongLE(long value, ByteBuffer buffer, int index) {
+		BUFFER_LONG_LE.set(buffer, index, value);
 	}
 	
 	public static byte[] toLittleEndian(BigInteger a) {
@@ -129,6 +189,96 @@ public final class BigInt {
 		return bytesToRead;
 	}
 	
+	// Reads the varint at the given offset, its length is sizeOfVarInt of the result.
+	// Values of 2^63 and above come back negative, as unsigned longs ...
+	public static long readVarInt(byte[] bytes, int offset) {
+		checkNull(bytes);
+		
+		int b = bytes[offset] & 0xff;
+		switch (b) {
+			case 0xfd: return (bytes[offset + 1] & 0xff) | (bytes[offset + 2] & 0xff) << 8;
+			case 0xfe: return Integer.toUnsignedLong(readIntLE(bytes, offset + 1));
+			case 0xff: return readLongLE(bytes, offset + 1);
+			default: return b;
+		}
+	}
+	
+	// Reads the varint at the position of the buffer and moves past it ...
+	public static long readVarInt(ByteBuffer buffer) {
+		checkNull(buffer);
+		
+		int b = buffer.get() & 0xff;
+		long value;
+		switch (b) {
+			case 0xfd: 
+				value = (buffer.get() & 0xff) | (buffer.get() & 0xff) << 8; 
+				return value;
+			case 0xfe: 
+				value = Integer.toUnsignedLong(readIntLE(buffer, buffer.position()));
+				buffer.position(buffer.position() + 4);
+				return value;
+			case 0xff: 
+				value = readLongLE(buffer, buffer.position());
+				buffer.position(buffer.position() + 8);
+				return value;
+			default: 
+				return b;
+		}
+	}
+	
+	// Writes the varint at the given offset and returns the number of bytes written ...
+	public static int writeVarInt(long value, byte[] bytes, int offset) {
+		checkNull(bytes);
+		
+		int size = sizeOfVarInt(value);
+		switch (size) {
+			case 1: 
+				bytes[offset] = (byte)value; 
+				break;
+			case 3: 
+				bytes[offset] = HEX_FD;
+				bytes[offset + 1] = (byte)value;
+				bytes[offset + 2] = (byte)(value >>> 8);
+				break;
+			case 5: 
+				bytes[offset] = HEX_FE;
+				writeIntLE((int)value, bytes, offset + 1);
+				break;
+			default: 
+				bytes[offset] = HEX_FF;
+				writeLongLE(value, bytes, offset + 1);
+				break;
+		}
+		
+		return size;
+	}
+	
+	// Writes the varint at the position of the buffer and moves past it ...
+	public static void writeVarInt(long value, ByteBuffer buffer) {
+		checkNull(buffer);
+		
+		int size = sizeOfVarInt(value);
+		int index = buffer.position();
+		switch (size) {
+			case 1: 
+				buffer.put((byte)value); 
+				return;
+			case 3: 
+				buffer.put(HEX_FD).put((byte)value).put((byte)(value >>> 8));
+				return;
+			case 5: 
+				buffer.put(HEX_FE);
+				writeIntLE((int)value, buffer, index + 1);
+				break;
+			default: 
+				buffer.put(HEX_FF);
+				writeLongLE(value, buffer, index + 1);
+				break;
+		}
+		
+		buffer.position(index + size);
+	}
+	
 	public static BigInteger fromVarInt(byte[] varInt) {
 		checkNull(varInt);
 		
@@ -138,13 +288,37 @@ public final class BigInt {
 		
 		if (varInt.length == 1) {
 			// First byte represents the integer, hence return the smme ...
-			return BigInteger.valueOf(varInt[0]);
+			return BigInteger.valueOf(varInt[0] & 0xff);
 		}
 		
 		// We construct integer from the little endian representation ...
 		return fromLittleEndian(varInt);
 	}
 	
+	// Number of bytes toVarInt takes for the given value, read as unsigned ...
+	public static int sizeOfVarInt(long value) {
+		if (value >= 0 && value < 0xfd) {
+			return 1;
+		}
+		
+		if (value >= 0 && value <= 0xffff) {
+			return 3;
+		}
+		
+		if (value >= 0 && value <= 0xffffffffL) {
+			return 5;
+		}
+		
+		return 9;
+	}
+	
+	public static byte[] toVarInt(long value) {
+		byte[] varInt = new byte[sizeOfVarInt(value)];
+		writeVarInt(value, varInt, 0);
+		
+		return varInt;
+	}
+	
 	public static byte[] toVarInt(BigInteger a) {
 		checkNull(a);
 		
@@ -152,23 +326,11 @@ public final class BigInt {
 			return new byte[] {a.byteValue()};
 		}
 		
-		byte prefix;
-		byte[] littleEndian = toLittleEndian(a);
-		int bytesToTake = 0;
-		
-		if (isThisLessThanThat(a, HEX_16_POW_4)) {
-			prefix = HEX_FD;
-			bytesToTake = 2;
-		} else if (isThisLessThanThat(a, HEX_16_POW_8)) {
-			prefix = HEX_FE;
-			bytesToTake = 4;
-		} else if (isThisLessThanThat(a, HEX_16_POW_16)) {
-			prefix = HEX_FF;
-			bytesToTake = 8;
-		} else {
+		if (a.bitLength() > 64) {
 			throw new IllegalArgumentException("Integer is too large for the varint type.");
 		}
 		
-		return stitch(prefix, littleEndian, 0, bytesToTake);
+		// Up to 64 bits fit a long, read as unsigned ...
+		return toVarInt(a.longValue());
 	}
 }
@@ -1,33 +1,40 @@
 package bitcoin.util;
 
-import static bitcoin.util.Bytes.newBytes;
 import static bitcoin.util.Functions.checkNull;
 
 import java.math.BigInteger;
-import java.util.Arrays;
 
 public final class BloomFilter {
 	public static final int BIP37_CONSTANT = 0xfba4c795;
 	
 	private BigInteger functionCount;
 	private BigInteger tweak;
-	private byte[] bitsField;
+	
+	// The bit field is kept as 64 bit words, bit i of the filter is bit (i % 64) of
+	// word (i / 64), which is the same bit order as the little endian bytes on the wire ...
+	private long[] bits;
+	private int size;
 	private int numBits;
 	
+	private int numFunctions;
+	private int seed;
+	
 	private boolean modifiable;
 	
-	private BloomFilter(byte[] bitsField, BigInteger functionCount, BigInteger tweak) {
-		checkNull(bitsField, functionCount, tweak);		
-
+	private BloomFilter(long[] bits, int size, BigInteger functionCount, BigInteger tweak) {
+		checkNull(bits, functionCount, tweak);
+		
 		this.functionCount = functionCount;
 		this.tweak = tweak;
-		this.bitsField = bitsField;
-		this.numBits = bitsField.length * 8;
+		this.bits = bits;
+		this.size = size;
+		this.numBits = size * 8;
+		this.numFunctions = functionCount.intValue();
+		this.seed = tweak.intValue();
 	}
 	
-	public BloomFilter(int size, BigInteger functionCount, BigInteger tweak) {	
-		this(new byte[size], functionCount, tweak);
-		Arrays.fill(bitsField, (byte)0);
+	public BloomFilter(int size, BigInteger functionCount, BigInteger tweak) {
+		this(new long[(size + 7) / 8], size, functionCount, tweak);
 		
 		this.modifiable = true;
 	}
@@ -40,8 +47,17 @@ public final class BloomFilter {
 		return tweak;
 	}
 	
+	public int getSize() {
+		return size;
+	}
+	
 	public byte[] getBitsField() {
-		return newBytes(bitsField);
+		byte[] bitsField = new byte[size];
+		for (int i = 0; i < size; ++i) {
+			bitsField[i] = (byte)(bits[i >>> 3] >>> ((i & 7) << 3));
+		}
+		
+		return bitsField;
 	}
 	
 	public void add(byte[] data) {
@@ -49,25 +65,60 @@ public final class BloomFilter {
 			throw new UnsupportedOperationException("BloomFilter is not modifiable.");
 		}
 		
-		int numFunctions = functionCount.intValue();
-		int entropy = tweak.intValue();
+		checkNull(data);
+		
+		if (numBits == 0) {
+			return;
+		}
+		
+		for (int i = 0; i < numFunctions; ++i) {
+			int bit = bitFor(data, i); // This gives the bit that needs to be set ..
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+	
+	public boolean contains(byte[] data) {
+		checkNull(data);
+		
+		if (numBits == 0) {
+			return false;
+		}
 		
 		for (int i = 0; i < numFunctions; ++i) {
-			int seed = i * BIP37_CONSTANT + entropy;
-			int hash = Murmur3.of(data, seed);
-			int bit = hash % numBits; // This gives the bit that needs to be set ..
-			bit = bit < 0 ? numBits + bit : bit;
-			
-			int block = bit / 8; // This gives us the byte in which the bit exists ...
-			int index = bit - block * 8; // This gives the position of the bit within the byte ...
-			int marker = 1 << index;
-			
-			bitsField[block] = (byte)(bitsField[block] | marker);
+			int bit = bitFor(data, i);
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
 		}
+		
+		return true;
+	}
+	
+	// Returns a modifiable copy of this filter, as needed by a node that updates
+	// the filter loaded by a peer when transactions match ...
+	public BloomFilter copy() {
+		BloomFilter filter = new BloomFilter(bits.clone(), size, functionCount, tweak);
+		filter.modifiable = true;
+		
+		return filter;
 	}
 	
 	public static BloomFilter from(byte[] bitsField, BigInteger functionCount, BigInteger tweak) {
-		BloomFilter filter = new BloomFilter(bitsField, functionCount, tweak);
+		checkNull(bitsField);
+		
+		long[] bits = new long[(bitsField.length + 7) / 8];
+		for (int i = 0; i < bitsField.length; ++i) {
+			bits[i >>> 3] |= (bitsField[i] & 0xffL) << ((i & 7) << 3);
+		}
+		
+		BloomFilter filter = new BloomFilter(bits, bitsField.length, functionCount, tweak);
 		return filter;
 	}
+	
+	private int bitFor(byte[] data, int function) {
+		int hash = Murmur3.of(data, function * BIP37_CONSTANT + seed);
+		
+		// The hash is an unsigned 32 bit value ...
+		return (int)(Integer.toUnsignedLong(hash) % numBits);
+	}
 }
@@ -2,10 +2,13 @@ package bitcoin.util;
 
 import static bitcoin.util.BigInt.from;
 import static bitcoin.util.BigInt.isThisGreaterThanThat;
+import static bitcoin.util.BigInt.readLongLE;
+import static bitcoin.util.BigInt.writeIntLE;
 import static bitcoin.util.Functions.checkNull;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public final class Bytes {
@@ -23,6 +26,30 @@ public final class Bytes {
 	
 	private static final BigInteger FIFTY_EIGHT = from(58);
 	
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	// The two ASCII digits of every byte value, the first one in the low byte ...
+	private static final short[] HEX_PAIRS = new short[256];
+	
+	// Value of every ASCII character as a hex digit, -1 when it is not one ...
+	private static final byte[] HEX_VALUES = new byte[128];
+	
+	// Every byte set to 1 and to 0x80, for working on the 8 bytes of a long at once ...
+	private static final long SWAR_ONES = 0x0101010101010101L;
+	private static final long SWAR_HIGH = 0x8080808080808080L;
+	
+	static {
+		for (int i = 0; i < HEX_PAIRS.length; ++i) {
+			HEX_PAIRS[i] = (short)(HEX_DIGITS[i >>> 4] | HEX_DIGITS[i & 0xf] << 8);
+		}
+		
+		Arrays.fill(HEX_VALUES, (byte)-1);
+		for (int i = 0; i < 16; ++i) {
+			HEX_VALUES[HEX_DIGITS[i]] = (byte)i;
+			HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte)i;
+		}
+	}
+	
 	private Bytes() {}
 	
 	public static byte[] get(int howMany, byte fillWith) {
@@ -56,9 +83,9 @@ public final class Bytes {
 	public static Character[] toCharacters(byte b) {
 		Character[] chars = new Character[2];
 		// Isolate the higher order 4 bits first, and then find the character representation ... 
-		chars[0] = Character.forDigit((b >> 4) & 0xF, 16);
+		chars[0] = Character.valueOf(HEX_DIGITS[(b >> 4) & 0xF]);
 		// Next isolate the lower order 4 bits, and then find the character representation ... 
-		chars[1] = Character.forDigit(b & 0xF, 16);
+		chars[1] = Character.valueOf(HEX_DIGITS[b & 0xF]);
 		
 		return chars;
 	}
@@ -84,11 +111,13 @@ public final class Bytes {
 			throw new IllegalArgumentException("Array index cannot be negative.");
 		}
 		
-		for (int i = startAt; i < endAt;++i) {
-			byte b = bytes[i];
-			Character[] chars = toCharacters(b);			
-			accumulator.append(chars[0]);
-			accumulator.append(chars[1]);
+		checkRange(startAt, endAt, bytes.length);
+		
+		accumulator.ensureCapacity(accumulator.length() + 2 * (endAt - startAt));
+		for (int i = startAt; i < endAt; ++i) {
+			int pair = HEX_PAIRS[bytes[i] & 0xff];
+			accumulator.append((char)(pair & 0xff));
+			accumulator.append((char)(pair >>> 8));
 		}
 	}
 	
@@ -101,24 +130,66 @@ public final class Bytes {
 			throw new IllegalArgumentException("Bytes cannot be null");
 		}
 		
-		StringBuilder accumulator = new StringBuilder(2*given.length);
+		checkRange(start, end, given.length);
 		
-		accumulateByteToHex(accumulator, start, end, given);
+		// Encoded straight into ASCII, which the String takes in as is ...
+		byte[] ascii = new byte[2 * (end - start)];
+		bytesToHex(given, start, end, ascii, 0);
+		
+		return new String(ascii, StandardCharsets.ISO_8859_1);
+	}
+	
+	// Encodes the remaining bytes of the buffer, its position is left as it was ...
+	public static String bytesToHex(ByteBuffer given) {
+		checkNull(given);
+		
+		byte[] ascii = new byte[2 * given.remaining()];
+		for (int i = given.position(), offset = 0; i < given.limit(); ++i, offset += 2) {
+			writeShortLE(HEX_PAIRS[given.get(i) & 0xff], ascii, offset);
+		}
+		
+		return new String(ascii, StandardCharsets.ISO_8859_1);
+	}
+	
+	// Encodes a range of bytes as lowercase ASCII hex, two bytes of output for each
+	// byte of input, written from the given offset ...
+	public static void bytesToHex(byte[] given, int start, int end, byte[] ascii, int offset) {
+		checkNull(given, ascii);
+		checkRange(start, end, given.length);
+		checkRange(offset, offset + 2 * (end - start), ascii.length);
 		
-		return accumulator.toString();
+		for (int i = start; i < end; ++i, offset += 2) {
+			writeShortLE(HEX_PAIRS[given[i] & 0xff], ascii, offset);
+		}
 	}
 	
 	public static byte hexCharsToByte(char hex1, char hex2) {
-		byte b1 = (byte)Character.getNumericValue(hex1);
-		byte b2 = (byte)Character.getNumericValue(hex2);
+		int b1 = hexValue(hex1);
+		int b2 = hexValue(hex2);
+		if ((b1 | b2) < 0) {
+			throw new IllegalArgumentException("Hex not valid.");
+		}
+		
 		return (byte)(b1 << 4 | b2);
 	}
 	
+	// Value of a hex digit, either case, or -1 for anything else ...
+	public static int hexValue(char c) {
+		return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+	}
+	
 	public static byte[] hexToBytes(String hex) {		
 		checkNull(hex);
 		
 		hex = hex.trim();
-		return hexToBytes(hex.toCharArray());
+		if (hex.isEmpty()) {
+			throw new IllegalArgumentException("Stating index is not correct.");
+		}
+		
+		byte[] result = new byte[halfOf(hex.length())];
+		hexToBytes(hex, 0, hex.length(), result, 0);
+		
+		return result;
 	}
 	
 	public static byte[] hexToBytes(char[] hex) {
@@ -138,25 +209,132 @@ public final class Bytes {
 			throw new IllegalArgumentException("Ending index is not correct.");
 		}
 		
-		int length = end - start;		
+		byte[] result = new byte[halfOf(end - start)];
+		hexToBytes(hex, start, end, result, 0);
 		
-		if (length % 2 != 0) {
-			throw new IllegalArgumentException("Hex not valid.");
+		return result;
+	}
+	
+	// Decodes the given range of hex characters into the array at the given offset ...
+	public static void hexToBytes(char[] hex, int start, int end, byte[] bytes, int offset) {
+		checkNull(hex, bytes);
+		checkRange(start, end, hex.length);
+		checkRange(offset, offset + halfOf(end - start), bytes.length);
+		
+		for (int i = start; i < end; i += 2) {
+			bytes[offset++] = hexCharsToByte(hex[i], hex[i + 1]);
 		}
+	}
+	
+	public static void hexToBytes(CharSequence hex, int start, int end, byte[] bytes, int offset) {
+		checkNull(hex, bytes);
+		checkRange(start, end, hex.length());
+		checkRange(offset, offset + halfOf(end - start), bytes.length);
 		
-		int halfLength = length / 2;
-		byte[] result = new byte[halfLength];
-		int i = 0;
-		int index = start;
-		while (index < hex.length) {			
-			byte r = hexCharsToByte(hex[index], hex[index + 1]);
-			index = index + 2;
-			result[i++] = r;
+		for (int i = start; i < end; i += 2) {
+			bytes[offset++] = hexCharsToByte(hex.charAt(i), hex.charAt(i + 1));
 		}
+	}
+	
+	// Decodes hex given as ASCII bytes, as read from a file or socket, so no characters
+	// are ever made. Runs of 16 digits are decoded 8 bytes at a time ...
+	public static byte[] hexToBytes(byte[] ascii, int start, int end) {
+		checkNull(ascii);
+		
+		byte[] result = new byte[halfOf(end - start)];
+		hexToBytes(ascii, start, end, result, 0);
 		
 		return result;
 	}
 	
+	public static void hexToBytes(byte[] ascii, int start, int end, byte[] bytes, int offset) {
+		checkNull(ascii, bytes);
+		checkRange(start, end, ascii.length);
+		checkRange(offset, offset + halfOf(end - start), bytes.length);
+		
+		int i = start;
+		for (; end - i >= 16; i += 16, offset += 8) {
+			int high = decodeHexWord(readLongLE(ascii, i));
+			int low = decodeHexWord(readLongLE(ascii, i + 8));
+			writeIntLE(high, bytes, offset);
+			writeIntLE(low, bytes, offset + 4);
+		}
+		
+		for (; i < end; i += 2) {
+			bytes[offset++] = hexCharsToByte((char)(ascii[i] & 0xff), (char)(ascii[i + 1] & 0xff));
+		}
+	}
+	
+	// Decodes the remaining ASCII hex of the buffer, its position is left as it was ...
+	public static byte[] hexToBytes(ByteBuffer ascii) {
+		checkNull(ascii);
+		
+		if (ascii.hasArray()) {
+			int start = ascii.arrayOffset() + ascii.position();
+			return hexToBytes(ascii.array(), start, start + ascii.remaining());
+		}
+		
+		int i = ascii.position();
+		int end = ascii.limit();
+		byte[] result = new byte[halfOf(end - i)];
+		int offset = 0;
+		for (; end - i >= 8; i += 8, offset += 4) {
+			writeIntLE(decodeHexWord(readLongLE(ascii, i)), result, offset);
+		}
+		
+		for (; i < end; i += 2) {
+			result[offset++] = hexCharsToByte((char)(ascii.get(i) & 0xff), (char)(ascii.get(i + 1) & 0xff));
+		}
+		
+		return result;
+	}
+	
+	// Decodes 8 ASCII hex digits, held little endian in a long, into 4 bytes held little
+	// endian in an int. Every digit is checked and converted at once within the long,
+	// without a branch or a table lookup per character ...
+	private static int decodeHexWord(long x) {
+		// Digits '0' to '9', taken as is ...
+		long digits = (x + SWAR_ONES * (0x80 - '0')) & ~(x + SWAR_ONES * (0x7f - '9'));
+		
+		// Letters 'a' to 'f' after folding 'A' to 'F' into lowercase ...
+		long folded = x | SWAR_ONES * 0x20;
+		long letters = (folded + SWAR_ONES * (0x80 - 'a')) & ~(folded + SWAR_ONES * (0x7f - 'f'));
+		
+		// The range checks above hold only for ASCII, so anything else fails too ...
+		if ((x & SWAR_HIGH) != 0 || ((digits | letters) & SWAR_HIGH) != SWAR_HIGH) {
+			throw new IllegalArgumentException("Hex not valid.");
+		}
+		
+		// The low nibble is the value of a digit, for a letter it is the value less 9 ...
+		long values = (x & SWAR_ONES * 0x0f) + ((letters & SWAR_HIGH) >>> 7) * 9;
+		
+		// Join every digit with the one after it, the high nibble coming first, and
+		// gather the four resulting bytes together ...
+		long joined = ((values << 4) | (values >>> 8)) & 0x00ff00ff00ff00ffL;
+		joined = (joined | (joined >>> 8)) & 0x0000ffff0000ffffL;
+		
+		return (int)(joined | (joined >>> 16));
+	}
+	
+	private static int halfOf(int length) {
+		if ((length & 1) != 0) {
+			throw new IllegalArgumentException("Hex not valid.");
+		}
+		
+		return length / 2;
+	}
+	
+	private static void checkRange(int start, int end, int length) {
+		if (start < 0 || start > end || end > length) {
+			throw new ArrayIndexOutOfBoundsException(start < 0 || start > end ? start : end);
+		}
+	}
+	
+	private static void writeShortLE(int value, byte[] bytes, int offset) {
+		bytes[offset] = (byte)value;
+		bytes[offset + 1] = (byte)(value >>> 8);
+	}
+	
 	public static String bytesToBase58(byte[] given) {		
 		if (isNullOrEmpty(given)) {
 			throw new IllegalArgumentException("Bytes cannot be null");
@@ -2,10 +2,18 @@ package bitcoin.util;
 
 public abstract class BytesEncodeable {
 	public final byte[] toBytes() {
-		OutputSink sink = new OutputSink();
+		OutputSink sink = new OutputSink(serializedSize());
 		writeTo(sink);
 		return sink.toByteArray();
 	}
 	
+	// Number of bytes written by writeTo. By default the content is written to a sink
+	// that only counts, types with a known layout work it out arithmetically instead ...
+	public int serializedSize() {
+		OutputSink sink = OutputSink.counting();
+		writeTo(sink);
+		return sink.size();
+	}
+	
 	public abstract void writeTo(OutputSink sink);	
 }
@@ -3,6 +3,9 @@ package bitcoin.util;
 import static bitcoin.util.Functions.checkNull;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -18,6 +21,24 @@ public final class Crypto {
 		Security.addProvider(new BouncyCastleProvider());
 	}
 	
+	public static final int HASH_LENGTH = 32;
+	
+	// Digests are not thread safe, hence every thread gets its own instance
+	// along with a scratch buffer to hold the intermediate (first round) hash ...
+	private static final ThreadLocal<MessageDigest> SHA256_DIGEST = 
+		new ThreadLocal<MessageDigest>() {
+			@Override protected MessageDigest initialValue() {
+				return newDigest("SHA-256", null);
+			}
+	};
+	
+	private static final ThreadLocal<byte[]> SHA256_SCRATCH = 
+		new ThreadLocal<byte[]>() {
+			@Override protected byte[] initialValue() {
+				return new byte[HASH_LENGTH];
+			}
+	};
+	
 	private Crypto() {}
 	
 	public static byte[] sha1(byte[] content) {
@@ -33,10 +54,135 @@ public final class Crypto {
 		return digest(digest(content, "SHA-256", null), "SHA-256", null);
 	}
 	
+	// Computes hash256 over the given range of bytes and writes the 32 byte result
+	// into the output array at the given offset. Output may overlap the input since
+	// the whole input is consumed before anything gets written ...
+	public static void hash256(byte[] content, int offset, int length, byte[] out, int outOffset) {
+		checkNull(content, out);
+		
+		MessageDigest digestor = SHA256_DIGEST.get();
+		byte[] scratch = SHA256_SCRATCH.get();
+		try {
+			digestor.update(content, offset, length);
+			digestor.digest(scratch, 0, HASH_LENGTH);
+			
+			digestor.update(scratch, 0, HASH_LENGTH);
+			digestor.digest(out, outOffset, HASH_LENGTH);
+		} catch (DigestException e) {
+			digestor.reset();
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// Computes hash256 over the given ranges of bytes taken one after another, the
+	// ranges being pairs of offset and length. Lets a serialization that skips some
+	// of its parts, such as the witness data, be hashed without copying it first ...
+	public static void hash256(byte[] content, int[] ranges, byte[] out, int outOffset) {
+		checkNull(content, ranges, out);
+		
+		if ((ranges.length & 1) != 0) {
+			throw new IllegalArgumentException("Ranges must come in pairs.");
+		}
+		
+		// Checked up front, so that a bad range cannot leave the digest half updated ...
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (ranges[i] < 0 || ranges[i + 1] < 0 || ranges[i] + ranges[i + 1] > content.length) {
+				throw new ArrayIndexOutOfBoundsException(ranges[i]);
+			}
+		}
+		
+		MessageDigest digestor = SHA256_DIGEST.get();
+		byte[] scratch = SHA256_SCRATCH.get();
+		try {
+			for (int i = 0; i < ranges.length; i += 2) {
+				digestor.update(content, ranges[i], ranges[i + 1]);
+			}
+			
+			digestor.digest(scratch, 0, HASH_LENGTH);
+			
+			digestor.update(scratch, 0, HASH_LENGTH);
+			digestor.digest(out, outOffset, HASH_LENGTH);
+		} catch (DigestException e) {
+			digestor.reset();
+			throw new RuntimeException(e);
+		}
+	}
+	
 	public static byte[] hash160(byte[] content) {
 		return digest(sha256(content), "RipeMD160", BouncyCastleProvider.PROVIDER_NAME);
 	}
 	
+	// Returns the SHA-256 digest of the calling thread, reset, for content that is
+	// streamed in parts rather than put together first. The hash256 functions above
+	// use the same digest, so it must be finished before any of them is called ...
+	public static MessageDigest sha256Digest() {
+		MessageDigest digestor = SHA256_DIGEST.get();
+		digestor.reset();
+		
+		return digestor;
+	}
+	
+	// Completes a hash256 whose content was streamed into the given SHA-256 digest,
+	// by hashing its result once more, and writes the 32 bytes to the output ...
+	public static void finishHash256(MessageDigest digestor, byte[] out, int outOffset) {
+		checkNull(digestor, out);
+		
+		byte[] scratch = SHA256_SCRATCH.get();
+		try {
+			digestor.digest(scratch, 0, HASH_LENGTH);
+			
+			digestor.update(scratch, 0, HASH_LENGTH);
+			digestor.digest(out, outOffset, HASH_LENGTH);
+		} catch (DigestException e) {
+			digestor.reset();
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// Returns a SHA-256 digest that has taken in the prefix of a BIP340 tagged hash,
+	// the hash of the tag twice. Copies of it start from that midstate, so the prefix
+	// is hashed once per tag rather than once per message ...
+	public static MessageDigest taggedDigest(String tag) {
+		checkNull(tag);
+		
+		byte[] tagHash = sha256(tag.getBytes(StandardCharsets.UTF_8));
+		
+		MessageDigest digestor = newDigest("SHA-256", null);
+		digestor.update(tagHash);
+		digestor.update(tagHash);
+		
+		return digestor;
+	}
+	
+	// Copies a digest along with everything it has taken in, the given one is left as it is ...
+	public static MessageDigest copyOf(MessageDigest digestor) {
+		checkNull(digestor);
+		
+		try {
+			return (MessageDigest)digestor.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// The variants below hash the remaining bytes of a buffer, such as a read only
+	// view of script data, leaving its position as it was ...
+	public static byte[] sha1(ByteBuffer content) {
+		return digest(content, "SHA-1", null);
+	}
+	
+	public static byte[] sha256(ByteBuffer content) {
+		return digest(content, "SHA-256", null);
+	}
+	
+	public static byte[] hash256(ByteBuffer content) {
+		return digest(sha256(content), "SHA-256", null);
+	}
+	
+	public static byte[] hash160(ByteBuffer content) {
+		return digest(sha256(content), "RipeMD160", BouncyCastleProvider.PROVIDER_NAME);
+	}
+	
 	public static BigInteger sha256BigInt(byte[] content) {
 		byte[] hash = sha256(content);
 		// Use '1' to indicate an unsigned value ...
@@ -62,17 +208,27 @@ public final class Crypto {
 	private static byte[] digest(byte[] content, String algorithm, String provider) {
 		checkNull(content);
 		
-		MessageDigest digestor;
+		return newDigest(algorithm, provider).digest(content);
+	}
+	
+	private static byte[] digest(ByteBuffer content, String algorithm, String provider) {
+		checkNull(content);
+		
+		MessageDigest digestor = newDigest(algorithm, provider);
+		digestor.update(content.duplicate());
+		
+		return digestor.digest();
+	}
+	
+	private static MessageDigest newDigest(String algorithm, String provider) {
 		try {
 			if (provider == null) {
-				digestor = MessageDigest.getInstance(algorithm);
-			} else {
-				digestor = MessageDigest.getInstance(algorithm, provider);
+				return MessageDigest.getInstance(algorithm);
 			}
+			
+			return MessageDigest.getInstance(algorithm, provider);
 		} catch (NoSuchAlgorithmException | NoSuchProviderException e) {
 			throw new RuntimeException(e);
 		}
-		
-		return digestor.digest(content);
 	}
 }
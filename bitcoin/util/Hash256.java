@@ -0,0 +1,206 @@
+package bitcoin.util;
+
+import static bitcoin.util.BigInt.readLongLE;
+import static bitcoin.util.BigInt.toLittleEndian;
+import static bitcoin.util.BigInt.writeLongLE;
+import static bitcoin.util.Bytes.bytesToHex;
+import static bitcoin.util.Bytes.hexToBytes;
+import static bitcoin.util.Crypto.HASH_LENGTH;
+import static bitcoin.util.Functions.checkNull;
+
+import java.math.BigInteger;
+
+// Immutable 32 byte hash, such as a transaction or block id, kept as four little
+// endian words of its internal (wire) byte order. The display order, as shown by
+// explorers and used for the BigInteger form, is the same bytes reversed. The hash
+// code is worked out once, so instances are cheap keys for maps and sets ...
+public final class Hash256 extends BytesEncodeable implements Comparable<Hash256> {
+	public static final Hash256 ZERO = new Hash256(0, 0, 0, 0);
+	
+	// Words of the internal byte order, w0 holds bytes 0 to 7 ...
+	private final long w0;
+	private final long w1;
+	private final long w2;
+	private final long w3;
+	
+	private final long hash;
+	
+	private Hash256(long w0, long w1, long w2, long w3) {
+		this.w0 = w0;
+		this.w1 = w1;
+		this.w2 = w2;
+		this.w3 = w3;
+		this.hash = mix(w0 ^ Long.rotateLeft(w1, 16) ^ Long.rotateLeft(w2, 32) ^ Long.rotateLeft(w3, 48));
+	}
+	
+	public static Hash256 fromInternal(byte[] bytes) {
+		checkNull(bytes);
+		
+		if (bytes.length != HASH_LENGTH) {
+			throw new IllegalArgumentException("Hash not valid.");
+		}
+		
+		return fromInternal(bytes, 0);
+	}
+	
+	// Takes the 32 bytes at the given offset, as found on the wire ...
+	public static Hash256 fromInternal(byte[] bytes, int offset) {
+		checkNull(bytes);
+		
+		if (offset < 0 || offset + HASH_LENGTH > bytes.length) {
+			throw new ArrayIndexOutOfBoundsException(offset);
+		}
+		
+		return new Hash256(readLongLE(bytes, offset), readLongLE(bytes, offset + 8),
+				readLongLE(bytes, offset + 16), readLongLE(bytes, offset + 24));
+	}
+	
+	public static Hash256 fromDisplay(byte[] bytes) {
+		checkNull(bytes);
+		
+		if (bytes.length != HASH_LENGTH) {
+			throw new IllegalArgumentException("Hash not valid.");
+		}
+		
+		// Display order is the internal order reversed, so every word is read big
+		// endian and the words come in reverse ...
+		return new Hash256(Long.reverseBytes(readLongLE(bytes, 24)), Long.reverseBytes(readLongLE(bytes, 16)),
+				Long.reverseBytes(readLongLE(bytes, 8)), Long.reverseBytes(readLongLE(bytes, 0)));
+	}
+	
+	// Parses the 64 hex characters of a hash in display order ...
+	public static Hash256 fromHex(String hex) {
+		checkNull(hex);
+		
+		if (hex.length() != 2 * HASH_LENGTH) {
+			throw new IllegalArgumentException("Hash not valid.");
+		}
+		
+		return fromDisplay(hexToBytes(hex));
+	}
+	
+	// Takes the value of a hash in display order, as kept by the BigInteger based classes ...
+	public static Hash256 of(BigInteger value) {
+		checkNull(value);
+		
+		if (value.signum() < 0 || value.bitLength() > 8 * HASH_LENGTH) {
+			throw new IllegalArgumentException("Hash not valid.");
+		}
+		
+		return fromInternal(toLittleEndian(value, HASH_LENGTH), 0);
+	}
+	
+	// Reads the next 32 bytes of the source, nothing else is allocated ...
+	public static Hash256 read(InputSource source) {
+		checkNull(source);
+		
+		return new Hash256(source.readNextLongLE(), source.readNextLongLE(),
+				source.readNextLongLE(), source.readNextLongLE());
+	}
+	
+	public byte[] toInternalBytes() {
+		byte[] bytes = new byte[HASH_LENGTH];
+		copyTo(bytes, 0);
+		
+		return bytes;
+	}
+	
+	public byte[] toDisplayBytes() {
+		byte[] bytes = new byte[HASH_LENGTH];
+		writeLongLE(Long.reverseBytes(w3), bytes, 0);
+		writeLongLE(Long.reverseBytes(w2), bytes, 8);
+		writeLongLE(Long.reverseBytes(w1), bytes, 16);
+		writeLongLE(Long.reverseBytes(w0), bytes, 24);
+		
+		return bytes;
+	}
+	
+	// Copies the internal byte order to the given offset ...
+	public void copyTo(byte[] bytes, int offset) {
+		checkNull(bytes);
+		
+		if (offset < 0 || offset + HASH_LENGTH > bytes.length) {
+			throw new ArrayIndexOutOfBoundsException(offset);
+		}
+		
+		writeLongLE(w0, bytes, offset);
+		writeLongLE(w1, bytes, offset + 8);
+		writeLongLE(w2, bytes, offset + 16);
+		writeLongLE(w3, bytes, offset + 24);
+	}
+	
+	public BigInteger toBigInteger() {
+		return new BigInteger(1, toDisplayBytes());
+	}
+	
+	public boolean isZero() {
+		return (w0 | w1 | w2 | w3) == 0;
+	}
+	
+	public void writeTo(OutputSink sink) {
+		checkNull(sink);
+		
+		sink.writeLongLE(w0);
+		sink.writeLongLE(w1);
+		sink.writeLongLE(w2);
+		sink.writeLongLE(w3);
+	}
+	
+	public int serializedSize() {
+		return HASH_LENGTH;
+	}
+	
+	public long longHashCode() {
+		return hash;
+	}
+	
+	public int hashCode() {
+		return (int)(hash ^ (hash >>> 32));
+	}
+	
+	public boolean equals(Object another) {
+		if (another instanceof Hash256) {
+			Hash256 other = (Hash256)another;
+			
+			return hash == other.hash && w0 == other.w0 && w1 == other.w1 &&
+					w2 == other.w2 && w3 == other.w3;
+		}
+		
+		return false;
+	}
+	
+	// Orders the same as the BigInteger values do. The most significant display byte
+	// is the last internal one, the top byte of w3 ...
+	public int compareTo(Hash256 other) {
+		int c = Long.compareUnsigned(w3, other.w3);
+		if (c == 0) {
+			c = Long.compareUnsigned(w2, other.w2);
+		}
+		
+		if (c == 0) {
+			c = Long.compareUnsigned(w1, other.w1);
+		}
+		
+		if (c == 0) {
+			c = Long.compareUnsigned(w0, other.w0);
+		}
+		
+		return c;
+	}
+	
+	// Display order hex, as used for transaction and block ids ...
+	public String toString() {
+		return bytesToHex(toDisplayBytes());
+	}
+	
+	// Finalizer of murmur3, spreads every bit of the words over the hash code ...
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		
+		return h;
+	}
+}
@@ -1,72 +1,465 @@
 package bitcoin.util;
 
-import static bitcoin.util.Bytes.newBytes;
+import static bitcoin.util.BigInt.fromUnsigned;
+import static bitcoin.util.BigInt.readIntLE;
+import static bitcoin.util.BigInt.readLongLE;
+import static bitcoin.util.BigInt.readVarInt;
+import static bitcoin.util.Bytes.EMPTY_BYTES;
+import static bitcoin.util.Bytes.hexCharsToByte;
+import static bitcoin.util.Bytes.hexToBytes;
 import static bitcoin.util.Functions.checkNull;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 
-public final class InputSource {
-	private transient InputStream stream;
-	private transient byte[] bytes;
-	private transient Reader reader;
-	private transient int bIndex;
+// Source of the bytes parsed into transactions, blocks and messages. The bytes come
+// from a ByteBuffer (or array), from a blocking channel (or stream) through a reusable
+// refill buffer, or from hex text decoded on the fly. Instances are not thread safe ...
+public abstract class InputSource {
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
 	
-	private InputSource(InputStream source) {
-		checkNull(source);
+	// Reads straight from a buffer, slices are views sharing its content ...
+	private static final class BufferSource extends InputSource {
+		private final ByteBuffer buffer;
+		private int mark = -1;
+		
+		BufferSource(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		public int readNextUnsignedByte(boolean expected) {
+			if (!buffer.hasRemaining()) {
+				return endOfData(expected);
+			}
+			
+			return buffer.get() & 0xff;
+		}
+		
+		public int readNextIntLE() {
+			checkRemaining(4);
+			
+			int value = readIntLE(buffer, buffer.position());
+			buffer.position(buffer.position() + 4);
+			
+			return value;
+		}
+		
+		public long readNextLongLE() {
+			checkRemaining(8);
+			
+			long value = readLongLE(buffer, buffer.position());
+			buffer.position(buffer.position() + 8);
+			
+			return value;
+		}
 		
-		this.stream = source;
+		public long readNextVarLong() {
+			// The prefix tells how many more bytes the varint takes ...
+			if (!buffer.hasRemaining()) {
+				return endOfData(true);
+			}
+			
+			int prefix = buffer.get(buffer.position()) & 0xff;
+			checkRemaining(prefix < 0xfd ? 1 : prefix == 0xfd ? 3 : prefix == 0xfe ? 5 : 9);
+			
+			return readVarInt(buffer);
+		}
+		
+		public ByteBuffer readNextSlice(int nBytes) {
+			checkCount(nBytes);
+			
+			checkRemaining(nBytes);
+			
+			ByteBuffer slice = buffer.slice(buffer.position(), nBytes).asReadOnlyBuffer();
+			buffer.position(buffer.position() + nBytes);
+			
+			return slice;
+		}
+		
+		public byte[] readRemainingBytes() {
+			byte[] bytes = buffer.hasRemaining() ? new byte[buffer.remaining()] : EMPTY_BYTES;
+			buffer.get(bytes);
+			
+			return bytes;
+		}
+		
+		public long position() {
+			return buffer.position();
+		}
+		
+		public boolean markSupported() {
+			return true;
+		}
+		
+		public void mark() {
+			mark = buffer.position();
+		}
+		
+		public void reset() {
+			if (mark < 0) {
+				throw new IllegalStateException("No mark set.");
+			}
+			
+			buffer.position(mark);
+			mark = -1;
+		}
+		
+		protected int read(byte[] dst, int offset, int length) {
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(dst, offset, count);
+			
+			return count;
+		}
+		
+		private void checkRemaining(int nBytes) {
+			if (buffer.remaining() < nBytes) {
+				throw new IllegalStateException("Expected bytes not available in stream.");
+			}
+		}
 	}
 	
-	private InputSource(byte[] source) {
-		checkNull(source);
+	// Reads a channel through one buffer that is refilled as it gets consumed. Only
+	// the bytes from the mark (if any) on are kept on a refill, so the buffer grows
+	// just when a marked region does not fit ...
+	private static final class ChannelSource extends InputSource {
+		private final ReadableByteChannel channel;
+		private ByteBuffer buffer;
+		
+		// Position in the channel of the first byte of the buffer ...
+		private long offset;
+		private int mark = -1;
+		private boolean ended;
+		
+		ChannelSource(ReadableByteChannel channel, int bufferSize) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocate(bufferSize);
+			this.buffer.limit(0);
+		}
+		
+		public int readNextUnsignedByte(boolean expected) {
+			if (!buffer.hasRemaining() && !refill()) {
+				return endOfData(expected);
+			}
+			
+			return buffer.get() & 0xff;
+		}
+		
+		public long position() {
+			return offset + buffer.position();
+		}
 		
-		this.bytes = source;
+		public boolean markSupported() {
+			return true;
+		}
+		
+		public void mark() {
+			mark = buffer.position();
+		}
+		
+		public void reset() {
+			if (mark < 0) {
+				throw new IllegalStateException("No mark set.");
+			}
+			
+			buffer.position(mark);
+			mark = -1;
+		}
+		
+		protected int read(byte[] dst, int offset, int length) {
+			int count = 0;
+			while (count < length) {
+				if (!buffer.hasRemaining()) {
+					// Large reads go straight to the destination when nothing needs
+					// to be kept, which saves copying them through the buffer ...
+					if (mark < 0 && length - count >= buffer.capacity()) {
+						int n = readDirect(dst, offset + count, length - count);
+						count += n;
+						break;
+					}
+					
+					if (!refill()) {
+						break;
+					}
+				}
+				
+				int n = Math.min(length - count, buffer.remaining());
+				buffer.get(dst, offset + count, n);
+				count += n;
+			}
+			
+			return count;
+		}
+		
+		private int readDirect(byte[] dst, int start, int length) {
+			ByteBuffer target = ByteBuffer.wrap(dst, start, length);
+			try {
+				while (target.hasRemaining() && !ended) {
+					ended = channel.read(target) == -1;
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading from channel.", e);
+			}
+			
+			int count = target.position() - start;
+			offset += buffer.position() + count;
+			buffer.clear().limit(0);
+			
+			return count;
+		}
+		
+		private boolean refill() {
+			if (ended) {
+				return false;
+			}
+			
+			int keep = mark < 0 ? buffer.position() : mark;
+			int position = buffer.position() - keep;
+			
+			// Move the kept bytes to the start and get ready to append ...
+			buffer.position(keep);
+			buffer.compact();
+			offset += keep;
+			if (mark >= 0) {
+				mark = 0;
+			}
+			
+			if (!buffer.hasRemaining()) {
+				ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				grown.put(buffer);
+				buffer = grown;
+			}
+			
+			int count = 0;
+			try {
+				// A blocking channel returns at least one byte or the end ...
+				while (count == 0) {
+					count = channel.read(buffer);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading from channel.", e);
+			}
+			
+			buffer.flip();
+			buffer.position(position);
+			
+			if (count == -1) {
+				ended = true;
+				return false;
+			}
+			
+			return true;
+		}
 	}
 	
-	private InputSource(Reader source) {
-		checkNull(source);
+	// Reads characters, two hex digits make a byte when hex is set ...
+	private static final class CharSource extends InputSource {
+		private final Reader reader;
+		private final boolean hex;
+		private final char[] pair;
+		
+		private long position;
+		
+		CharSource(Reader reader, boolean hex) {
+			this.reader = reader;
+			this.hex = hex;
+			this.pair = new char[2];
+		}
+		
+		public char readNextChar(boolean expected) {
+			int c = -1;
+			try {
+				c = reader.read();
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading from stream/reader.", e);
+			}
+			
+			if (c == -1) {
+				if (expected) {
+					throw new IllegalStateException("Next character not available in stream/reader.");
+				}
+			}
+			
+			return (char)c;
+		}
+		
+		public char[] readNextChars(int nChars, boolean exactExpected) {
+			if (nChars < 1) {
+				throw new IllegalArgumentException("Characters read cannot be less than 1.");
+			}
+			
+			char[] buffer = new char[nChars];
+			int readCount = readChars(buffer, 0, nChars);
+			if (readCount < nChars) {
+				if (exactExpected) {
+					throw new IllegalStateException("Expected characters not available in stream/reader.");
+				}
+				
+				if (readCount == 0) {
+					return null;
+				}
+				
+				char[] result = new char[readCount];
+				System.arraycopy(buffer, 0, result, 0, readCount);
+				
+				return result;
+			}
+			
+			return buffer;
+		}
+		
+		public int readNextUnsignedByte(boolean expected) {
+			checkHex();
+			
+			int count = readChars(pair, 0, 2);
+			if (count == 0) {
+				return endOfData(expected);
+			}
+			
+			if (count < 2) {
+				throw new IllegalStateException("Incomplete hex digits in stream/reader.");
+			}
+			
+			++position;
+			return hexCharsToByte(pair[0], pair[1]) & 0xff;
+		}
+		
+		public long position() {
+			checkHex();
+			
+			return position;
+		}
+		
+		protected int read(byte[] dst, int offset, int length) {
+			checkHex();
+			
+			char[] chars = new char[2 * Math.min(length, DEFAULT_BUFFER_SIZE)];
+			int count = 0;
+			while (count < length) {
+				int n = Math.min(length - count, chars.length / 2);
+				int read = readChars(chars, 0, 2 * n);
+				if ((read & 1) == 1) {
+					throw new IllegalStateException("Incomplete hex digits in stream/reader.");
+				}
+				
+				hexToBytes(chars, 0, read, dst, offset + count);
+				count += read / 2;
+				
+				if (read < 2 * n) {
+					break;
+				}
+			}
+			
+			position += count;
+			return count;
+		}
+		
+		private int readChars(char[] buffer, int start, int nChars) {
+			int readCount = 0;
+			try {
+				// Readers may return fewer characters than available, so loop till done ...
+				int count;
+				while (readCount < nChars &&
+						(count = reader.read(buffer, start + readCount, nChars - readCount)) != -1) {
+					readCount += count;
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading from stream/reader.", e);
+			}
+			
+			return readCount;
+		}
 		
-		this.reader = source;
+		private void checkHex() {
+			if (!hex) {
+				throw new IllegalStateException("Stream not available.");
+			}
+		}
+	}
+	
+	// Holds the bytes of the fixed size integers read by the other sources ...
+	private final byte[] scratch = new byte[8];
+	
+	private InputSource() {
 	}
 	
 	public static InputSource wrap(InputStream source) {
-		return new InputSource(source);
+		checkNull(source);
+		
+		return wrap(Channels.newChannel(source));
 	}
 	
 	public static InputSource wrap(Reader source) {
-		return new InputSource(source);
+		checkNull(source);
+		
+		return new CharSource(source, false);
 	}
 	
 	public static InputSource wrap(byte[] source) {
-		return new InputSource(source);
+		checkNull(source);
+		
+		return new BufferSource(ByteBuffer.wrap(source));
 	}
 	
-	public char readNextChar() {
-		return readNextChar(true);
+	// Reads the remaining bytes of the given buffer, without moving its position ...
+	public static InputSource wrap(ByteBuffer source) {
+		checkNull(source);
+		
+		return new BufferSource(source.slice());
 	}
 	
-	public char readNextChar(boolean expected) {
-		openAsReader();
+	// The channel is read ahead into the refill buffer, so it should not be read
+	// elsewhere while this source is in use ...
+	public static InputSource wrap(ReadableByteChannel source) {
+		return wrap(source, DEFAULT_BUFFER_SIZE);
+	}
+	
+	public static InputSource wrap(ReadableByteChannel source, int bufferSize) {
+		checkNull(source);
 		
-		int c = -1;
-		try {
-			c = reader.read();
-		} catch (IOException e) {
-			throw new RuntimeException("Error reading from stream/reader.", e);
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size cannot be less than 1.");
 		}
 		
-		if (c == -1) {
-			if (expected) {
-				throw new IllegalStateException("Next character not available in stream/reader.");
-			}
-		}
+		return new ChannelSource(source, bufferSize);
+	}
+	
+	// The wrapHex variants decode hex text on the fly, so that the same binary parsers
+	// work for hex dumps as they do for raw bytes from files and sockets ...
+	public static InputSource wrapHex(CharSequence source) {
+		checkNull(source);
+		
+		return wrapHex(new StringReader(source.toString()));
+	}
+	
+	public static InputSource wrapHex(Reader source) {
+		checkNull(source);
+		
+		return new CharSource(source, true);
+	}
+	
+	public static InputSource wrapHex(InputStream source) {
+		checkNull(source);
 		
-		return (char)c;
+		return wrapHex(new BufferedReader(new InputStreamReader(source, StandardCharsets.US_ASCII)));
+	}
+	
+	public char readNextChar() {
+		return readNextChar(true);
+	}
+	
+	// Binary sources read every byte as a single (ISO-8859-1) character ...
+	public char readNextChar(boolean expected) {
+		return (char)readNextUnsignedByte(expected);
 	}
 	
 	public char[] readNextChars(int nChars) {
@@ -74,36 +467,17 @@ public final class InputSource {
 	}
 	
 	public char[] readNextChars(int nChars, boolean exactExpected) {
-		if (nChars < 1) {
-			throw new IllegalArgumentException("Characters read cannot be less than 1.");
+		byte[] bytes = readNextBytes(nChars, exactExpected);
+		if (bytes == null) {
+			return null;
 		}
 		
-		openAsReader();
-		
-		char[] buffer = new char[nChars];
-		int readCount = -1;
-		try {
-			readCount = reader.read(buffer);
-		} catch (IOException e) {
-			throw new RuntimeException("Error reading from stream/reader.", e);
-		}
-		
-		if (readCount < nChars) {
-			if (exactExpected) {				
-				throw new IllegalStateException("Expected characters not available in stream/reader.");
-			}
-			
-			if (readCount == -1) {
-				return null;
-			}
-			
-			char[] result = new char[readCount];
-			System.arraycopy(buffer, 0, result, 0, readCount);
-			
-			return result;
+		char[] chars = new char[bytes.length];
+		for (int i = 0; i < bytes.length; ++i) {
+			chars[i] = (char)(bytes[i] & 0xff);
 		}
 		
-		return buffer;
+		return chars;
 	}
 	
 	public byte readNextByte() {
@@ -111,126 +485,155 @@ public final class InputSource {
 	}
 	
 	public byte readNextByte(boolean expected) {
-		if (bytes != null) {
-			return readNextByteFromByteArray(expected);
-		}
-		
-		if (stream != null) {
-			return readNextByteFromStream(expected);
-		}
-		
-		// We can implement a stream from reader, but for now
-		// we will just throw IllegalState exception ...
-		throw new IllegalStateException("Stream not available.");
+		return (byte)readNextUnsignedByte(expected);
 	}
 	
-	public byte[] readNextBytes(int nBytes) {
-		if (bytes != null) {
-			return readNextBytesFromByteArray(nBytes, true);
-		}
-		
-		if (stream != null) {
-			return readNextBytesFromStream(nBytes, true);
-		}
-		
-		// We can implement a stream from reader, but for now
-		// we will just throw IllegalState exception ...
-		throw new IllegalStateException("Stream not available.");
+	// Unlike readNextByte this tells the end of the data apart from a 0xff byte,
+	// as -1 is returned at the end and the byte value (0 - 255) otherwise ...
+	public abstract int readNextUnsignedByte(boolean expected);
+	
+	// Reads a 4 byte little endian integer, as used for versions, indices, sequences
+	// and lock times ...
+	public int readNextIntLE() {
+		readFully(scratch, 0, 4);
+		return readIntLE(scratch, 0);
 	}
 	
-	private byte readNextByteFromStream(boolean expected) {
-		int c = -1;
-		try {
-			c = stream.read();
-		} catch (IOException e) {
-			throw new RuntimeException("Error reading from stream/reader.", e);
-		}
-		
-		if (c == -1) {
-			if (expected) {
-				throw new IllegalStateException("Next character not available in stream/reader.");
-			}
-		}
-		
-		return (byte)c;
+	// Reads an 8 byte little endian integer, as used for amounts ...
+	public long readNextLongLE() {
+		readFully(scratch, 0, 8);
+		return readLongLE(scratch, 0);
 	}
 	
-	private byte readNextByteFromByteArray(boolean expected) {
-		if (bIndex >= bytes.length) {
-			if (expected) {
-				throw new IllegalStateException("Expected bytes not available in stream.");
-			}
-			
-			return -1;
+	// Reads a bitcoin variable length integer, values of 2^63 and above come back
+	// negative as they are unsigned ...
+	public long readNextVarLong() {
+		return readNextVarLong(readNextUnsignedByte(true));
+	}
+	
+	// Reads the rest of a varint whose first byte has already been read, as done
+	// where that byte may turn out to be a marker instead ...
+	public long readNextVarLong(int prefix) {
+		switch (prefix & 0xff) {
+			case 0xfd: 
+				readFully(scratch, 0, 2);
+				return (scratch[0] & 0xff) | (scratch[1] & 0xff) << 8;
+			case 0xfe: 
+				return Integer.toUnsignedLong(readNextIntLE());
+			case 0xff: 
+				return readNextLongLE();
+			default: 
+				// The already read byte represents the number ...
+				return prefix & 0xff;
 		}
-		
-		return bytes[bIndex++];
 	}
 	
-	private byte[] readNextBytesFromStream(int nBytes, boolean exactExpected) {		
-		if (nBytes < 1) {
-			throw new IllegalArgumentException("bytes read cannot be less than 1.");
+	public BigInteger readNextVarInt() {
+		return fromUnsigned(readNextVarLong());
+	}
+	
+	// Reads a varint that counts items or bytes, which has to fit an int ...
+	public int readNextCount() {
+		long count = readNextVarLong();
+		if (count < 0 || count > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Count not valid: " + Long.toUnsignedString(count));
 		}
 		
-		byte[] buffer = new byte[nBytes];
-		int readCount = -1;
-		try {
-			readCount = stream.read(buffer);
-		} catch (IOException e) {
-			throw new RuntimeException("Error reading from stream/reader.", e);
-		}
+		return (int)count;
+	}
+	
+	public byte[] readNextBytes(int nBytes) {
+		return readNextBytes(nBytes, true);
+	}
+	
+	public byte[] readNextBytes(int nBytes, boolean exactExpected) {
+		checkCount(nBytes);
 		
-		if (readCount < nBytes) {
+		byte[] bytes = new byte[nBytes];
+		int count = read(bytes, 0, nBytes);
+		if (count < nBytes) {
 			if (exactExpected) {
 				throw new IllegalStateException("Expected bytes not available in stream.");
 			}
 			
-			if (readCount == -1) {
+			if (count == 0) {
 				return null;
 			}
 			
-			return newBytes(buffer, 0, readCount);
+			byte[] result = new byte[count];
+			System.arraycopy(bytes, 0, result, 0, count);
+			
+			return result;
 		}
 		
-		return buffer;		
+		return bytes;
 	}
 	
-	private byte[] readNextBytesFromByteArray(int nBytes, boolean expected) {		
-		if (nBytes < 1) {
-			throw new IllegalArgumentException("Characters read cannot be less than 1.");
-		}
+	// Reads exactly length bytes into the given array, nothing is allocated ...
+	public void readFully(byte[] dst, int offset, int length) {
+		checkNull(dst);
 		
-		if (bIndex >= bytes.length) {
-			if (expected) {
-				throw new IllegalStateException("Expected bytes not available in stream.");
-			}
-			
-			return new byte[0];
+		if (offset < 0 || length < 0 || offset + length > dst.length) {
+			throw new ArrayIndexOutOfBoundsException(offset + length);
 		}
 		
-		int upto = bIndex + nBytes;
-		if (upto > bytes.length) {
-			if (expected) {
-				throw new IllegalStateException("Expected bytes not available in stream.");
-			}
-			
-			upto = bytes.length;
+		if (read(dst, offset, length) < length) {
+			throw new IllegalStateException("Expected bytes not available in stream.");
+		}
+	}
+	
+	// Reads everything up to the end of the data, for content that has no length of
+	// its own such as a script handed over in a slice ...
+	public byte[] readRemainingBytes() {
+		OutputSink sink = new OutputSink();
+		byte[] chunk = new byte[256];
+		int count;
+		while ((count = read(chunk, 0, chunk.length)) > 0) {
+			sink.write(chunk, 0, count);
 		}
 		
-		byte[] sub = newBytes(bytes, bIndex, upto);
-		bIndex = upto;
+		return sink.size() == 0 ? EMPTY_BYTES : sink.toByteArray();
+	}
+	
+	// Returns the next nBytes as a read only buffer. Buffer backed sources return a
+	// view sharing their content, the others a copy, so the result can be kept
+	// either way ...
+	public ByteBuffer readNextSlice(int nBytes) {
+		return ByteBuffer.wrap(readNextBytes(nBytes)).asReadOnlyBuffer();
+	}
+	
+	// Number of bytes read so far ...
+	public abstract long position();
+	
+	public boolean markSupported() {
+		return false;
+	}
+	
+	// Remembers the current position, a later reset() goes back to it. Only the
+	// latest mark counts and reset() clears it ...
+	public void mark() {
+		throw new UnsupportedOperationException("Mark not supported.");
+	}
+	
+	public void reset() {
+		throw new UnsupportedOperationException("Mark not supported.");
+	}
+	
+	// Reads up to length bytes and returns the count read, which is less than the
+	// given length only at the end of the data ...
+	protected abstract int read(byte[] dst, int offset, int length);
+	
+	private static int endOfData(boolean expected) {
+		if (expected) {
+			throw new IllegalStateException("Expected bytes not available in stream.");
+		}
 		
-		return sub;
+		return -1;
 	}
 	
-	private void openAsReader() {
-		if (reader == null) {
-			if (bytes == null) {
-				reader = new BufferedReader(new InputStreamReader(stream));
-			} else {
-				reader = new BufferedReader(new InputStreamReader(
-						new ByteArrayInputStream(bytes)));
-			}
+	private static void checkCount(int nBytes) {
+		if (nBytes < 1) {
+			throw new IllegalArgumentException("Bytes read cannot be less than 1.");
 		}
 	}
 }
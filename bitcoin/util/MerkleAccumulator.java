@@ -0,0 +1,93 @@
+package bitcoin.util;
+
+import static bitcoin.util.Bytes.newBytes;
+import static bitcoin.util.Crypto.HASH_LENGTH;
+import static bitcoin.util.Crypto.hash256;
+import static bitcoin.util.Functions.checkNull;
+
+// Append only merkle root calculator that remembers just the frontier of the tree,
+// that is at most one complete subtree hash per level. All hashes are expected and
+// returned in their internal (hashing) byte order. Instances are not thread safe ...
+public final class MerkleAccumulator {
+	private static final int MAX_LEVELS = 64;
+	
+	// Hash of the complete subtree of 2^level leaves at every level whose bit is
+	// set in the leaf count ...
+	private final byte[] frontier;
+	private final byte[] pair;
+	
+	private long count;
+	
+	public MerkleAccumulator() {
+		this.frontier = new byte[MAX_LEVELS * HASH_LENGTH];
+		this.pair = new byte[2 * HASH_LENGTH];
+	}
+	
+	public long size() {
+		return count;
+	}
+	
+	public void append(byte[] txId) {
+		checkNull(txId);
+		
+		if (txId.length != HASH_LENGTH) {
+			throw new IllegalArgumentException("Transaction id not valid.");
+		}
+		
+		append(txId, 0);
+	}
+	
+	public void append(byte[] txIds, int offset) {
+		checkNull(txIds);
+		
+		if (offset < 0 || offset + HASH_LENGTH > txIds.length) {
+			throw new ArrayIndexOutOfBoundsException(offset);
+		}
+		
+		System.arraycopy(txIds, offset, pair, HASH_LENGTH, HASH_LENGTH);
+		
+		// Every trailing set bit of the current count is a complete subtree of the same
+		// size as the one being carried, so merge them just like a binary increment ...
+		int level = 0;
+		while (((count >>> level) & 1) == 1) {
+			System.arraycopy(frontier, level * HASH_LENGTH, pair, 0, HASH_LENGTH);
+			hash256(pair, 0, 2 * HASH_LENGTH, pair, HASH_LENGTH);
+			++level;
+		}
+		
+		System.arraycopy(pair, HASH_LENGTH, frontier, level * HASH_LENGTH, HASH_LENGTH);
+		++count;
+	}
+	
+	public byte[] root() {
+		if (count == 0) {
+			return null;
+		}
+		
+		// Start with the smallest complete subtree ...
+		int level = Long.numberOfTrailingZeros(count);
+		long n = count;
+		
+		byte[] h = newBytes(frontier, level * HASH_LENGTH, (level + 1) * HASH_LENGTH);
+		while (n != (1L << level)) {
+			// The current hash is not the top, so it has no sibling at this level and
+			// gets paired with itself as per the bitcoin rule for odd levels ...
+			System.arraycopy(h, 0, pair, 0, HASH_LENGTH);
+			System.arraycopy(h, 0, pair, HASH_LENGTH, HASH_LENGTH);
+			hash256(pair, 0, 2 * HASH_LENGTH, h, 0);
+			
+			// Count as if the missing sibling was appended and carry upwards ...
+			n += 1L << level;
+			++level;
+			
+			while (((n >>> level) & 1) == 0) {
+				System.arraycopy(frontier, level * HASH_LENGTH, pair, 0, HASH_LENGTH);
+				System.arraycopy(h, 0, pair, HASH_LENGTH, HASH_LENGTH);
+				hash256(pair, 0, 2 * HASH_LENGTH, h, 0);
+				++level;
+			}
+		}
+		
+		return h;
+	}
+}
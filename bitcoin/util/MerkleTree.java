@@ -3,6 +3,8 @@ package bitcoin.util;
 import static bitcoin.util.Bytes.combine;
 import static bitcoin.util.Bytes.newBytes;
 import static bitcoin.util.Bytes.reverse;
+import static bitcoin.util.Crypto.HASH_LENGTH;
+import static bitcoin.util.Crypto.hash256;
 import static bitcoin.util.Crypto.hash256BigInt;
 import static bitcoin.util.Functions.checkNull;
 import static bitcoin.util.Functions.isNull;
@@ -12,8 +14,53 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public final class MerkleTree {		
+	// Levels with at least these many nodes are hashed on the fork-join pool ...
+	private static final int PARALLEL_THRESHOLD = 2048;
+	
+	// Number of parent nodes hashed by a single fork-join task ...
+	private static final int PARALLEL_GRAIN = 512;
+	
+	// Used to hash the last node with itself when a level has an odd number of nodes ...
+	private static final ThreadLocal<byte[]> PAIR_SCRATCH = 
+		new ThreadLocal<byte[]>() {
+			@Override protected byte[] initialValue() {
+				return new byte[2 * HASH_LENGTH];
+			}
+	};
+	
+	private static final class LevelTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final byte[] children;
+		private final byte[] parents;
+		private final int size;
+		private final int from;
+		private final int to;
+		
+		LevelTask(byte[] children, byte[] parents, int size, int from, int to) {
+			this.children = children;
+			this.parents = parents;
+			this.size = size;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (to - from <= PARALLEL_GRAIN) {
+				hashLevel(children, parents, size, from, to);
+				return;
+			}
+			
+			int middle = (from + to) >>> 1;
+			invokeAll(new LevelTask(children, parents, size, from, middle),
+						new LevelTask(children, parents, size, middle, to));
+		}
+	}
+	
 	private List<List<BigInteger>> nodes;
 	
 	private int currentLevel;
@@ -168,15 +215,116 @@ public final class MerkleTree {
 			return null;
 		}
 		
-		while(!children.isEmpty() && children.size() > 2) {
-			children = parentsOf(children);
+		int count = children.size();
+		byte[] nodes = new byte[count * HASH_LENGTH];
+		for (int i = 0; i < count; ++i) {
+			byte[] b = children.get(i).toByteArray();
+			
+			// sha-256 and hash-256 are 32 bytes, so we need to remove the extra sign byte
+			// if present, or left pad with zeros if the value is shorter ...
+			int length = Math.min(b.length, HASH_LENGTH);
+			System.arraycopy(b, b.length - length, nodes, (i + 1) * HASH_LENGTH - length, length);
+		}
+		
+		reduceToRoot(nodes, count);
+		
+		return new BigInteger(1, newBytes(nodes, 0, HASH_LENGTH));
+	}
+	
+	// Computes the merkle root of the given transaction ids, each 32 bytes long and laid 
+	// out back to back in their internal (hashing) byte order. The given array is left 
+	// untouched and the root is returned in the internal byte order as well ...
+	public static byte[] rootOf(byte[] txIds, int count) {
+		checkNull(txIds);
+		
+		if (count < 1 || txIds.length < count * HASH_LENGTH) {
+			throw new IllegalArgumentException("Transaction ids not valid.");
+		}
+		
+		byte[] nodes = newBytes(txIds, 0, count * HASH_LENGTH);
+		reduceToRoot(nodes, count);
+		
+		return count == 1 ? nodes : newBytes(nodes, 0, HASH_LENGTH);
+	}
+	
+	// Computes every level of the merkle tree for the given transaction ids (32 bytes
+	// each in internal byte order). The first level is a copy of the ids and the last
+	// one holds just the root ...
+	public static byte[][] levelsOf(byte[] txIds, int count) {
+		checkNull(txIds);
+		
+		if (count < 1 || txIds.length < count * HASH_LENGTH) {
+			throw new IllegalArgumentException("Transaction ids not valid.");
+		}
+		
+		int height = 0;
+		while (widthOf(count, height) > 1) {
+			++height;
+		}
+		
+		byte[][] levels = new byte[height + 1][];
+		levels[0] = newBytes(txIds, 0, count * HASH_LENGTH);
+		
+		int size = count;
+		for (int h = 1; h <= height; ++h) {
+			int parents = widthOf(count, h);
+			levels[h] = new byte[parents * HASH_LENGTH];
+			
+			// Every level gets its own array, so large ones can always be split ...
+			if (size < PARALLEL_THRESHOLD) {
+				hashLevel(levels[h - 1], levels[h], size, 0, parents);
+			} else {
+				ForkJoinPool.commonPool().invoke(new LevelTask(levels[h - 1], levels[h], size, 0, parents));
+			}
+			
+			size = parents;
+		}
+		
+		return levels;
+	}
+	
+	// Number of nodes at the given height (leaves being at height 0) of a tree
+	// with the given number of leaves ...
+	public static int widthOf(int count, int height) {
+		return (int)((count + (1L << height) - 1) >> height);
+	}
+	
+	// Same as rootOf, but the levels are computed in place over the given array, hence
+	// the contents are overwritten. On return the first 32 bytes hold the merkle root ...
+	public static void reduceToRoot(byte[] nodes, int count) {
+		checkNull(nodes);
+		
+		if (count < 1 || nodes.length < count * HASH_LENGTH) {
+			throw new IllegalArgumentException("Merkle nodes not valid.");
 		}
 		
-		if (children.size() == 1) {
-			return children.get(0);
+		byte[] level = nodes;
+		byte[] scratch = null;
+		int size = count;
+		while (size > 1) {
+			int parents = (size + 1) >>> 1;
+			if (size < PARALLEL_THRESHOLD) {
+				// Parent 'p' is written only after children '2p' and '2p + 1' are read,
+				// hence a single thread can safely compute the level in place ...
+				hashLevel(level, level, size, 0, parents);
+			} else {
+				// Concurrent tasks would overwrite children still to be read by other tasks,
+				// hence large levels alternate between the given array and a scratch array ...
+				if (isNull(scratch)) {
+					scratch = new byte[parents * HASH_LENGTH];
+				}
+				
+				byte[] target = level == nodes ? scratch : nodes;
+				ForkJoinPool.commonPool().invoke(new LevelTask(level, target, size, 0, parents));
+				level = target;
+			}
+			
+			size = parents;
 		}
 		
-		return parentOf(children.get(0), children.get(1));
+		if (level != nodes) {
+			System.arraycopy(level, 0, nodes, 0, HASH_LENGTH);
+		}
 	}
 	
 	public static BigInteger reverseOf(BigInteger hash) {
@@ -246,6 +394,22 @@ public final class MerkleTree {
 		return nodes.get(currentLevel + 1).get(currentIndex * 2 + 1);
 	}
 	
+	private static void hashLevel(byte[] children, byte[] parents, int size, int from, int to) {
+		for (int p = from; p < to; ++p) {
+			int left = 2 * p;
+			if (left + 1 < size) {
+				// Left and right children are adjacent, so hash the 64 bytes directly ...
+				hash256(children, left * HASH_LENGTH, 2 * HASH_LENGTH, parents, p * HASH_LENGTH);
+			} else {
+				// Odd number of nodes in this level, hence the last one is paired with itself ...
+				byte[] pair = PAIR_SCRATCH.get();
+				System.arraycopy(children, left * HASH_LENGTH, pair, 0, HASH_LENGTH);
+				System.arraycopy(children, left * HASH_LENGTH, pair, HASH_LENGTH, HASH_LENGTH);
+				hash256(pair, 0, 2 * HASH_LENGTH, parents, p * HASH_LENGTH);
+			}
+		}
+	}
+	
 	private static int ensureEven(int num) {
 		boolean odd = (num & 1) == 1;
 		return odd ? num + 1 : num;
@@ -1,48 +1,143 @@
 package bitcoin.util;
 
+import static bitcoin.util.BigInt.sizeOfVarInt;
 import static bitcoin.util.Bytes.EMPTY_BYTES;
-import static bitcoin.util.Bytes.concatenate;
+import static bitcoin.util.Functions.checkNull;
 
+// Growable contiguous buffer that serialized content is written to. A sink sized
+// with the serialized size up front never grows, and hands its buffer out as is ...
 public final class OutputSink {
+	private static final int DEFAULT_CAPACITY = 256;
 	
-	private static final class Bytes {
-		byte[] data;
-		Bytes next;
-		
-		Bytes(byte[] data) {
-			this.data = data;
-		}
-	}
-	
-	private Bytes root;
-	private Bytes current;
+	private byte[] buffer;
 	private int length;
 	
+	// Set for sinks that keep nothing and only count the bytes written ...
+	private boolean counting;
+	
+	// Set once the buffer has been handed out, it is copied before the next change ...
+	private boolean shared;
+	
 	public OutputSink() {
-		this.root = new Bytes(EMPTY_BYTES);
-		this.current = root;
-		++length;
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public OutputSink(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be less than 0.");
+		}
+		
+		this.buffer = capacity == 0 ? EMPTY_BYTES : new byte[capacity];
+	}
+	
+	// Returns a sink that just counts, used to work out serialized sizes ...
+	public static OutputSink counting() {
+		OutputSink sink = new OutputSink(0);
+		sink.counting = true;
+		
+		return sink;
 	}
 	
 	public void write(byte data) {
-		write(new byte[] {data});
+		if (!counting) {
+			ensureCapacity(1);
+			buffer[length] = data;
+		}
+		
+		++length;
 	}
 	
 	public void write(byte[] data) {
-		Bytes b = new Bytes(data);
-		current.next = b;
-		current = b;
-		++length;
+		checkNull(data);
+		
+		write(data, 0, data.length);
+	}
+	
+	public void write(byte[] data, int offset, int count) {
+		checkNull(data);
+		
+		if (offset < 0 || count < 0 || offset + count > data.length) {
+			throw new ArrayIndexOutOfBoundsException(offset + count);
+		}
+		
+		if (!counting) {
+			ensureCapacity(count);
+			System.arraycopy(data, offset, buffer, length, count);
+		}
+		
+		length += count;
+	}
+	
+	// Writes a 4 byte little endian integer ...
+	public void writeIntLE(int value) {
+		if (!counting) {
+			ensureCapacity(4);
+			BigInt.writeIntLE(value, buffer, length);
+		}
+		
+		length += 4;
+	}
+	
+	// Writes an 8 byte little endian integer ...
+	public void writeLongLE(long value) {
+		if (!counting) {
+			ensureCapacity(8);
+			BigInt.writeLongLE(value, buffer, length);
+		}
+		
+		length += 8;
+	}
+	
+	// Writes a bitcoin variable length integer, the value is taken as unsigned ...
+	public void writeVarInt(long value) {
+		int size = sizeOfVarInt(value);
+		if (!counting) {
+			ensureCapacity(size);
+			BigInt.writeVarInt(value, buffer, length);
+		}
+		
+		length += size;
+	}
+	
+	public int size() {
+		return length;
+	}
+	
+	// Discards the written bytes but keeps the buffer, so that a sink can be reused ...
+	public void reset() {
+		if (shared) {
+			buffer = new byte[buffer.length];
+			shared = false;
+		}
+		
+		length = 0;
 	}
 	
 	public byte[] toByteArray() {
-		byte[][] bytesArray = new byte[length][];
-		Bytes b = root;
-		for (int i = 0; i < length; ++i) {
-			bytesArray[i] = b.data;
-			b = b.next;
+		if (counting) {
+			throw new IllegalStateException("Counting sink keeps no bytes.");
 		}
 		
-		return concatenate(bytesArray);
+		if (length == buffer.length) {
+			// Exactly sized, so the buffer itself is handed out and gets copied
+			// if the sink is written to again ...
+			shared = true;
+			return buffer;
+		}
+		
+		byte[] result = new byte[length];
+		System.arraycopy(buffer, 0, result, 0, length);
+		
+		return result;
+	}
+	
+	private void ensureCapacity(int count) {
+		int needed = length + count;
+		if (needed > buffer.length || shared) {
+			byte[] grown = new byte[Math.max(needed, Math.max(2 * buffer.length, DEFAULT_CAPACITY))];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+			shared = false;
+		}
 	}
 }
@@ -0,0 +1,359 @@
+package bitcoin.util;
+
+import static bitcoin.util.Bytes.areEqual;
+import static bitcoin.util.Bytes.newBytes;
+import static bitcoin.util.Crypto.HASH_LENGTH;
+import static bitcoin.util.Crypto.hash256;
+import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The BIP37 partial merkle tree carried by a "merkleblock" message, that is the
+// total number of transactions, the flag bits and the hashes (in internal byte
+// order) required to prove the matched transactions ...
+public final class PartialMerkleTree {
+	private static final int MAX_ENTRIES = 16;
+	
+	// Subtree hashes of recently requested blocks, so that many proofs against the
+	// same block only hash the tree once ...
+	private static final Map<Hash256, byte[][]> CACHE =
+			Collections.synchronizedMap(
+				new LinkedHashMap<Hash256, byte[][]>(MAX_ENTRIES, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					
+					protected boolean removeEldestEntry(Map.Entry<Hash256, byte[][]> eldest) {
+				        return size() > MAX_ENTRIES;
+				     }
+				}
+			);
+	
+	private static final class Builder {
+		private final byte[][] levels;
+		private final int total;
+		private final BitSet matches;
+		
+		private final BitSet flagBits;
+		private int flagCount;
+		
+		private byte[] hashes;
+		private int hashCount;
+		
+		Builder(byte[][] levels, int total, BitSet matches) {
+			this.levels = levels;
+			this.total = total;
+			this.matches = matches;
+			this.flagBits = new BitSet();
+			this.hashes = new byte[8 * HASH_LENGTH];
+		}
+		
+		PartialMerkleTree build() {
+			traverse(levels.length - 1, 0);
+			
+			byte[] flags = new byte[(flagCount + 7) / 8];
+			byte[] set = flagBits.toByteArray();
+			System.arraycopy(set, 0, flags, 0, set.length);
+			
+			return new PartialMerkleTree(total, newBytes(hashes, 0, hashCount * HASH_LENGTH), hashCount, flags);
+		}
+		
+		private void traverse(int height, int pos) {
+			// Check if any of the leaves under this node is a match ...
+			int from = pos << height;
+			int to = Math.min((pos + 1) << height, total);
+			int next = matches.nextSetBit(from);
+			boolean parentOfMatch = next >= 0 && next < to;
+			
+			if (parentOfMatch) {
+				flagBits.set(flagCount);
+			}
+			++flagCount;
+			
+			if (height == 0 || !parentOfMatch) {
+				// Either a leaf or nothing interesting below, the hash is all we need ...
+				addHash(levels[height], pos);
+				return;
+			}
+			
+			traverse(height - 1, pos * 2);
+			if (pos * 2 + 1 < MerkleTree.widthOf(total, height - 1)) {
+				traverse(height - 1, pos * 2 + 1);
+			}
+		}
+		
+		private void addHash(byte[] level, int pos) {
+			if ((hashCount + 1) * HASH_LENGTH > hashes.length) {
+				byte[] grown = new byte[hashes.length * 2];
+				System.arraycopy(hashes, 0, grown, 0, hashCount * HASH_LENGTH);
+				hashes = grown;
+			}
+			
+			System.arraycopy(level, pos * HASH_LENGTH, hashes, hashCount * HASH_LENGTH, HASH_LENGTH);
+			++hashCount;
+		}
+	}
+	
+	// Result of walking a partial merkle tree, the computed root along with the matched
+	// transaction ids (in internal byte order) and their positions within the block ...
+	public static final class Matches {
+		private final byte[] root;
+		private final byte[] txIds;
+		private final int[] positions;
+		private final int count;
+		
+		private Matches(byte[] root, byte[] txIds, int[] positions, int count) {
+			this.root = root;
+			this.txIds = txIds;
+			this.positions = positions;
+			this.count = count;
+		}
+		
+		public byte[] getRoot() {
+			return newBytes(root);
+		}
+		
+		public boolean isRoot(byte[] hash, int offset) {
+			checkNull(hash);
+			
+			return areEqual(root, 0, HASH_LENGTH, hash, offset, offset + HASH_LENGTH);
+		}
+		
+		public int size() {
+			return count;
+		}
+		
+		public int getPosition(int index) {
+			if (index < 0 || index >= count) {
+				throw new IllegalArgumentException("No match with that index exists.");
+			}
+			
+			return positions[index];
+		}
+		
+		public byte[] getTxId(int index) {
+			if (index < 0 || index >= count) {
+				throw new IllegalArgumentException("No match with that index exists.");
+			}
+			
+			return newBytes(txIds, index * HASH_LENGTH, (index + 1) * HASH_LENGTH);
+		}
+	}
+	
+	private static final class Extractor {
+		private final PartialMerkleTree tree;
+		
+		// Holds the left and right child hashes for every height of the walk, so
+		// that nothing is allocated per node ...
+		private final byte[] pairs;
+		
+		private int bitIndex;
+		private int hashIndex;
+		
+		private byte[] txIds;
+		private int[] positions;
+		private int count;
+		
+		Extractor(PartialMerkleTree tree, int height) {
+			this.tree = tree;
+			this.pairs = new byte[(height + 1) * 2 * HASH_LENGTH];
+			this.txIds = new byte[4 * HASH_LENGTH];
+			this.positions = new int[4];
+		}
+		
+		Matches extract(int height) {
+			byte[] root = new byte[HASH_LENGTH];
+			traverse(height, 0, root, 0);
+			
+			// Every hash must be used and only the padding of the last flag byte may
+			// remain unread ...
+			if (hashIndex != tree.hashCount) {
+				throw new IllegalArgumentException("Not all hashes consumed.");
+			}
+			
+			if ((bitIndex + 7) / 8 != tree.flags.length) {
+				throw new IllegalArgumentException("Not all flags consumed.");
+			}
+			
+			return new Matches(root, txIds, positions, count);
+		}
+		
+		private void traverse(int height, int pos, byte[] out, int outOffset) {
+			if (bitIndex >= tree.flags.length * 8) {
+				throw new IllegalArgumentException("Flag bits exhausted.");
+			}
+			
+			boolean parentOfMatch = ((tree.flags[bitIndex >>> 3] >>> (bitIndex & 7)) & 1) == 1;
+			++bitIndex;
+			
+			if (height == 0 || !parentOfMatch) {
+				if (hashIndex >= tree.hashCount) {
+					throw new IllegalArgumentException("Hashes exhausted.");
+				}
+				
+				System.arraycopy(tree.hashes, hashIndex * HASH_LENGTH, out, outOffset, HASH_LENGTH);
+				++hashIndex;
+				
+				if (height == 0 && parentOfMatch) {
+					addMatch(out, outOffset, pos);
+				}
+				
+				return;
+			}
+			
+			int pairOffset = height * 2 * HASH_LENGTH;
+			traverse(height - 1, pos * 2, pairs, pairOffset);
+			if (pos * 2 + 1 < MerkleTree.widthOf(tree.total, height - 1)) {
+				traverse(height - 1, pos * 2 + 1, pairs, pairOffset + HASH_LENGTH);
+				
+				// Identical siblings would allow the same root for a different set of
+				// transactions (CVE-2012-2459), hence such proofs are rejected ...
+				if (areEqual(pairs, pairOffset, pairOffset + HASH_LENGTH, 
+						pairs, pairOffset + HASH_LENGTH, pairOffset + 2 * HASH_LENGTH)) {
+					throw new IllegalArgumentException("Duplicate hashes in partial merkle tree.");
+				}
+			} else {
+				System.arraycopy(pairs, pairOffset, pairs, pairOffset + HASH_LENGTH, HASH_LENGTH);
+			}
+			
+			hash256(pairs, pairOffset, 2 * HASH_LENGTH, out, outOffset);
+		}
+		
+		private void addMatch(byte[] hash, int offset, int pos) {
+			if (count == positions.length) {
+				positions = Arrays.copyOf(positions, count * 2);
+				txIds = Arrays.copyOf(txIds, count * 2 * HASH_LENGTH);
+			}
+			
+			System.arraycopy(hash, offset, txIds, count * HASH_LENGTH, HASH_LENGTH);
+			positions[count] = pos;
+			++count;
+		}
+	}
+	
+	private int total;
+	private byte[] hashes;
+	private int hashCount;
+	private byte[] flags;
+	
+	public PartialMerkleTree(int total, byte[] hashes, int hashCount, byte[] flags) {
+		checkNull(hashes, flags);
+		
+		if (total < 1 || hashCount < 0 || hashes.length < hashCount * HASH_LENGTH) {
+			throw new IllegalArgumentException("Partial merkle tree not valid.");
+		}
+		
+		this.total = total;
+		this.hashes = hashes;
+		this.hashCount = hashCount;
+		this.flags = flags;
+	}
+	
+	public int getTotal() {
+		return total;
+	}
+	
+	public int getHashCount() {
+		return hashCount;
+	}
+	
+	public byte[] getHash(int index) {
+		if (index < 0 || index >= hashCount) {
+			throw new IllegalArgumentException("No hash with that index exists.");
+		}
+		
+		return newBytes(hashes, index * HASH_LENGTH, (index + 1) * HASH_LENGTH);
+	}
+	
+	public byte[] getFlags() {
+		return newBytes(flags);
+	}
+	
+	public byte[] getHashes() {
+		return newBytes(hashes, 0, hashCount * HASH_LENGTH);
+	}
+	
+	// Walks the flag bits and hashes to recompute the merkle root and to collect the
+	// matched transactions. Malformed trees result in an IllegalArgumentException ...
+	public Matches extractMatches() {
+		// There cannot be more hashes than transactions ...
+		if (hashCount > total) {
+			throw new IllegalArgumentException("Too many hashes in partial merkle tree.");
+		}
+		
+		int height = 0;
+		while (MerkleTree.widthOf(total, height) > 1) {
+			++height;
+		}
+		
+		return new Extractor(this, height).extract(height);
+	}
+	
+	public void writeTo(OutputSink sink) {
+		checkNull(sink);
+		
+		// Write the total number of transactions ...
+		sink.writeIntLE(total);
+		
+		// Next write the hash count followed by the hashes ...
+		sink.writeVarInt(hashCount);
+		sink.write(hashes, 0, hashCount * HASH_LENGTH);
+		
+		// Finally write the flags count followed by the flag bytes ...
+		sink.writeVarInt(flags.length);
+		sink.write(flags);
+	}
+	
+	// Builds the proof for the matched positions of the given transaction ids (32 bytes
+	// each in internal byte order) ...
+	public static PartialMerkleTree build(byte[] txIds, int count, BitSet matches) {
+		return build(null, txIds, count, matches);
+	}
+	
+	// Same as above but the subtree hashes are cached against the given block id, and
+	// reused only while the ids match the cached ones ...
+	public static PartialMerkleTree build(Hash256 blockId, byte[] txIds, int count, BitSet matches) {
+		checkNull(txIds, matches);
+		
+		return new Builder(levelsOf(blockId, txIds, count), count, matches).build();
+	}
+	
+	public static PartialMerkleTree build(Hash256 blockId, byte[] txIds, int count, BloomFilter filter) {
+		checkNull(txIds, filter);
+		
+		// BIP37 matches transaction ids in their internal byte order ...
+		BitSet matches = new BitSet(count);
+		byte[] txId = new byte[HASH_LENGTH];
+		for (int i = 0; i < count; ++i) {
+			System.arraycopy(txIds, i * HASH_LENGTH, txId, 0, HASH_LENGTH);
+			if (filter.contains(txId)) {
+				matches.set(i);
+			}
+		}
+		
+		return build(blockId, txIds, count, matches);
+	}
+	
+	private static byte[][] levelsOf(Hash256 blockId, byte[] txIds, int count) {
+		if (isNull(blockId)) {
+			return MerkleTree.levelsOf(txIds, count);
+		}
+		
+		// The cached tree is only used for exactly the same ids, as the block id is
+		// taken on trust from the caller ...
+		int length = count * HASH_LENGTH;
+		byte[][] levels = CACHE.get(blockId);
+		if (isNull(levels) || txIds.length < length ||
+				!Arrays.equals(levels[0], 0, levels[0].length, txIds, 0, length)) {
+			// Concurrent requests for a new block may both hash the tree, but the
+			// results are identical so whichever lands last is fine ...
+			levels = MerkleTree.levelsOf(txIds, count);
+			CACHE.put(blockId, levels);
+		}
+		
+		return levels;
+	}
+}
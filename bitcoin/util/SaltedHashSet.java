@@ -0,0 +1,124 @@
+package bitcoin.util;
+
+import static bitcoin.util.Crypto.copyOf;
+import static bitcoin.util.Crypto.sha256Digest;
+import static bitcoin.util.Functions.checkNull;
+import static bitcoin.util.Functions.isNull;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded set of hashes for the verification caches. Keys are hashed with a digest
+// that starts from a random salt drawn once per set, so nobody can choose entries
+// that collide. Entries are kept in two generations of half the capacity each. New
+// ones go to the current generation, and once that is full it becomes the previous
+// one while the old previous one is dropped as a whole. A key found in the previous
+// generation moves up again, so the recent and recently used entries are the ones
+// kept, and an add is constant work however full the set is ...
+public final class SaltedHashSet {
+	private final int capacity;
+	private final int generationCapacity;
+	private final MessageDigest salted;
+	
+	private volatile Map<Hash256, Boolean> current;
+	private volatile Map<Hash256, Boolean> previous;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	public SaltedHashSet(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Capacity must be at least 2.");
+		}
+		
+		byte[] salt = new byte[32];
+		new SecureRandom().nextBytes(salt);
+		
+		MessageDigest digestor = sha256Digest();
+		digestor.update(salt);
+		
+		this.capacity = capacity;
+		this.generationCapacity = capacity / 2;
+		this.salted = copyOf(digestor);
+		this.current = new ConcurrentHashMap<Hash256, Boolean>();
+		this.previous = new ConcurrentHashMap<Hash256, Boolean>();
+		
+		digestor.reset();
+	}
+	
+	// A SHA-256 digest already fed with the salt, to hash the content of a key into ...
+	public MessageDigest newDigest() {
+		return copyOf(salted);
+	}
+	
+	public boolean contains(Hash256 key) {
+		checkNull(key);
+		
+		boolean found = current.containsKey(key);
+		if (!found && !isNull(previous.remove(key))) {
+			add(key);
+			found = true;
+		}
+		
+		if (found) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		
+		return found;
+	}
+	
+	public void add(Hash256 key) {
+		checkNull(key);
+		
+		Map<Hash256, Boolean> entries = current;
+		if (isNull(entries.putIfAbsent(key, Boolean.TRUE)) && entries.size() >= generationCapacity) {
+			rotate(entries);
+		}
+	}
+	
+	// Keys added by other threads while a generation is rotated may land in the full
+	// one, so the size can go slightly past the capacity under load ...
+	public int size() {
+		return current.size() + previous.size();
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	// The share of lookups answered from the set, zero before the first one ...
+	public double getHitRate() {
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		
+		return total == 0 ? 0 : (double)hit / total;
+	}
+	
+	public synchronized void clear() {
+		current = new ConcurrentHashMap<Hash256, Boolean>();
+		previous = new ConcurrentHashMap<Hash256, Boolean>();
+		hits.reset();
+		misses.reset();
+	}
+	
+	// Only the first of the threads that saw the generation fill up rotates it ...
+	private synchronized void rotate(Map<Hash256, Boolean> full) {
+		if (current == full) {
+			previous = full;
+			current = new ConcurrentHashMap<Hash256, Boolean>();
+		}
+	}
+}